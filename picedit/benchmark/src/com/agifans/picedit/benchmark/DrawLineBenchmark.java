@@ -0,0 +1,69 @@
+package com.agifans.picedit.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.agifans.picedit.picture.PictureRenderer;
+import com.agifans.picedit.types.PictureType;
+
+/**
+ * Measures the speed of line drawing for lines of each kind of slope. Each
+ * invocation draws the same line over the top of itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DrawLineBenchmark {
+
+    /**
+     * The slope of the line to draw.
+     */
+    @Param({ "horizontal", "vertical", "shallow", "steep", "diagonal" })
+    public String slope;
+
+    /**
+     * The renderer that draws the line.
+     */
+    private PictureRenderer renderer;
+
+    /**
+     * The start and end points of the line.
+     */
+    private int x1, y1, x2, y2;
+
+    @Setup
+    public void setUp() {
+        renderer = new PictureRenderer(PictureType.AGI);
+        renderer.clear();
+        renderer.setVisualColour(1);
+        renderer.setPriorityColour(10);
+        if (slope.equals("horizontal")) {
+            x1 = 0; y1 = 84; x2 = 159; y2 = 84;
+        } else if (slope.equals("vertical")) {
+            x1 = 80; y1 = 0; x2 = 80; y2 = 167;
+        } else if (slope.equals("shallow")) {
+            x1 = 0; y1 = 40; x2 = 159; y2 = 110;
+        } else if (slope.equals("steep")) {
+            x1 = 30; y1 = 0; x2 = 110; y2 = 167;
+        } else {
+            x1 = 0; y1 = 0; x2 = 159; y2 = 159;
+        }
+    }
+
+    /**
+     * Draws the line.
+     */
+    @Benchmark
+    public byte[] drawLine() {
+        renderer.drawLine(x1, y1, x2, y2);
+        return renderer.getVisualScreen();
+    }
+}
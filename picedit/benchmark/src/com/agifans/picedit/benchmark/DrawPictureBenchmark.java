@@ -0,0 +1,98 @@
+package com.agifans.picedit.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.agifans.picedit.picture.EditStatus;
+import com.agifans.picedit.picture.Picture;
+import com.agifans.picedit.picture.PictureCodeBuffer;
+import com.agifans.picedit.picture.PictureRenderer;
+import com.agifans.picedit.types.PictureType;
+
+/**
+ * Measures how many complete pictures per second can be drawn, both through
+ * the Picture class as the editor does it, with an empty picture cache, and
+ * directly with a PictureRenderer as the batch renderer does it. Each
+ * invocation draws the next picture in the corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DrawPictureBenchmark {
+
+    /**
+     * The kind of pictures to draw. Run with -p corpus=files to use real pictures.
+     */
+    @Param({ "lines", "fills", "brushes", "mixed" })
+    public String corpus;
+
+    /**
+     * A Picture for each picture in the corpus, already loaded.
+     */
+    private List<Picture> pictures;
+
+    /**
+     * The picture codes for each picture in the corpus.
+     */
+    private List<PictureCodeBuffer> pictureCodeBuffers;
+
+    /**
+     * The renderer used by the render benchmark.
+     */
+    private PictureRenderer renderer;
+
+    /**
+     * The position within the corpus of the next picture to draw.
+     */
+    private int nextPicture;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<byte[]> pictureData = PictureCorpus.getPictures(corpus);
+        pictures = new ArrayList<Picture>();
+        for (File file : PictureCorpus.writeTemporaryFiles(pictureData)) {
+            Picture picture = new Picture(new EditStatus());
+            picture.loadPicture(file);
+            pictures.add(picture);
+        }
+        pictureCodeBuffers = new ArrayList<PictureCodeBuffer>();
+        for (byte[] data : pictureData) {
+            PictureCodeBuffer pictureCodes = new PictureCodeBuffer();
+            Picture.readPictureCodes(data, pictureCodes);
+            pictureCodeBuffers.add(pictureCodes);
+        }
+        renderer = new PictureRenderer(PictureType.AGI);
+    }
+
+    /**
+     * Draws the next picture from scratch through the Picture class.
+     */
+    @Benchmark
+    public byte[] drawPicture() {
+        Picture picture = pictures.get(nextPicture++ % pictures.size());
+        picture.clearPictureCache();
+        picture.drawPicture();
+        return picture.getPriorityScreen();
+    }
+
+    /**
+     * Renders the next picture from scratch with a PictureRenderer.
+     */
+    @Benchmark
+    public byte[] render() {
+        renderer.render(pictureCodeBuffers.get(nextPicture++ % pictureCodeBuffers.size()));
+        return renderer.getVisualScreen();
+    }
+}
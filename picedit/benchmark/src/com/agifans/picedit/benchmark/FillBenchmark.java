@@ -0,0 +1,97 @@
+package com.agifans.picedit.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.agifans.picedit.picture.PictureRenderer;
+import com.agifans.picedit.types.PictureType;
+
+/**
+ * Measures the speed of the flood fill. Before each fill the screens are put
+ * back to how they were before the first fill, so that every invocation fills
+ * the same area. The legacyFill benchmark runs the fill as it was before the 
+ * span fill, for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FillBenchmark {
+
+    /**
+     * The area to fill: the whole empty screen, a box in the middle of the screen,
+     * or the area around a set of diagonal lines.
+     */
+    @Param({ "screen", "box", "lines" })
+    public String area;
+
+    /**
+     * The renderer that does the fill.
+     */
+    private PictureRenderer renderer;
+
+    /**
+     * The visual screen as it was before the fill.
+     */
+    private byte[] visualTemplate;
+
+    /**
+     * The priority screen as it was before the fill.
+     */
+    private byte[] priorityTemplate;
+
+    @Setup
+    public void setUp() {
+        renderer = new PictureRenderer(PictureType.AGI);
+        renderer.clear();
+        renderer.setVisualColour(0);
+        renderer.setPriorityColour(15);
+        if (area.equals("box")) {
+            renderer.drawLine(40, 40, 120, 40);
+            renderer.drawLine(120, 40, 120, 128);
+            renderer.drawLine(120, 128, 40, 128);
+            renderer.drawLine(40, 128, 40, 40);
+        } else if (area.equals("lines")) {
+            for (int x = -160; x < 160; x += 12) {
+                renderer.drawLine(Math.max(x, 0), Math.max(-x, 0), Math.min(x + 167, 159), Math.min(159 - x, 167));
+            }
+        }
+        visualTemplate = renderer.getVisualScreen().clone();
+        priorityTemplate = renderer.getPriorityScreen().clone();
+        renderer.setVisualColour(2);
+        renderer.setPriorityColour(9);
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreScreens() {
+        System.arraycopy(visualTemplate, 0, renderer.getVisualScreen(), 0, visualTemplate.length);
+        System.arraycopy(priorityTemplate, 0, renderer.getPriorityScreen(), 0, priorityTemplate.length);
+    }
+
+    /**
+     * Fills the area from a point in the middle of the screen.
+     */
+    @Benchmark
+    public byte[] fill() {
+        renderer.fill(80, 84);
+        return renderer.getVisualScreen();
+    }
+
+    /**
+     * Fills the area from the same point using the old fill.
+     */
+    @Benchmark
+    public byte[] legacyFill() {
+        LegacyFill.fill(renderer.getVisualScreen(), renderer.getPriorityScreen(), 
+                renderer.getVisualColour(), renderer.getPriorityColour(), renderer.getFillType(), 80, 84);
+        return renderer.getVisualScreen();
+    }
+}
@@ -0,0 +1,255 @@
+package com.agifans.picedit.benchmark;
+
+import com.agifans.picedit.picture.EditStatus;
+import com.agifans.picedit.types.FillType;
+import com.agifans.picedit.utils.EgaPalette;
+
+/**
+ * A copy of the flood fill as it was before the span fill was added to the
+ * PictureRenderer. It is only kept so that FillBenchmark can compare the two.
+ * It allocates a fixed size queue on every call, only supports the 160 pixel
+ * wide AGI screens and has a separate loop for each combination of screens.
+ */
+public class LegacyFill {
+
+    /**
+     * Performs a fill at the given position on the given screens.
+     * 
+     * @param visualScreen The visual screen.
+     * @param priorityScreen The priority screen.
+     * @param visualColour The visual colour, as held by the PictureRenderer.
+     * @param priorityColour The priority colour, as held by the PictureRenderer.
+     * @param fillType The type of fill.
+     * @param x the X position to fill at.
+     * @param y the Y position to fill at.
+     */
+    public static void fill(byte[] visualScreen, byte[] priorityScreen, int visualColour, int priorityColour, FillType fillType, int x, int y) {
+        // If the fill colour is white then return immediately.
+        if (visualColour == EditStatus.TRANSPARENT) {
+            return;
+        }
+
+        int fillQueue[] = new int[8000];
+        int rpos = 0;
+        int spos = 0;
+        int index = (y << 7) + (y << 5) + x;
+        byte white = (byte)EditStatus.TRANSPARENT;
+        byte red = (byte)EditStatus.TRANSPARENT;
+        byte[] fillColours = EgaPalette.colourIndexes;
+        
+        // The fill type determines how we fill.
+        switch (fillType) {
+            case NONE:
+                // No fill so return immediately.
+                return;
+            case TRANSPARENT:
+                fillColours = EgaPalette.transparentColourIndexes;
+                break;
+        }
+        
+        if ((visualColour != EditStatus.VISUAL_OFF)) {
+            if ((priorityColour != EditStatus.PRIORITY_OFF)) {
+                // Fill both visual and priority.
+                byte visualCode = fillColours[visualColour];
+                byte priorityCode = fillColours[priorityColour];
+
+                fillQueue[spos++] = index;
+
+                while (rpos != spos) {
+
+                    index = fillQueue[rpos++];
+
+                    if (visualScreen[index] == white) {
+                        // Fill current position.
+                        visualScreen[index] = visualCode;
+                        priorityScreen[index] = priorityCode;
+
+                        int lineStartIndex = (index / 160) * 160;
+                        int lineEndIndex = lineStartIndex + 159;
+
+                        // Go west.
+                        int westIndex = index - 1;
+                        while ((westIndex >= lineStartIndex) && (visualScreen[westIndex] == white)) {
+                            westIndex--;
+                        }
+
+                        // Go east
+                        int eastIndex = index + 1;
+                        while ((eastIndex <= lineEndIndex) && (visualScreen[eastIndex] == white)) {
+                            eastIndex++;
+                        }
+
+                        // Draw line.
+                        westIndex++;
+                        eastIndex--;
+                        for (index = westIndex; index <= eastIndex; index++) {
+                            visualScreen[index] = visualCode;
+                            priorityScreen[index] = priorityCode;
+                        }
+
+                        int lastColour = 0x80000000;
+
+                        // Test above.
+                        westIndex -= 160;
+                        eastIndex -= 160;
+                        if (westIndex > -1) {
+                            for (index = westIndex; index <= eastIndex; index++) {
+                                int colour = visualScreen[index];
+                                if ((colour == white) && (lastColour != white)) {
+                                    fillQueue[spos++] = index;
+                                }
+                                lastColour = colour;
+                            }
+                        }
+
+                        // Test below.
+                        westIndex += 320;
+                        eastIndex += 320;
+                        lastColour = 0x80000000;
+                        if (eastIndex < 26880) {
+                            for (index = westIndex; index <= eastIndex; index++) {
+                                int colour = visualScreen[index];
+                                if ((colour == white) && (lastColour != white)) {
+                                    fillQueue[spos++] = index;
+                                }
+                                lastColour = colour;
+                            }
+                        }
+                    }
+                }
+            } else {
+                // Visual only fill.
+                byte visualCode = fillColours[visualColour];
+
+                fillQueue[spos++] = index;
+
+                while (rpos != spos) {
+
+                    index = fillQueue[rpos++];
+
+                    if (visualScreen[index] == white) {
+                        // Fill current position.
+                        visualScreen[index] = visualCode;
+
+                        int lineStartIndex = (index / 160) * 160;
+                        int lineEndIndex = lineStartIndex + 159;
+
+                        // Go west.
+                        int westIndex = index - 1;
+                        while ((westIndex >= lineStartIndex) && (visualScreen[westIndex] == white)) {
+                            westIndex--;
+                        }
+
+                        // Go east
+                        int eastIndex = index + 1;
+                        while ((eastIndex <= lineEndIndex) && (visualScreen[eastIndex] == white)) {
+                            eastIndex++;
+                        }
+
+                        // Draw line.
+                        westIndex++;
+                        eastIndex--;
+                        for (index = westIndex; index <= eastIndex; index++) {
+                            visualScreen[index] = visualCode;
+                        }
+
+                        int lastColour = 0x80000000;
+
+                        // Test above.
+                        westIndex -= 160;
+                        eastIndex -= 160;
+                        if (westIndex > -1) {
+                            for (index = westIndex; index <= eastIndex; index++) {
+                                int colour = visualScreen[index];
+                                if ((colour == white) && (lastColour != white)) {
+                                    fillQueue[spos++] = index;
+                                }
+                                lastColour = colour;
+                            }
+                        }
+
+                        // Test below.
+                        westIndex += 320;
+                        eastIndex += 320;
+                        lastColour = 0x80000000;
+                        if (eastIndex < 26880) {
+                            for (index = westIndex; index <= eastIndex; index++) {
+                                int colour = visualScreen[index];
+                                if ((colour == white) && (lastColour != white)) {
+                                    fillQueue[spos++] = index;
+                                }
+                                lastColour = colour;
+                            }
+                        }
+                    }
+                }
+            }
+        } else if ((priorityColour != EditStatus.PRIORITY_OFF)) {
+            // Priority only fill.
+            byte priorityCode = fillColours[priorityColour];
+
+            fillQueue[spos++] = index;
+
+            while (rpos != spos) {
+
+                index = fillQueue[rpos++];
+
+                if (priorityScreen[index] == red) {
+                    // Fill current position.
+                    priorityScreen[index] = priorityCode;
+
+                    int lineStartIndex = (index / 160) * 160;
+                    int lineEndIndex = lineStartIndex + 159;
+
+                    // Go west.
+                    int westIndex = index - 1;
+                    while ((westIndex >= lineStartIndex) && (priorityScreen[westIndex] == red)) {
+                        westIndex--;
+                    }
+
+                    // Go east
+                    int eastIndex = index + 1;
+                    while ((eastIndex <= lineEndIndex) && (priorityScreen[eastIndex] == red)) {
+                        eastIndex++;
+                    }
+
+                    // Draw line.
+                    westIndex++;
+                    eastIndex--;
+                    for (index = westIndex; index <= eastIndex; index++) {
+                        priorityScreen[index] = priorityCode;
+                    }
+
+                    int lastColour = 0x80000000;
+
+                    // Test above.
+                    westIndex -= 160;
+                    eastIndex -= 160;
+                    if (westIndex > -1) {
+                        for (index = westIndex; index <= eastIndex; index++) {
+                            int colour = priorityScreen[index];
+                            if ((colour == red) && (lastColour != red)) {
+                                fillQueue[spos++] = index;
+                            }
+                            lastColour = colour;
+                        }
+                    }
+
+                    // Test below.
+                    westIndex += 320;
+                    eastIndex += 320;
+                    lastColour = 0x80000000;
+                    if (eastIndex < 26880) {
+                        for (index = westIndex; index <= eastIndex; index++) {
+                            int colour = priorityScreen[index];
+                            if ((colour == red) && (lastColour != red)) {
+                                fillQueue[spos++] = index;
+                            }
+                            lastColour = colour;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
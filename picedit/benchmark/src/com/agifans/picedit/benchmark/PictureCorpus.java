@@ -0,0 +1,224 @@
+package com.agifans.picedit.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.agifans.picedit.picture.Picture;
+
+/**
+ * Provides the pictures that the benchmarks run against, as raw AGI picture
+ * data. There are four kinds of synthetic picture, each of which concentrates
+ * on a different type of picture action, and there are also real pictures,
+ * which are read from the directory given by the picedit.benchmark.pictures
+ * system property.
+ */
+public class PictureCorpus {
+
+    /**
+     * The name of the system property that gives the directory of real pictures.
+     */
+    public static final String PICTURES_PROPERTY = "picedit.benchmark.pictures";
+
+    /**
+     * The number of pictures of each kind of synthetic picture.
+     */
+    private static final int SYNTHETIC_PICTURES = 8;
+
+    /**
+     * Gets the raw picture data for all pictures of the given kind.
+     *
+     * @param kind One of lines, fills, brushes, mixed or files.
+     *
+     * @return The raw picture data for each picture.
+     *
+     * @throws IOException If the real pictures could not be read.
+     */
+    public static List<byte[]> getPictures(String kind) throws IOException {
+        List<byte[]> pictures = new ArrayList<byte[]>();
+        if (kind.equals("files")) {
+            String directoryName = System.getProperty(PICTURES_PROPERTY);
+            File[] files = (directoryName != null? new File(directoryName).listFiles() : null);
+            if (files == null) {
+                throw new IOException("Set " + PICTURES_PROPERTY + " to a directory of AGI pictures.");
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isFile()) {
+                    pictures.add(Picture.readPictureData(file));
+                }
+            }
+        } else {
+            for (int i = 0; i < SYNTHETIC_PICTURES; i++) {
+                pictures.add(createPicture(kind, i));
+            }
+        }
+        return pictures;
+    }
+
+    /**
+     * Writes the given pictures out to temporary files, which is what the Picture
+     * class needs to load them. The files are deleted when the JVM exits.
+     *
+     * @param pictures The raw picture data for each picture.
+     *
+     * @return The temporary files.
+     *
+     * @throws IOException If the files could not be written.
+     */
+    public static List<File> writeTemporaryFiles(List<byte[]> pictures) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (byte[] picture : pictures) {
+            File file = File.createTempFile("picedit", ".pic");
+            file.deleteOnExit();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(picture);
+            } finally {
+                out.close();
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Creates a synthetic picture of the given kind. The same seed always gives
+     * the same picture.
+     *
+     * @param kind One of lines, fills, brushes or mixed.
+     * @param seed The seed for the random number generator.
+     *
+     * @return The raw picture data.
+     */
+    public static byte[] createPicture(String kind, long seed) {
+        Random random = new Random(seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (kind.equals("lines")) {
+            addLines(out, random, 60);
+        } else if (kind.equals("fills")) {
+            addFills(out, random);
+        } else if (kind.equals("brushes")) {
+            addBrushes(out, random, 40);
+        } else if (kind.equals("mixed")) {
+            addFills(out, random);
+            addLines(out, random, 20);
+            addBrushes(out, random, 15);
+        } else {
+            throw new IllegalArgumentException("Unknown kind of picture: " + kind);
+        }
+        out.write(0xFF);
+        return out.toByteArray();
+    }
+
+    /**
+     * Adds random absolute, relative and step lines to the picture data.
+     */
+    private static void addLines(ByteArrayOutputStream out, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            setColours(out, random);
+            switch (i % 4) {
+                case 0:
+                    out.write(0xF6);
+                    for (int j = random.nextInt(6) + 2; j > 0; j--) {
+                        out.write(random.nextInt(160));
+                        out.write(random.nextInt(168));
+                    }
+                    break;
+                case 1:
+                    out.write(0xF7);
+                    out.write(random.nextInt(130) + 15);
+                    out.write(random.nextInt(138) + 15);
+                    for (int j = random.nextInt(10) + 2; j > 0; j--) {
+                        out.write((random.nextInt(2) << 7) | (random.nextInt(2) << 4) | (random.nextInt(2) << 3) | random.nextInt(2));
+                    }
+                    break;
+                default:
+                    out.write((i % 4) == 2? 0xF4 : 0xF5);
+                    out.write(random.nextInt(160));
+                    out.write(random.nextInt(168));
+                    for (int j = random.nextInt(4) + 1; j > 0; j--) {
+                        out.write(((i % 4) == 2? random.nextInt(168) : random.nextInt(160)));
+                        out.write(((i % 4) == 2? random.nextInt(160) : random.nextInt(168)));
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Adds a grid of boxes to the picture data and then fills each box.
+     */
+    private static void addFills(ByteArrayOutputStream out, Random random) {
+        int columns = random.nextInt(4) + 2;
+        int rows = random.nextInt(4) + 2;
+        int boxWidth = 159 / columns;
+        int boxHeight = 167 / rows;
+
+        // Visual and priority outlines of the boxes.
+        out.write(0xF0);
+        out.write(0);
+        out.write(0xF2);
+        out.write(15);
+        for (int column = 0; column <= columns; column++) {
+            out.write(0xF6);
+            out.write(column * boxWidth);
+            out.write(0);
+            out.write(column * boxWidth);
+            out.write(rows * boxHeight);
+        }
+        for (int row = 0; row <= rows; row++) {
+            out.write(0xF6);
+            out.write(0);
+            out.write(row * boxHeight);
+            out.write(columns * boxWidth);
+            out.write(row * boxHeight);
+        }
+
+        // Fill each box with a random colour.
+        for (int column = 0; column < columns; column++) {
+            for (int row = 0; row < rows; row++) {
+                setColours(out, random);
+                out.write(0xF8);
+                out.write(column * boxWidth + (boxWidth / 2));
+                out.write(row * boxHeight + (boxHeight / 2));
+            }
+        }
+    }
+
+    /**
+     * Adds random brush plots of all shapes, sizes and textures to the picture data.
+     */
+    private static void addBrushes(ByteArrayOutputStream out, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            setColours(out, random);
+            int brushCode = (random.nextInt(8) | (random.nextInt(2) << 4) | (random.nextInt(2) << 5));
+            out.write(0xF9);
+            out.write(brushCode);
+            out.write(0xFA);
+            for (int j = random.nextInt(8) + 1; j > 0; j--) {
+                if ((brushCode & 0x20) > 0) {
+                    out.write(random.nextInt(120) << 1);
+                }
+                out.write(random.nextInt(160));
+                out.write(random.nextInt(168));
+            }
+        }
+    }
+
+    /**
+     * Adds random visual and priority colour changes to the picture data.
+     */
+    private static void setColours(ByteArrayOutputStream out, Random random) {
+        out.write(0xF0);
+        out.write(random.nextInt(15));
+        out.write(0xF2);
+        out.write(random.nextInt(11) + 5);
+    }
+}
@@ -0,0 +1,63 @@
+package com.agifans.picedit.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.agifans.picedit.picture.PictureRenderer;
+import com.agifans.picedit.types.PictureType;
+
+/**
+ * Measures the speed of plotting brush patterns. The brush code parameter
+ * covers the smallest, a middle and the largest size for each of the four
+ * combinations of shape (circle or square) and texture (solid or splatter).
+ * Each invocation plots the pattern at the next of a set of positions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PlotPatternBenchmark {
+
+    /**
+     * The brush code: bits 0-2 are the size, bit 4 set for square and bit 5
+     * set for splatter.
+     */
+    @Param({ "0", "3", "7", "16", "19", "23", "32", "35", "39", "48", "51", "55" })
+    public int brushCode;
+
+    /**
+     * The renderer that plots the pattern.
+     */
+    private PictureRenderer renderer;
+
+    /**
+     * The counter used to pick the position and splatter pattern number.
+     */
+    private int count;
+
+    @Setup
+    public void setUp() {
+        renderer = new PictureRenderer(PictureType.AGI);
+        renderer.clear();
+        renderer.setVisualColour(4);
+        renderer.setPriorityColour(12);
+        renderer.setBrushCode(brushCode);
+    }
+
+    /**
+     * Plots the pattern at the next position.
+     */
+    @Benchmark
+    public byte[] plotPattern() {
+        int n = count++;
+        renderer.plotPattern((n % 120), (n * 7) % 160, (n * 13) % 168);
+        return renderer.getVisualScreen();
+    }
+}
@@ -0,0 +1,213 @@
+package com.agifans.picedit;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import com.agifans.picedit.picture.EditStatus;
+import com.agifans.picedit.picture.Picture;
+import com.agifans.picedit.picture.PictureCodeBuffer;
+import com.agifans.picedit.picture.PictureRenderer;
+import com.agifans.picedit.types.PictureType;
+import com.agifans.picedit.utils.EgaPalette;
+
+/**
+ * Renders a directory of AGI PICTURE files to PNG images without starting the
+ * GUI. For each picture a visual and a priority PNG is written to the output
+ * directory. The pictures are shared out between a pool of threads, one per
+ * processor, each of which uses its own PictureRenderer.
+ *
+ * Usage: java -classpath picedit.jar com.agifans.picedit.BatchRenderer inputDirectory outputDirectory
+ */
+public class BatchRenderer {
+
+    /**
+     * The ColorModel for the visual PNGs. The background is white rather than transparent.
+     */
+    private static final IndexColorModel VISUAL_COLOR_MODEL = createColorModel(EgaPalette.white);
+
+    /**
+     * The ColorModel for the priority PNGs. The background is red rather than transparent.
+     */
+    private static final IndexColorModel PRIORITY_COLOR_MODEL = createColorModel(EgaPalette.red);
+
+    /**
+     * The directory to write the PNG images to.
+     */
+    private File outputDirectory;
+
+    /**
+     * The number of threads to render with.
+     */
+    private int numberOfThreads;
+
+    /**
+     * Constructor for BatchRenderer.
+     *
+     * @param outputDirectory The directory to write the PNG images to.
+     * @param numberOfThreads The number of threads to render with.
+     */
+    public BatchRenderer(File outputDirectory, int numberOfThreads) {
+        this.outputDirectory = outputDirectory;
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * Creates an IndexColorModel for the EGA palette with the transparent colour
+     * replaced with the given background colour.
+     *
+     * @param backgroundColour The RGB value to use for the background.
+     *
+     * @return The created IndexColorModel.
+     */
+    private static IndexColorModel createColorModel(int backgroundColour) {
+        int[] palette = EgaPalette.palette.clone();
+        palette[EditStatus.TRANSPARENT] = backgroundColour;
+        return new IndexColorModel(8, palette.length, palette, 0, true, -1, DataBuffer.TYPE_BYTE);
+    }
+
+    /**
+     * Renders all of the given picture files, writing the PNG images to the output
+     * directory.
+     *
+     * @param pictureFiles The AGI PICTURE files to render.
+     *
+     * @return The number of pictures that were successfully rendered.
+     */
+    public int renderAll(List<File> pictureFiles) {
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (final File pictureFile : pictureFiles) {
+            results.add(executor.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    return render(pictureFile);
+                }
+            }));
+        }
+
+        int numberRendered = 0;
+        try {
+            for (Future<Boolean> result : results) {
+                if (result.get()) {
+                    numberRendered++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.out.printf("Error rendering pictures : %s\n", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return numberRendered;
+    }
+
+    /**
+     * Renders a single picture file, writing its visual and priority PNG images to
+     * the output directory.
+     *
+     * @param pictureFile The AGI PICTURE file to render.
+     *
+     * @return true if the picture was rendered; otherwise false.
+     */
+    public boolean render(File pictureFile) {
+        try {
+            PictureCodeBuffer pictureCodes = new PictureCodeBuffer();
+            Picture.readPictureCodes(Picture.readPictureData(pictureFile), pictureCodes);
+
+            PictureRenderer renderer = new PictureRenderer(PictureType.AGI);
+            renderer.render(pictureCodes);
+
+            writeImage(renderer.getVisualScreen(), VISUAL_COLOR_MODEL, new File(outputDirectory, pictureFile.getName() + "_visual.png"));
+            writeImage(renderer.getPriorityScreen(), PRIORITY_COLOR_MODEL, new File(outputDirectory, pictureFile.getName() + "_priority.png"));
+            return true;
+
+        } catch (IOException e) {
+            System.out.printf("Error rendering picture : %s (%s)\n", pictureFile.getPath(), e.getMessage());
+        } catch (RuntimeException e) {
+            System.out.printf("Error rendering picture : %s (%s)\n", pictureFile.getPath(), e);
+        }
+        return false;
+    }
+
+    /**
+     * Writes the given screen out as a PNG file.
+     *
+     * @param screen The palette indexes of the screen to write.
+     * @param colorModel The ColorModel to use for the palette indexes.
+     * @param file The PNG file to write.
+     *
+     * @throws IOException If the PNG file could not be written.
+     */
+    private static void writeImage(byte[] screen, IndexColorModel colorModel, File file) throws IOException {
+        PictureType pictureType = PictureType.AGI;
+        DataBufferByte dataBuffer = new DataBufferByte(screen, screen.length);
+        WritableRaster raster = Raster.createInterleavedRaster(dataBuffer, pictureType.getWidth(), pictureType.getHeight(), pictureType.getWidth(), 1, new int[] { 0 }, null);
+        BufferedImage image = new BufferedImage(colorModel, raster, false, null);
+        if (!ImageIO.write(image, "png", file)) {
+            throw new IOException("No PNG writer available.");
+        }
+    }
+
+    /**
+     * Renders the AGI PICTURE files in the input directory given by the first
+     * argument to PNG images in the output directory given by the second argument.
+     *
+     * @param args The input and output directories.
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length != 2) {
+            System.out.println("Usage: BatchRenderer inputDirectory outputDirectory");
+            System.exit(1);
+        }
+
+        File inputDirectory = new File(args[0]);
+        File outputDirectory = new File(args[1]);
+        File[] files = inputDirectory.listFiles();
+        if (files == null) {
+            System.out.printf("Input directory not found : %s\n", inputDirectory.getPath());
+            System.exit(1);
+        }
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            System.out.printf("Could not create output directory : %s\n", outputDirectory.getPath());
+            System.exit(1);
+        }
+
+        // Every file in the input directory is assumed to be an AGI PICTURE file.
+        Arrays.sort(files);
+        List<File> pictureFiles = new ArrayList<File>();
+        for (File file : files) {
+            if (file.isFile()) {
+                pictureFiles.add(file);
+            }
+        }
+
+        int numberOfThreads = Runtime.getRuntime().availableProcessors();
+        BatchRenderer batchRenderer = new BatchRenderer(outputDirectory, numberOfThreads);
+
+        long startTime = System.nanoTime();
+        int numberRendered = batchRenderer.renderAll(pictureFiles);
+        double seconds = (System.nanoTime() - startTime) / 1000000000.0;
+
+        System.out.printf("Rendered %d of %d pictures in %.3f seconds using %d threads (%.1f pictures/sec)\n",
+                numberRendered, pictureFiles.size(), seconds, numberOfThreads, (numberRendered / seconds));
+    }
+}
@@ -10,13 +10,13 @@ import java.awt.event.WindowEvent;
 import java.beans.PropertyVetoException;
 import java.io.File;
 import java.util.*;
-import java.util.Timer;
 import java.util.prefs.Preferences;
 
 import javax.swing.*;
 
 import com.agifans.picedit.gui.PicEditDesktopManager;
 import com.agifans.picedit.gui.PictureCodeList;
+import com.agifans.picedit.gui.RepaintScheduler;
 import com.agifans.picedit.gui.StatusBarPanel;
 import com.agifans.picedit.gui.frame.PictureFrame;
 import com.agifans.picedit.gui.frame.PicturePanel;
@@ -25,6 +25,7 @@ import com.agifans.picedit.gui.toolbar.ToolPanel;
 import com.agifans.picedit.gui.toolbar.ToolPanelLocation;
 import com.agifans.picedit.picture.EditStatus;
 import com.agifans.picedit.picture.Picture;
+import com.agifans.picedit.picture.PictureCache;
 
 /**
  * The main class for the PICEDIT application.
@@ -69,6 +70,11 @@ public final class PicEdit extends JApplet {
      */
     private String lastUsedDirectory;
     
+    /**
+     * The maximum size in bytes of the picture cache for each picture.
+     */
+    private long pictureCacheSize;
+    
     /**
      * Where the tool panel currently is. Starts on the left.
      */
@@ -89,6 +95,11 @@ public final class PicEdit extends JApplet {
      */
     private StatusBarPanel statusBarPanel;
     
+    /**
+     * Schedules the repaints of the PICEDIT screen.
+     */
+    private RepaintScheduler repaintScheduler;
+    
     /**
      * Constructor for PicEdit.
      */
@@ -100,6 +111,8 @@ public final class PicEdit extends JApplet {
         // Load the preferences saved the last time the application was closed down.
         loadPreferences();
         
+        this.repaintScheduler = new RepaintScheduler(this);
+        
         this.activePictureFrame = new PictureFrame(this, prefs.getInt("ZOOM_FACTOR", 3), "Untitled");
         this.activePictureFrame.setLocation(20, 20);
         try {
@@ -172,64 +185,57 @@ public final class PicEdit extends JApplet {
         // Create the menu and register the menu event listeners.
         this.menu = new Menu(this);
         
-        // Start a timer to preform regular screen repaints.
-        startRepaintTimer();
+        // Start repainting the screen whenever something changes.
+        repaintScheduler.start();
     }
 
     /**
-     * Starts a timer to trigger regular screen repaints. In addition to 
-     * this, it also checks if the currently selected PictureFrame needs
-     * to process a mouse motion event. Performing this check at the same
-     * time as the screen repaint appears to be more reliable than receiving 
-     * mouse motion events to a registered listener for some reason, and it
-     * has the added benefit of tracking the mouse when it is outside of the
-     * PICEDIT window.
-     */
-    public void startRepaintTimer() {
-        Timer timer = new Timer();
-        TimerTask timerTask = new TimerTask() {
-            boolean lastPictureBeingDrawn = false;
-            int repaintCounter;
-            int lastPicturePosition;
-            int lastPictureSize;
-
-            boolean shouldPaintOffscreenImage() {
-                boolean shouldPaintOffscreenImage = false;
-                EditStatus editStatus = getEditStatus();
-                Picture picture = getPicture();
-                
-                // We return true at least every second, but there are other updates that trigger a render immediately.
-                if (((editStatus.hasUnrenderedChanges()) || editStatus.isEgoTestEnabled() || !lastPictureBeingDrawn ||
-                    ((lastPicturePosition != picture.getPicturePosition()) || (lastPictureSize != picture.getSize()))) && 
-                      !picture.isBeingDrawn()) {
-                    shouldPaintOffscreenImage = true;
-                }
-                
-                editStatus.clearUnrenderedChanges();
-                lastPicturePosition = picture.getPicturePosition();
-                lastPictureSize = picture.getSize();
-                return shouldPaintOffscreenImage;
-            }
-
-            public void run() {
-                // Check if selected PictureFrame needs to process mouse motion.
-                PictureFrame selectedPictureFrame = (PictureFrame)getDesktopPane().getSelectedFrame();
-                if (selectedPictureFrame != null) {
-                    selectedPictureFrame.getMouseHandler().checkForMouseMotion();
-                }
-                
-                // The off screen parts of the picture panel rendering don't need to be refreshed as often.
-                if (shouldPaintOffscreenImage()) {
-                	getPictureFrame().getPicturePanel().paintOffscreenImage();
-                }
-                
-                // Repaints the changing parts of the PICEDIT screen 20 times a second.
-                getPictureFrame().repaint();
-                toolPanel.repaint();
-                statusBarPanel.repaint();
-            }
-        };
-        timer.scheduleAtFixedRate(timerTask, 50, 50);
+     * Repaints the changing parts of the PICEDIT screen. This is invoked on the
+     * event dispatch thread by the RepaintScheduler whenever something has asked
+     * for a repaint. In addition to this, it also checks if the currently selected
+     * PictureFrame needs to process a mouse motion event. Performing this check at
+     * the same time as the screen repaint appears to be more reliable than receiving 
+     * mouse motion events to a registered listener for some reason, and it has the
+     * added benefit of tracking the mouse when it is outside of the PICEDIT window
+     * while a line is being drawn.
+     */
+    public void repaintChanges() {
+        // Check if selected PictureFrame needs to process mouse motion.
+        PictureFrame selectedPictureFrame = (PictureFrame)getDesktopPane().getSelectedFrame();
+        if (selectedPictureFrame != null) {
+            selectedPictureFrame.getMouseHandler().checkForMouseMotion();
+        }
+        
+        // Only the parts of the picture that have changed are painted, so this is cheap when nothing has.
+        if (!getPicture().isBeingDrawn()) {
+            getPictureFrame().getPicturePanel().paintOffscreenImage();
+        }
+        getEditStatus().clearUnrenderedChanges();
+        
+        getPictureFrame().repaintChanges();
+        toolPanel.repaint();
+        statusBarPanel.repaint();
+    }
+    
+    /**
+     * Returns true if something on the screen is changing by itself, i.e. the end 
+     * of a temporary line flashing or Ego walking, and so needs to keep being 
+     * repainted even though nothing has asked for a repaint.
+     * 
+     * @return true if something on the screen is animating; otherwise false.
+     */
+    public boolean isAnimating() {
+        EditStatus editStatus = getEditStatus();
+        return (editStatus.isLineBeingDrawn() || (editStatus.isEgoTestEnabled() && getPictureFrame().getEgoTestHandler().isMoving()));
+    }
+    
+    /**
+     * Gets the RepaintScheduler that schedules the repaints of the PICEDIT screen.
+     * 
+     * @return The RepaintScheduler.
+     */
+    public RepaintScheduler getRepaintScheduler() {
+        return repaintScheduler;
     }
     
     /**
@@ -247,6 +253,8 @@ public final class PicEdit extends JApplet {
         this.recentPictures.add(3,prefs.get("RECENT_PICTURE_4", ""));
         
         this.toolPanelLocation = ToolPanelLocation.valueOf(prefs.get("TOOL_PANEL_LOCATION", "DOCKED_TOP"));
+        
+        this.pictureCacheSize = prefs.getLong("PICTURE_CACHE_SIZE", PictureCache.DEFAULT_MAXIMUM_SIZE);
     }
     
     /**
@@ -260,6 +268,7 @@ public final class PicEdit extends JApplet {
         prefs.put("RECENT_PICTURE_3", this.recentPictures.get(2));
         prefs.put("RECENT_PICTURE_4", this.recentPictures.get(3));
         prefs.put("TOOL_PANEL_LOCATION", this.toolPanelLocation.name());
+        prefs.putLong("PICTURE_CACHE_SIZE", this.pictureCacheSize);
     }
     
     /**
@@ -308,6 +317,30 @@ public final class PicEdit extends JApplet {
         this.lastUsedDirectory = lastUsedDirectory;
     }
     
+    /**
+     * Gets the maximum size in bytes of the picture cache for each picture.
+     * 
+     * @return The maximum size in bytes of the picture cache for each picture.
+     */
+    public long getPictureCacheSize() {
+        return this.pictureCacheSize;
+    }
+    
+    /**
+     * Sets the maximum size in bytes of the picture cache for each picture. This
+     * is applied to all of the pictures that are currently open.
+     * 
+     * @param pictureCacheSize The maximum size in bytes of the picture cache for each picture.
+     */
+    public void setPictureCacheSize(long pictureCacheSize) {
+        this.pictureCacheSize = pictureCacheSize;
+        for (JInternalFrame frame : desktopPane.getAllFrames()) {
+            if (frame instanceof PictureFrame) {
+                ((PictureFrame) frame).getPicture().getPictureCache().setMaximumSize(pictureCacheSize);
+            }
+        }
+    }
+    
     /**
      * Gets the current tool panel location.
      * 
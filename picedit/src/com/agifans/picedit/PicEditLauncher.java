@@ -3,6 +3,7 @@ package com.agifans.picedit;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 
 /**
  * Main class to launch the PicEdit application. This is required so that the
@@ -10,6 +11,10 @@ import java.io.InputStreamReader;
  * MANIFEST file). All it does is execute the PicEdit class with a max heap
  * setting specified.
  * 
+ * If the first argument is --render then the GUI is not started. Instead the
+ * BatchRenderer is run with the remaining arguments, i.e. the input and output
+ * directories, to render a directory of pictures to PNG images.
+ * 
  * @author Lance Ewing
  */
 public class PicEditLauncher {
@@ -18,6 +23,11 @@ public class PicEditLauncher {
      * Launches the PicEdit application.
      */
     public static void main(String[] args) throws Exception {
+        if ((args.length > 0) && args[0].equals("--render")) {
+            BatchRenderer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        
         String pathToJar = PicEditLauncher.class.getProtectionDomain().getCodeSource().getLocation().toURI().getPath();
         ProcessBuilder picEditProcessBuilder = new ProcessBuilder("java", "-Xmx512m", "-classpath", pathToJar, "com.agifans.picedit.PicEdit");
         Process picEditProcess = picEditProcessBuilder.start();
@@ -10,7 +10,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.swing.AbstractListModel;
@@ -26,6 +27,8 @@ import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
 import com.agifans.picedit.picture.Picture;
+import com.agifans.picedit.picture.PictureCodeBuffer;
+import com.agifans.picedit.picture.PictureCodeHandler;
 import com.agifans.picedit.picture.PictureCodeType;
 import com.agifans.picedit.picture.PictureChangeListener;
 import com.agifans.picedit.picture.PictureCode;
@@ -115,12 +118,70 @@ public class PictureCodeList extends JList implements PictureChangeListener, Cha
         }
     }
     
+    /**
+     * A row of the PictureCodeList, i.e. the human readable form of a picture code
+     * along with how far it is indented. Action codes are indented by two and 
+     * their data codes by four.
+     */
+    static class PictureCodeRow {
+        
+        /**
+         * The indent for the Start and End rows.
+         */
+        static final int NO_INDENT = 0;
+        
+        /**
+         * The indent for action codes.
+         */
+        static final int ACTION_INDENT = 2;
+        
+        /**
+         * The indent for data codes.
+         */
+        static final int DATA_INDENT = 4;
+        
+        /**
+         * The human readable text for the row, including the indent.
+         */
+        private final String text;
+        
+        /**
+         * The number of characters that the text is indented by.
+         */
+        private final int indent;
+        
+        PictureCodeRow(String text, int indent) {
+            this.text = text;
+            this.indent = indent;
+        }
+        
+        String getText() {
+            return text;
+        }
+        
+        int getIndent() {
+            return indent;
+        }
+        
+        public String toString() {
+            return text;
+        }
+    }
+    
     /**
      * ListModel for the PictureCodeList JList component that holds the human readable picture
-     * codes for the currently selected Picture.
+     * codes for the currently selected Picture. The rows are created when first asked for 
+     * and then cached, so that repainting and scrolling the list doesn't build the text 
+     * again. The picture change events keep the cache in line with the picture codes.
      */
     class PictureCodeListModel extends AbstractListModel implements PictureChangeListener {
 
+        /**
+         * The cached rows, indexed by list index. A null entry is a row that hasn't 
+         * been created yet or that has been invalidated.
+         */
+        private List<PictureCodeRow> rows = new ArrayList<PictureCodeRow>();
+        
         /**
          * Gets a human readable form for the picture code item at the given index.
          * 
@@ -129,24 +190,45 @@ public class PictureCodeList extends JList implements PictureChangeListener, Cha
          * @return The human readable form of the requested PictureCode.
          */
         public Object getElementAt(int index) {
+            if (rows.size() != getSize()) {
+                resetRows();
+            }
+            PictureCodeRow row = rows.get(index);
+            if (row == null) {
+                row = createRow(index);
+                rows.set(index, row);
+            }
+            return row;
+        }
+        
+        /**
+         * Creates the row for the picture code item at the given index.
+         * 
+         * @param index The index of the item to create the row for.
+         * 
+         * @return The row for the item.
+         */
+        private PictureCodeRow createRow(int index) {
             if (index == 0) {
-                return "Start";
+                return new PictureCodeRow("Start", PictureCodeRow.NO_INDENT);
             }
             
-            LinkedList<PictureCode> pictureCodes = picture.getPictureCodes();
-            PictureCode pictureCode = pictureCodes.get(index - 1);
-            PictureCode previousPictureCode = null;
+            PictureCodeBuffer pictureCodes = picture.getPictureCodes();
+            int position = index - 1;
             
             String displayText = null;
-            if (pictureCode.isActionCode()) {
-                PictureCodeType actionCodeType = pictureCode.getType();
+            int indent = PictureCodeRow.DATA_INDENT;
+            if (pictureCodes.isActionCode(position)) {
+                PictureCodeType actionCodeType = pictureCodes.getType(position);
+                PictureCodeHandler handler = pictureCodes.getCodeRegistry().getHandler(pictureCodes.getCode(position));
                 StringBuilder displayTextBuf = new StringBuilder("  ");
-                displayTextBuf.append(actionCodeType.getDisplayableText());
+                displayTextBuf.append(handler != null? handler.getDisplayableText() : actionCodeType.getDisplayableText());
                 displayText = displayTextBuf.toString();
+                indent = PictureCodeRow.ACTION_INDENT;
             } else {
                 StringBuilder displayTextBuf = null;
-                int code = pictureCode.getCode();
-                switch (pictureCode.getType()) {
+                int code = pictureCodes.getCode(position);
+                switch (pictureCodes.getType(position)) {
                     case FILL_POINT_DATA:
                         displayTextBuf = new StringBuilder("    Fill ");
                         displayTextBuf.append((code & 0xFF00) >> 8);
@@ -162,8 +244,7 @@ public class PictureCodeList extends JList implements PictureChangeListener, Cha
                         displayText = displayTextBuf.toString();
                         break;
                     case ABSOLUTE_POINT_DATA:
-                        previousPictureCode = pictureCodes.get(index  - 2);
-                        if (previousPictureCode.isActionCode()) {
+                        if (pictureCodes.isActionCode(position - 1)) {
                             displayTextBuf = new StringBuilder("    MoveTo ");
                         } else {
                             displayTextBuf = new StringBuilder("    LineTo ");
@@ -213,21 +294,47 @@ public class PictureCodeList extends JList implements PictureChangeListener, Cha
                         break;
                     case BRUSH_TYPE_DATA:
                         displayTextBuf = new StringBuilder("    ");
-                        displayTextBuf.append(BrushType.getBrushTypeForBrushCode(pictureCode.getCode()).getDisplayName());
+                        displayTextBuf.append(BrushType.getBrushTypeForBrushCode(code).getDisplayName());
                         displayText = displayTextBuf.toString();
                         break;
                     case COLOR_DATA:
                         displayTextBuf = new StringBuilder("    ");
-                        displayTextBuf.append(EgaPalette.COLOR_NAMES[pictureCode.getCode()]);
+                        displayTextBuf.append(EgaPalette.COLOR_NAMES[code]);
                         displayText = displayTextBuf.toString();
                         break;
                     case END:
                         displayText = "End";
+                        indent = PictureCodeRow.NO_INDENT;
+                        break;
+                    default:
+                        // The data of another dialect's action is shown as the raw value.
+                        displayTextBuf = new StringBuilder("    ");
+                        displayTextBuf.append(code);
+                        displayText = displayTextBuf.toString();
                         break;
                 }
             }
             
-            return displayText;
+            return new PictureCodeRow(displayText, indent);
+        }
+        
+        /**
+         * Throws away all of the cached rows.
+         */
+        private void resetRows() {
+            rows.clear();
+            rows.addAll(Collections.nCopies(getSize(), (PictureCodeRow) null));
+        }
+        
+        /**
+         * Throws away the cached row at the given index, if there is one.
+         * 
+         * @param index The index of the row.
+         */
+        private void invalidateRow(int index) {
+            if (index < rows.size()) {
+                rows.set(index, null);
+            }
         }
 
         /**
@@ -245,6 +352,7 @@ public class PictureCodeList extends JList implements PictureChangeListener, Cha
          * changed. This will cause the value of every item to be re-read. 
          */
         public void refreshList() {
+            resetRows();
             fireContentsChanged(this, 0, getSize());
         }
 
@@ -255,6 +363,12 @@ public class PictureCodeList extends JList implements PictureChangeListener, Cha
          * @param toIndex The index to which the new items were added.
          */
         public void pictureCodesAdded(int fromIndex, int toIndex) {
+            // Each picture position is one less than its list index. The code after the 
+            // added ones might now be a LineTo rather than a MoveTo or vice versa.
+            if ((fromIndex + 1) <= rows.size()) {
+                rows.addAll(fromIndex + 1, Collections.nCopies((toIndex - fromIndex) + 1, (PictureCodeRow) null));
+                invalidateRow(toIndex + 2);
+            }
             fireIntervalAdded(this, fromIndex, toIndex);
         }
 
@@ -265,6 +379,11 @@ public class PictureCodeList extends JList implements PictureChangeListener, Cha
          * @param toIndex The index to which the items were removed.
          */
         public void pictureCodesRemoved(int fromIndex, int toIndex) {
+            // The code that is now after the removed ones might now be a MoveTo rather than a LineTo.
+            if ((toIndex + 2) <= rows.size()) {
+                rows.subList(fromIndex + 1, toIndex + 2).clear();
+                invalidateRow(fromIndex + 1);
+            }
             fireIntervalRemoved(this, fromIndex, toIndex);
         }
 
@@ -273,6 +392,12 @@ public class PictureCodeList extends JList implements PictureChangeListener, Cha
          */
         public void selectionIntervalCollapsed() {
         }
+
+        /**
+         * The List Model is not interested in this event.
+         */
+        public void pictureRedrawn() {
+        }
     }
 
     /**
@@ -307,6 +432,12 @@ public class PictureCodeList extends JList implements PictureChangeListener, Cha
         setSelectedIndex(getMaxSelectionIndex());
     }
 
+    /**
+     * The picture code list is not interested in this event.
+     */
+    public void pictureRedrawn() {
+    }
+
     /**
      * Invoked when the position slider value changes. Keeps the picture code list selected index in sync.
      */
@@ -327,19 +458,15 @@ public class PictureCodeList extends JList implements PictureChangeListener, Cha
                 int selectedPicturePosition = selectedIndex - 1;
                 
                 // If an action code is selected in isolation then auto-select the associated data codes.
-                List<PictureCode> pictureCodes = picture.getPictureCodes();
-                PictureCode pictureCode = pictureCodes.get(selectedPicturePosition);
-                if (pictureCode.isActionCode() && (getMinSelectionIndex() == getMaxSelectionIndex())) {
+                PictureCodeBuffer pictureCodes = picture.getPictureCodes();
+                if (pictureCodes.isActionCode(selectedPicturePosition) && (getMinSelectionIndex() == getMaxSelectionIndex())) {
                     // Find the end of the data codes.
-                    int position = selectedPicturePosition + 1;
-                    do {
-                        pictureCode = pictureCodes.get(position++);
-                    } while ((pictureCode != null) && pictureCode.isDataCode());
+                    int lastPosition = picture.getActionEnd(selectedPicturePosition);
                     
                     // Only if there is at least one data code do we auto-select them.
-                    int dataCodeCount = ((position - selectedIndex) - 1); 
+                    int dataCodeCount = (lastPosition - selectedPicturePosition); 
                     if (dataCodeCount > 0) {
-                        setSelectionInterval(selectedIndex, position - 1);
+                        setSelectionInterval(selectedIndex, lastPosition + 1);
                         return;
                     }
                 }
@@ -443,7 +570,13 @@ public class PictureCodeList extends JList implements PictureChangeListener, Cha
             
             text = value.toString();
             
-            if (text.startsWith("    ")) {
+            // The prototype cell value is a plain String rather than a PictureCodeRow.
+            int indent = PictureCodeRow.NO_INDENT;
+            if (value instanceof PictureCodeRow) {
+                indent = ((PictureCodeRow) value).getIndent();
+            }
+            
+            if (indent >= PictureCodeRow.DATA_INDENT) {
                 if (isSelected) {
                     setForeground(Color.WHITE);
                     setBackground(Color.LIGHT_GRAY);
@@ -0,0 +1,234 @@
+package com.agifans.picedit.gui;
+
+import java.awt.AWTEvent;
+import java.awt.Toolkit;
+import java.awt.event.AWTEventListener;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.swing.Timer;
+
+import com.agifans.picedit.PicEdit;
+import com.agifans.picedit.picture.PictureChangeListener;
+
+/**
+ * Schedules the repaints of the PICEDIT screen. Rather than polling at a fixed
+ * rate, a repaint is only done when something asks for one. Mouse and keyboard
+ * input is what drives nearly every change (drawing, navigating, menu and tool
+ * bar changes to the EditStatus), so all input events request a repaint, as do
+ * the picture change events. While a line is being drawn or Ego is walking, the
+ * repaints carry on by themselves at the frame rate, since the temporary line
+ * flashes and Ego moves without any input.
+ *
+ * Requests are coalesced so that there is at most one repaint per frame interval
+ * no matter how many events arrive, and the repaints are run on the event dispatch
+ * thread. When nothing has changed the timer is stopped and no work is done at all.
+ *
+ * If the picedit.repaint.statistics system property is set to true then the frame
+ * rate and CPU usage are written out every ten seconds, along with the usage and
+ * hit/miss/eviction counts of the current picture's cache.
+ */
+public class RepaintScheduler implements PictureChangeListener, AWTEventListener, ActionListener {
+
+    /**
+     * The minimum number of milliseconds between repaints.
+     */
+    private static final int FRAME_INTERVAL = 20;
+
+    /**
+     * The number of milliseconds between writing out the statistics, when enabled.
+     */
+    private static final int STATISTICS_INTERVAL = 10000;
+
+    /**
+     * The name of the system property that turns on the statistics.
+     */
+    public static final String STATISTICS_PROPERTY = "picedit.repaint.statistics";
+
+    /**
+     * The PICEDIT application to repaint.
+     */
+    private PicEdit application;
+
+    /**
+     * The Swing Timer that runs the repaints on the event dispatch thread. It only
+     * runs while there are repaints to do.
+     */
+    private Timer timer;
+
+    /**
+     * Says whether a repaint has been requested since the last repaint started.
+     */
+    private boolean repaintRequested;
+
+    /**
+     * Used to measure the CPU time of the repaints and of the whole application.
+     */
+    private ThreadMXBean threadBean;
+
+    /**
+     * The total number of repaints done.
+     */
+    private long frameCount;
+
+    /**
+     * The total CPU time in nanoseconds that the repaints have used.
+     */
+    private long frameCpuTime;
+
+    /**
+     * The time, frame count and CPU times when the statistics were last written out.
+     */
+    private long lastReportTime;
+    private long lastReportFrameCount;
+    private long lastReportFrameCpuTime;
+    private long lastReportProcessCpuTime;
+
+    /**
+     * Constructor for RepaintScheduler.
+     *
+     * @param application The PICEDIT application to repaint.
+     */
+    public RepaintScheduler(PicEdit application) {
+        this.application = application;
+        this.timer = new Timer(FRAME_INTERVAL, this);
+        this.timer.setInitialDelay(0);
+        this.timer.setCoalesce(true);
+        this.threadBean = ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadCpuTimeSupported()) {
+            this.threadBean = null;
+        }
+    }
+
+    /**
+     * Starts listening for input events and does the first repaint.
+     */
+    public void start() {
+        Toolkit.getDefaultToolkit().addAWTEventListener(this,
+                AWTEvent.MOUSE_EVENT_MASK | AWTEvent.MOUSE_MOTION_EVENT_MASK | AWTEvent.MOUSE_WHEEL_EVENT_MASK | AWTEvent.KEY_EVENT_MASK);
+        requestRepaint();
+
+        if (Boolean.getBoolean(STATISTICS_PROPERTY)) {
+            lastReportTime = System.nanoTime();
+            lastReportProcessCpuTime = getProcessCpuTime();
+            // A Swing Timer, so that the picture cache is read on the event dispatch thread.
+            Timer statisticsTimer = new Timer(STATISTICS_INTERVAL, new ActionListener() {
+                public void actionPerformed(ActionEvent event) {
+                    System.out.println(getStatistics());
+                    if (application.hasVisiblePictureFrame()) {
+                        System.out.println("Picture cache: " + application.getPicture().getPictureCache());
+                    }
+                }
+            });
+            statisticsTimer.start();
+        }
+    }
+
+    /**
+     * Requests a repaint. The repaint happens on the event dispatch thread straight
+     * away if there hasn't been one within the last frame interval, otherwise at the
+     * end of the interval along with any other requests made in the meantime. This
+     * can be called from any thread.
+     */
+    public synchronized void requestRepaint() {
+        repaintRequested = true;
+        if (!timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Invoked by the Timer on the event dispatch thread to do a repaint. The Timer
+     * is stopped afterwards unless another repaint has been requested or something
+     * is animating.
+     *
+     * @param event The Timer's ActionEvent.
+     */
+    public void actionPerformed(ActionEvent event) {
+        synchronized (this) {
+            repaintRequested = false;
+        }
+
+        long startCpuTime = (threadBean != null? threadBean.getCurrentThreadCpuTime() : 0);
+        application.repaintChanges();
+        long endCpuTime = (threadBean != null? threadBean.getCurrentThreadCpuTime() : 0);
+
+        boolean isAnimating = application.isAnimating();
+        synchronized (this) {
+            frameCount++;
+            frameCpuTime += (endCpuTime - startCpuTime);
+            if (!repaintRequested && !isAnimating) {
+                timer.stop();
+            }
+        }
+    }
+
+    /**
+     * Invoked for every mouse and key event in the application.
+     *
+     * @param event The input event.
+     */
+    public void eventDispatched(AWTEvent event) {
+        requestRepaint();
+    }
+
+    public void pictureCodesAdded(int fromIndex, int toIndex) {
+        requestRepaint();
+    }
+
+    public void pictureCodesRemoved(int fromIndex, int toIndex) {
+        requestRepaint();
+    }
+
+    public void selectionIntervalCollapsed() {
+        requestRepaint();
+    }
+
+    public void pictureRedrawn() {
+        requestRepaint();
+    }
+
+    /**
+     * Gets the frame rate and CPU usage since the last time that this method was
+     * called. The CPU usage is given both for the repaints on their own and for the
+     * whole application, as a percentage of one processor.
+     *
+     * @return A description of the frame rate and CPU usage.
+     */
+    public synchronized String getStatistics() {
+        long now = System.nanoTime();
+        long processCpuTime = getProcessCpuTime();
+        double seconds = (now - lastReportTime) / 1000000000.0;
+        double framesPerSecond = (frameCount - lastReportFrameCount) / seconds;
+        double frameCpuPercentage = (frameCpuTime - lastReportFrameCpuTime) / (seconds * 10000000.0);
+        double processCpuPercentage = (processCpuTime - lastReportProcessCpuTime) / (seconds * 10000000.0);
+
+        lastReportTime = now;
+        lastReportFrameCount = frameCount;
+        lastReportFrameCpuTime = frameCpuTime;
+        lastReportProcessCpuTime = processCpuTime;
+
+        return String.format("Repaints: %.1f frames/sec, %.2f%% CPU repainting, %.2f%% CPU overall",
+                framesPerSecond, frameCpuPercentage, processCpuPercentage);
+    }
+
+    /**
+     * Gets the total CPU time in nanoseconds used by all of the live threads.
+     *
+     * @return The total CPU time used by the application's threads.
+     */
+    private long getProcessCpuTime() {
+        long cpuTime = 0;
+        if (threadBean != null) {
+            for (long threadId : threadBean.getAllThreadIds()) {
+                long threadCpuTime = threadBean.getThreadCpuTime(threadId);
+                if (threadCpuTime > 0) {
+                    cpuTime += threadCpuTime;
+                }
+            }
+        }
+        return cpuTime;
+    }
+}
@@ -124,9 +124,11 @@ public class PictureFrame extends JInternalFrame implements InternalFrameListene
         this.defaultPictureName = defaultPictureName;
         this.editStatus = new EditStatus();
         this.editStatus.setZoomFactor(initialZoomFactor);
-        this.picture = new Picture(editStatus);
+        this.picture = new Picture(editStatus, application.getPictureCacheSize());
+        this.picture.setBackgroundRedrawEnabled(true);
         this.pictureCodeList = new PictureCodeList(picture);
         this.picture.addPictureChangeListener(pictureCodeList);
+        this.picture.addPictureChangeListener(application.getRepaintScheduler());
         this.egoTestHandler = new EgoTestHandler(editStatus, picture);
         this.picturePanel = new PicturePanel(editStatus, picture, egoTestHandler);
         mouseHandler = new MouseHandler(this, application);
@@ -218,6 +220,10 @@ public class PictureFrame extends JInternalFrame implements InternalFrameListene
     	return mouseHandler;
     }
     
+    public EgoTestHandler getEgoTestHandler() {
+        return egoTestHandler;
+    }
+    
     public EditStatus getEditStatus() {
         return editStatus;
     }
@@ -245,29 +251,33 @@ public class PictureFrame extends JInternalFrame implements InternalFrameListene
     
     public void calculateResizeDimensions() {
         this.maximumSizeMap = new HashMap<Integer, Dimension>();
-        for (int i=1; i<=5; i++) {
-            JInternalFrame frame = new JInternalFrame();
-            JPanel panel = new JPanel();
-            Dimension appDimension = new Dimension(320 * i, editStatus.getPictureType().getHeight() * i);
-            panel.setPreferredSize(appDimension);
-            JScrollPane scrollPane = new JScrollPane(panel);
-            scrollPane.setMinimumSize(new Dimension(10, 10));
-            frame.setLayout(new BorderLayout());
-            JPanel bottomPanel = new JPanel();
-            bottomPanel.setLayout(new BorderLayout());
-            JSlider slider = new JSlider();
-            JButton backButton = new JButton();
-            backButton.setPreferredSize(new Dimension(24, 24));
-            JButton forwardButton = new JButton();
-            forwardButton.setPreferredSize(new Dimension(24, 24));
-            bottomPanel.add(backButton, BorderLayout.WEST);
-            bottomPanel.add(slider, BorderLayout.CENTER);
-            bottomPanel.add(forwardButton, BorderLayout.EAST);
-            frame.add(scrollPane, BorderLayout.CENTER);
-            frame.add(bottomPanel, BorderLayout.SOUTH);
-            frame.pack();
-            frame.invalidate();
-            this.maximumSizeMap.put(i, frame.getSize());
+        
+        // The frame around the picture is the same size at every zoom factor, so it only needs to be measured once.
+        int pictureHeight = editStatus.getPictureType().getHeight();
+        JInternalFrame frame = new JInternalFrame();
+        JPanel panel = new JPanel();
+        Dimension appDimension = new Dimension(320, pictureHeight);
+        panel.setPreferredSize(appDimension);
+        JScrollPane scrollPane = new JScrollPane(panel);
+        scrollPane.setMinimumSize(new Dimension(10, 10));
+        frame.setLayout(new BorderLayout());
+        JPanel bottomPanel = new JPanel();
+        bottomPanel.setLayout(new BorderLayout());
+        JSlider slider = new JSlider();
+        JButton backButton = new JButton();
+        backButton.setPreferredSize(new Dimension(24, 24));
+        JButton forwardButton = new JButton();
+        forwardButton.setPreferredSize(new Dimension(24, 24));
+        bottomPanel.add(backButton, BorderLayout.WEST);
+        bottomPanel.add(slider, BorderLayout.CENTER);
+        bottomPanel.add(forwardButton, BorderLayout.EAST);
+        frame.add(scrollPane, BorderLayout.CENTER);
+        frame.add(bottomPanel, BorderLayout.SOUTH);
+        frame.pack();
+        frame.invalidate();
+        Dimension frameSize = frame.getSize();
+        for (int i=1; i<=EditStatus.MAXIMUM_ZOOM_FACTOR; i++) {
+            this.maximumSizeMap.put(i, new Dimension(frameSize.width + (320 * (i - 1)), frameSize.height + (pictureHeight * (i - 1))));
         }
     }
     
@@ -297,7 +307,26 @@ public class PictureFrame extends JInternalFrame implements InternalFrameListene
      */
     public void paint(Graphics g) {
         super.paint(g);
-        
+        updateControls();
+    }
+    
+    /**
+     * Repaints the parts of the PictureFrame that may have changed. Rather than
+     * repainting the whole frame, which would scale up and draw the whole picture 
+     * every time, only the changed region of the picture panel is repainted and the
+     * other controls are brought up to date. This must be called on the event 
+     * dispatch thread.
+     */
+    public void repaintChanges() {
+        picturePanel.repaintChanges();
+        updateControls();
+    }
+    
+    /**
+     * Brings the slider, navigation buttons and title up to date with the picture.
+     * These only repaint themselves if they actually change.
+     */
+    private void updateControls() {
         // Update slider enabled status based on whether line is being drawn or not. Slider
         // cannot be used if line drawing is active.
         positionSlider.setEnabled(!editStatus.isLineBeingDrawn());
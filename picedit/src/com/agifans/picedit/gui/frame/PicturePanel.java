@@ -6,20 +6,20 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
-import java.awt.image.RescaleOp;
 import java.awt.image.WritableRaster;
 import java.util.Arrays;
-import java.util.List;
 
 import javax.swing.JPanel;
 
+import com.agifans.picedit.picture.DirtyRegion;
 import com.agifans.picedit.picture.EditStatus;
 import com.agifans.picedit.picture.Picture;
-import com.agifans.picedit.picture.PictureCode;
+import com.agifans.picedit.picture.PictureCodeBuffer;
 import com.agifans.picedit.types.PictureType;
 import com.agifans.picedit.utils.EgaPalette;
 import com.agifans.picedit.view.EgoTestHandler;
@@ -30,6 +30,11 @@ import com.agifans.picedit.view.EgoTestHandler;
  * dual mode if it is activated and Ego if Ego test mode is activated,
  * essentially everything that is drawn within the picture part of a PictureFrame.
  * 
+ * Like the Picture, this panel is only used on the event dispatch thread. The
+ * picture content is painted on to an offscreen image, which paint() then draws.
+ * The Picture's screens only ever hold a complete frame, since a long redraw is
+ * done in the background and swapped in when it has finished.
+ * 
  * @author Lance Ewing
  */
 public class PicturePanel extends JPanel {
@@ -41,6 +46,14 @@ public class PicturePanel extends JPanel {
      */
     private final static int[] colours = EgaPalette.colours;
     
+    /**
+     * The colour to show in dual mode for each combination of visual and priority
+     * palette index, indexed by (visual index * palette size) + priority index. 
+     * This covers the 16 EGA colours and transparent, and also the transparent 
+     * versions of the colours that the transparent fill type uses.
+     */
+    private final static int[] dualModeColours = createDualModeColours();
+    
     /**
      * The Image for the background image.
      */
@@ -61,6 +74,17 @@ public class PicturePanel extends JPanel {
      */
     private int overlayScreen[];
     
+    /**
+     * The Image for the dual mode screen.
+     */
+    private Image dualModeImage;
+    
+    /**
+     * The RGB data array for the dual mode screen, which is where the visual and 
+     * priority screens are mixed together in dual mode.
+     */
+    private int dualModeScreen[];
+    
     /**
      * The AGI picture being edited.
      */
@@ -72,10 +96,15 @@ public class PicturePanel extends JPanel {
     private EditStatus editStatus;
 
     /**
-     * Holds two off screen images that are used interchangeably for offscreen rendering.
+     * Holds the offscreen image that the picture content is painted on.
      */
     private OffScreenGraphics offScreenGraphics;
     
+    /**
+     * Holds the visible part of the offscreen image scaled up by the zoom factor.
+     */
+    private ZoomedFrame zoomedFrame;
+    
     /**
      * The handler for managing the Ego Test mode.
      */
@@ -86,6 +115,38 @@ public class PicturePanel extends JPanel {
      */
     private int[] bgLineData;
     
+    /**
+     * The region of the picture that has changed since the offscreen image was last painted.
+     */
+    private DirtyRegion changedRegion;
+    
+    /**
+     * The region of the picture that needs to be repainted on to the panel. The
+     * offscreen painting adds to this and repaintChanges() takes it.
+     */
+    private DirtyRegion repaintRegion;
+    
+    /**
+     * The region covered by the temporary line that is currently on the overlay screen.
+     */
+    private DirtyRegion lineRegion;
+    
+    /**
+     * The display options that the offscreen images were last painted with. If
+     * these change then the whole picture needs to be painted again.
+     */
+    private int displayOptions;
+    
+    /**
+     * The picture position, picture size and selection that were last shown. The 
+     * selection highlights are drawn over the whole picture, so if any of these 
+     * change then the whole panel is repainted.
+     */
+    private int lastPicturePosition;
+    private int lastPictureSize;
+    private int lastFirstSelectedPosition;
+    private int lastLastSelectedPosition;
+    
     /**
      * Constructor for PicturePanel.
      * 
@@ -100,7 +161,15 @@ public class PicturePanel extends JPanel {
         this.bgLineData = new int[1024];
         this.bgLineData[0] = 0;
         
+        PictureType pictureType = editStatus.getPictureType();
+        this.changedRegion = new DirtyRegion(pictureType.getWidth(), pictureType.getHeight());
+        this.repaintRegion = new DirtyRegion(pictureType.getWidth(), pictureType.getHeight());
+        this.lineRegion = new DirtyRegion(pictureType.getWidth(), pictureType.getHeight());
+        this.displayOptions = -1;
+        this.zoomedFrame = new ZoomedFrame();
+        
         createOverlayScreenImage(160, editStatus.getPictureType().getHeight());
+        createDualModeScreenImage(pictureType.getWidth(), pictureType.getHeight());
         createPriorityBandsImage(PictureType.AGI);
         
         Dimension appDimension = new Dimension(320 * editStatus.getZoomFactor(), editStatus.getPictureType().getHeight() * editStatus.getZoomFactor());
@@ -112,16 +181,72 @@ public class PicturePanel extends JPanel {
      */
     public void clearOffscreenGraphics() {
         offScreenGraphics.clear();
+        zoomedFrame.clear();
+    }
+    
+    /**
+     * Gets the display options that affect how the whole picture is painted, packed
+     * in to an int so that it is easy to tell when any of them change.
+     * 
+     * @return The current display options.
+     */
+    private int getDisplayOptions() {
+        int options = 0;
+        if ((this.backgroundImage != null) && (editStatus.isBackgroundEnabled())) {
+            options |= 0x01;
+        }
+        if (editStatus.isDualModeEnabled()) {
+            options |= 0x02;
+        }
+        if (editStatus.isPriorityShowing()) {
+            options |= 0x04;
+        }
+        if (editStatus.isBandsOn()) {
+            options |= 0x08;
+        }
+        if (editStatus.isEgoTestEnabled()) {
+            options |= 0x10;
+        }
+        return options;
     }
     
     /**
      * Paints the picture panel on the offscreen Graphics. This is kept separate from the 
      * paint() method for performance reasons. The screen refresh timer invokes this method
      * at regular intervals.
+     * 
+     * Only the region of the picture that the drawing routines have changed since the 
+     * last time is painted, along with where Ego was and is when Ego test mode is on. 
+     * The whole picture is painted when the display options change.
      */
     public void paintOffscreenImage() {
     	if (offScreenGraphics != null) {
-	    	Graphics2D offScreenGC = offScreenGraphics.getActiveGraphics();
+    	    picture.takeDirtyRegion(changedRegion);
+    	    if (editStatus.isEgoTestEnabled()) {
+    	        egoTestHandler.addChangedRegion(changedRegion);
+    	    }
+    	    int newDisplayOptions = getDisplayOptions();
+    	    if (newDisplayOptions != displayOptions) {
+    	        changedRegion.addAll();
+    	        displayOptions = newDisplayOptions;
+    	    }
+    	    zoomedFrame.addChangedRegion(changedRegion);
+    	    
+    	    // The region that the offscreen image needs to catch up on. If there is
+    	    // nothing then it is already up to date.
+    	    DirtyRegion region = offScreenGraphics.getChangedRegion();
+    	    region.add(changedRegion);
+    	    changedRegion.moveTo(repaintRegion);
+    	    if (region.isEmpty()) {
+    	        return;
+    	    }
+    	    
+	    	Graphics2D offScreenGC = offScreenGraphics.getGraphics();
+	    	offScreenGC.setClip(region.getLeft() << 1, region.getTop(), region.getWidth() << 1, region.getHeight());
+	    	if (editStatus.isDualModeEnabled()) {
+	    	    updateDualModeScreen(region);
+	    	}
+	    	region.clear();
 	    	
 	        // Draw the background image (if there is one) to the offscreen image.
 	        if ((this.backgroundImage != null) && (editStatus.isBackgroundEnabled())) {
@@ -141,23 +266,8 @@ public class PicturePanel extends JPanel {
 	        }
 	
 	        if (editStatus.isDualModeEnabled()) {
-	            // Dual mode is when the priority and visual screens mix.
-	            offScreenGC.drawImage(picture.getPriorityImage(), 0, 0, 320, editStatus.getPictureType().getHeight(), this);
-	
-	            // To create the effect demonstrated by Joakim in APE, we need a solid white.
-	            BufferedImage tmpVisualImage = new BufferedImage(320, editStatus.getPictureType().getHeight(), BufferedImage.TYPE_INT_ARGB);
-	            Graphics tmpVisualGraphics = tmpVisualImage.getGraphics();
-	            tmpVisualGraphics.setColor(EgaPalette.WHITE);
-	            tmpVisualGraphics.fillRect(0, 0, 320, editStatus.getPictureType().getHeight());
-	            tmpVisualGraphics.drawImage(picture.getVisualImage(), 0, 0, 320, editStatus.getPictureType().getHeight(), this);
-	
-	            // Build a RescapeOp to perform the 50% transparency.
-	            float[] scales = { 1f, 1f, 1f, 0.5f };
-	            float[] offsets = new float[4];
-	            RescaleOp rop = new RescaleOp(scales, offsets, null);
-	
-	            // Draw the visual screen on top of the priority screen with 50% transparency.
-	            offScreenGC.drawImage(tmpVisualImage, rop, 0, 0);
+	            // Dual mode is when the priority and visual screens mix. The mixed colours have already been worked out.
+	            offScreenGC.drawImage(this.dualModeImage, 0, 0, 320, editStatus.getPictureType().getHeight(), this);
 	
 	        } else {
 	            if (editStatus.isPriorityShowing()) {
@@ -174,14 +284,44 @@ public class PicturePanel extends JPanel {
 	        if (editStatus.isEgoTestEnabled()) {
 	            egoTestHandler.drawEgo(offScreenGC, 1);
 	        }
-	        
-	        offScreenGraphics.toggle();
     	}
     }
     
     /**
-     * Paints the PICEDIT screen. A double buffering mechanism is implemented
-     * in order to reduce flicker as much as possible.
+     * Repaints the parts of the panel that have changed since they were last 
+     * painted, i.e. the region that the offscreen painting has changed and the
+     * temporary line, which flashes at the end. The whole panel is repainted if 
+     * the picture position or selection has changed, for the selection highlights.
+     */
+    public void repaintChanges() {
+        int firstSelectedPosition = picture.getFirstSelectedPosition();
+        int lastSelectedPosition = picture.getLastSelectedPosition();
+        int picturePosition = picture.getPicturePosition();
+        int pictureSize = picture.getSize();
+        
+        if ((firstSelectedPosition != lastFirstSelectedPosition) || (lastSelectedPosition != lastLastSelectedPosition) ||
+            (picturePosition != lastPicturePosition) || (pictureSize != lastPictureSize)) {
+            repaintRegion.addAll();
+            lastFirstSelectedPosition = firstSelectedPosition;
+            lastLastSelectedPosition = lastSelectedPosition;
+            lastPicturePosition = picturePosition;
+            lastPictureSize = pictureSize;
+        }
+        if (editStatus.isLineBeingDrawn()) {
+            repaintRegion.add(lineRegion);
+        }
+        if (!repaintRegion.isEmpty()) {
+            int zoomFactor = editStatus.getZoomFactor();
+            repaint((repaintRegion.getLeft() << 1) * zoomFactor, repaintRegion.getTop() * zoomFactor, 
+                    (repaintRegion.getWidth() << 1) * zoomFactor, repaintRegion.getHeight() * zoomFactor);
+            repaintRegion.clear();
+        }
+    }
+    
+    /**
+     * Paints the PICEDIT screen. The offscreen image is scaled up by the 
+     * ZoomedFrame, which only scales the parts that are visible and have changed, 
+     * and then the part of it that is within the clip is drawn without scaling.
      * 
      * @param g the Graphics object to paint on.
      */
@@ -189,13 +329,38 @@ public class PicturePanel extends JPanel {
     	if (offScreenGraphics == null) {
     		offScreenGraphics = new OffScreenGraphics();
     	}
+    	Image offScreenImage = offScreenGraphics.getImage();
+    	
+    	// Work out which part of the offscreen image is inside the clip.
+    	int zoomFactor = editStatus.getZoomFactor();
+    	int left = 0;
+    	int top = 0;
+    	int right = 320;
+    	int bottom = editStatus.getPictureType().getHeight();
+    	Rectangle clip = g.getClipBounds();
+    	if (clip != null) {
+    	    left = Math.max(left, clip.x / zoomFactor);
+    	    top = Math.max(top, clip.y / zoomFactor);
+    	    right = Math.min(right, (clip.x + clip.width + zoomFactor - 1) / zoomFactor);
+    	    bottom = Math.min(bottom, (clip.y + clip.height + zoomFactor - 1) / zoomFactor);
+    	}
+    	if ((left >= right) || (top >= bottom)) {
+    	    return;
+    	}
     	
         // Display the off screen image to the user, stretched by the zoom factor.
-        g.drawImage(offScreenGraphics.getImage(), 0, 0, 320 * editStatus.getZoomFactor(), editStatus.getPictureType().getHeight() * editStatus.getZoomFactor(), this);
+        zoomedFrame.update(offScreenImage, zoomFactor, getVisibleRect());
+        if (!zoomedFrame.draw(g, left, top, right, bottom)) {
+            // The clip is outside the visible part of the panel, so scale it directly.
+            g.drawImage(offScreenImage, left * zoomFactor, top * zoomFactor, right * zoomFactor, bottom * zoomFactor, left, top, right, bottom, this);
+        }
         
         // Draw the overlay screen on top of everything else. This is mainly for the temporary lines.
         if (editStatus.isLineBeingDrawn()) {
-        	g.drawImage(this.overlayScreenImage, 0, 0, 320 * editStatus.getZoomFactor(), editStatus.getPictureType().getHeight() * editStatus.getZoomFactor(), this);
+            // The overlay screen is half the width of the offscreen image.
+            int overlayLeft = (left >> 1);
+            int overlayRight = ((right + 1) >> 1);
+        	g.drawImage(this.overlayScreenImage, (overlayLeft << 1) * zoomFactor, top * zoomFactor, (overlayRight << 1) * zoomFactor, bottom * zoomFactor, overlayLeft, top, overlayRight, bottom, this);
         } else if (bgLineData[0] != 0) {
         	// Clear temporary line if line is no longer being drawn.
         	clearTemporaryLine();
@@ -218,12 +383,11 @@ public class PicturePanel extends JPanel {
         int lastSelectedPosition = picture.getLastSelectedPosition();
         
         if ((firstSelectedPosition > -1) && (lastSelectedPosition > -1)) {
-            List<PictureCode> pictureCodes = picture.getPictureCodes();
+            PictureCodeBuffer pictureCodes = picture.getPictureCodes();
             for (int picturePosition = firstSelectedPosition; picturePosition <= lastSelectedPosition; picturePosition++) {
-                PictureCode pictureCode = pictureCodes.get(picturePosition);
                 // It only makes sense to do something for data codes, and only if they're points.
-                if (pictureCode.isDataCode()) {
-                    Point point = pictureCode.getPoint();
+                if (pictureCodes.isDataCode(picturePosition)) {
+                    Point point = pictureCodes.getPoint(picturePosition);
 
                     if (point != null) {
                         // Calculate the x and y position of the point, scaling for zoom factor.
@@ -344,14 +508,86 @@ public class PicturePanel extends JPanel {
     private void createOverlayScreenImage(int width, int height) {
         this.overlayScreen = new int[width * height];
         Arrays.fill(this.overlayScreen, EgaPalette.transparent);
-        DataBufferInt dataBuffer = new DataBufferInt(this.overlayScreen, this.overlayScreen.length);
+        this.overlayScreenImage = createRGBImage(width, height, this.overlayScreen);
+    }
+    
+    /**
+     * Creates the image that the visual and priority screens are mixed in to for
+     * dual mode. The same image is reused for every frame.
+     */
+    private void createDualModeScreenImage(int width, int height) {
+        this.dualModeScreen = new int[width * height];
+        this.dualModeImage = createRGBImage(width, height, this.dualModeScreen);
+    }
+    
+    /**
+     * Creates an ARGB Image of the given size that uses the given data array to
+     * hold its pixel data.
+     */
+    private Image createRGBImage(int width, int height, int[] rgbDataArray) {
+        DataBufferInt dataBuffer = new DataBufferInt(rgbDataArray, rgbDataArray.length);
         ColorModel colorModel = ColorModel.getRGBdefault();
         int[] bandMasks = new int[] { 0x00ff0000, // red mask
                 0x0000ff00, // green mask
                 0x000000ff, // blue mask
                 0xff000000 }; // alpha mask
         WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width, bandMasks, null);
-        this.overlayScreenImage = new BufferedImage(colorModel, raster, false, null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+    
+    /**
+     * Creates the table of dual mode colours. Dual mode is the effect demonstrated 
+     * by Joakim in APE: the visual screen, with white where it is transparent, is 
+     * mixed 50/50 with the priority screen, where the background shows through 
+     * the transparent parts of the priority screen. The colour for each pair of
+     * palette indexes is therefore partly transparent wherever the priority colour
+     * is, so that drawing the mixed colours over the background gives the result.
+     * 
+     * @return The table of dual mode colours.
+     */
+    private static int[] createDualModeColours() {
+        int[] palette = EgaPalette.palette;
+        int[] dualModeColours = new int[palette.length * palette.length];
+        for (int visualIndex = 0; visualIndex < palette.length; visualIndex++) {
+            int visualRGB = palette[visualIndex];
+            int visualAlpha = (visualRGB >>> 24);
+            for (int priorityIndex = 0; priorityIndex < palette.length; priorityIndex++) {
+                int priorityRGB = palette[priorityIndex];
+                int priorityAlpha = (priorityRGB >>> 24);
+                int mixedRGB = ((255 + priorityAlpha) / 2) << 24;
+                for (int shift = 0; shift < 24; shift += 8) {
+                    // The visual colour over white, mixed with the priority colour in proportion to its alpha.
+                    int visual = ((visualAlpha * ((visualRGB >> shift) & 0xFF)) + ((255 - visualAlpha) * 255)) / 255;
+                    int priority = ((priorityRGB >> shift) & 0xFF);
+                    int mixed = ((255 * visual) + (priorityAlpha * priority)) / (255 + priorityAlpha);
+                    mixedRGB |= (mixed << shift);
+                }
+                dualModeColours[(visualIndex * palette.length) + priorityIndex] = mixedRGB;
+            }
+        }
+        return dualModeColours;
+    }
+    
+    /**
+     * Mixes the given region of the visual and priority screens in to the dual 
+     * mode screen by looking up the dual mode colour for each pixel.
+     * 
+     * @param region The region of the picture to update.
+     */
+    private void updateDualModeScreen(DirtyRegion region) {
+        byte[] visualScreen = picture.getVisualScreen();
+        byte[] priorityScreen = picture.getPriorityScreen();
+        int[] dualModeScreen = this.dualModeScreen;
+        int[] dualModeColours = PicturePanel.dualModeColours;
+        int paletteSize = EgaPalette.palette.length;
+        int width = editStatus.getPictureType().getWidth();
+        for (int y = region.getTop(); y <= region.getBottom(); y++) {
+            int index = (y * width) + region.getLeft();
+            int endIndex = (y * width) + region.getRight();
+            for (; index <= endIndex; index++) {
+                dualModeScreen[index] = dualModeColours[(visualScreen[index] * paletteSize) + priorityScreen[index]];
+            }
+        }
     }
 
     /**
@@ -361,6 +597,7 @@ public class PicturePanel extends JPanel {
      */
     public void setBackgroundImage(Image backgroundImage) {
         this.backgroundImage = backgroundImage;
+        this.displayOptions = -1;
     }
     
     /**
@@ -383,6 +620,9 @@ public class PicturePanel extends JPanel {
             this.bgLineData = new int[1024];
             this.bgLineData[0] = 0;
         }
+        
+        // The part of the panel where the line was needs repainting.
+        lineRegion.moveTo(repaintRegion);
     }
     
     /**
@@ -405,6 +645,8 @@ public class PicturePanel extends JPanel {
         
         // Redraw the pixels that were behind the previous temporary line.
         clearTemporaryLine();
+        
+        lineRegion.add(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
 
         // Start storing at index 1. We'll use 0 for the length.
         int bgIndex = 1;
@@ -516,50 +758,179 @@ public class PicturePanel extends JPanel {
     }
     
     /**
-     * Holds two off screen images that are used interchangeably for offscreen rendering of 
-     * the PicturePanel content.
+     * Holds the visible part of the offscreen image scaled up by the zoom factor,
+     * so that repaints only need to copy from it rather than scale the frame each 
+     * time. Only the parts of the frame that have changed are scaled again, and 
+     * only within the viewport of the scroll pane, which means that the cost of a 
+     * repaint doesn't depend on the zoom factor. When the viewport moves or the 
+     * zoom factor changes then the whole of the visible part is scaled again.
+     */
+    class ZoomedFrame {
+        
+        /**
+         * The image holding the scaled up part of the frame.
+         */
+        private Image image;
+        
+        /**
+         * The Graphics for the scaled up image.
+         */
+        private Graphics2D graphics;
+        
+        /**
+         * The zoom factor that the image was scaled up by.
+         */
+        private int zoomFactor;
+        
+        /**
+         * The part of the offscreen image that is held in the scaled up image.
+         */
+        private int left;
+        private int top;
+        private int right;
+        private int bottom;
+        
+        /**
+         * The region of the picture that has changed since the image was last scaled.
+         */
+        private DirtyRegion changedRegion;
+        
+        ZoomedFrame() {
+            PictureType pictureType = editStatus.getPictureType();
+            this.changedRegion = new DirtyRegion(pictureType.getWidth(), pictureType.getHeight());
+            clear();
+        }
+        
+        /**
+         * Throws away the scaled up part of the frame, so that it is all scaled again.
+         */
+        void clear() {
+            this.right = this.left;
+            this.changedRegion.addAll();
+        }
+        
+        /**
+         * Adds the given region of the picture to the parts that need to be scaled again.
+         */
+        void addChangedRegion(DirtyRegion region) {
+            changedRegion.add(region);
+        }
+        
+        /**
+         * Brings the scaled up image up to date with the given frame image for the 
+         * given zoom factor and visible rectangle of the panel.
+         * 
+         * @param frameImage The offscreen image holding the picture content.
+         * @param zoomFactor The current zoom factor.
+         * @param visibleRect The part of the panel that is visible.
+         */
+        void update(Image frameImage, int zoomFactor, Rectangle visibleRect) {
+            // Work out which part of the offscreen image is visible.
+            int visibleLeft = Math.max(0, visibleRect.x / zoomFactor);
+            int visibleTop = Math.max(0, visibleRect.y / zoomFactor);
+            int visibleRight = Math.min(320, (visibleRect.x + visibleRect.width + zoomFactor - 1) / zoomFactor);
+            int visibleBottom = Math.min(editStatus.getPictureType().getHeight(), (visibleRect.y + visibleRect.height + zoomFactor - 1) / zoomFactor);
+            if ((visibleLeft >= visibleRight) || (visibleTop >= visibleBottom)) {
+                return;
+            }
+            
+            if ((zoomFactor != this.zoomFactor) || (visibleLeft < left) || (visibleTop < top) || (visibleRight > right) || (visibleBottom > bottom)) {
+                int width = (visibleRight - visibleLeft) * zoomFactor;
+                int height = (visibleBottom - visibleTop) * zoomFactor;
+                if ((image == null) || (image.getWidth(null) < width) || (image.getHeight(null) < height)) {
+                    if (graphics != null) {
+                        graphics.dispose();
+                    }
+                    image = PicturePanel.this.createImage(width, height);
+                    graphics = (Graphics2D) image.getGraphics();
+                }
+                this.zoomFactor = zoomFactor;
+                this.left = visibleLeft;
+                this.top = visibleTop;
+                this.right = visibleRight;
+                this.bottom = visibleBottom;
+                changedRegion.addAll();
+            }
+            
+            if (!changedRegion.isEmpty()) {
+                // The changed region is in picture pixels, which are two offscreen pixels wide.
+                int changedLeft = Math.max(left, changedRegion.getLeft() << 1);
+                int changedTop = Math.max(top, changedRegion.getTop());
+                int changedRight = Math.min(right, (changedRegion.getRight() + 1) << 1);
+                int changedBottom = Math.min(bottom, changedRegion.getBottom() + 1);
+                if ((changedLeft < changedRight) && (changedTop < changedBottom)) {
+                    graphics.drawImage(frameImage, 
+                            (changedLeft - left) * zoomFactor, (changedTop - top) * zoomFactor, 
+                            (changedRight - left) * zoomFactor, (changedBottom - top) * zoomFactor, 
+                            changedLeft, changedTop, changedRight, changedBottom, null);
+                }
+                changedRegion.clear();
+            }
+        }
+        
+        /**
+         * Draws the given part of the offscreen image, scaled up, on to the given 
+         * Graphics. The coordinates are in offscreen image pixels.
+         * 
+         * @return true if it was drawn; false if that part isn't held by the ZoomedFrame.
+         */
+        boolean draw(Graphics g, int drawLeft, int drawTop, int drawRight, int drawBottom) {
+            if ((drawLeft < left) || (drawTop < top) || (drawRight > right) || (drawBottom > bottom)) {
+                return false;
+            }
+            int sourceLeft = (drawLeft - left) * zoomFactor;
+            int sourceTop = (drawTop - top) * zoomFactor;
+            int width = (drawRight - drawLeft) * zoomFactor;
+            int height = (drawBottom - drawTop) * zoomFactor;
+            g.drawImage(image, drawLeft * zoomFactor, drawTop * zoomFactor, (drawLeft * zoomFactor) + width, (drawTop * zoomFactor) + height, 
+                    sourceLeft, sourceTop, sourceLeft + width, sourceTop + height, null);
+            return true;
+        }
+    }
+    
+    /**
+     * Holds the offscreen image that the PicturePanel content is painted on, along
+     * with the region of it that needs painting again to catch up with the changes.
      */
     class OffScreenGraphics {
-    	
+        
         /**
-         * The offscreen images used to prepare the PICEDIT screen before displaying it.
+         * The offscreen image used to prepare the PICEDIT screen before displaying it.
          */
-    	private Image[] offScreenImages;
+        private Image offScreenImage;
 
         /**
-         * The Graphics instances associated with each offscreen image.
+         * The Graphics instance associated with the offscreen image.
          */
-        private Graphics2D[] offScreenGCs;
+        private Graphics2D offScreenGC;
 
         /**
-         * The currently active offscreen Image/Graphics index.
+         * The region of the picture that the offscreen image needs painting again.
          */
-        private int activeGraphics;
+        private DirtyRegion changedRegion;
         
         OffScreenGraphics() {
-        	clear();
+            clear();
         }
         
         void clear() {
-            this.offScreenImages = new Image[2];
-            this.offScreenGCs = new Graphics2D[2];
-            this.offScreenImages[0] = PicturePanel.this.createImage(320, editStatus.getPictureType().getHeight());
-            this.offScreenImages[1] = PicturePanel.this.createImage(320, editStatus.getPictureType().getHeight());
-            this.offScreenGCs[0] = (Graphics2D) offScreenImages[0].getGraphics();
-            this.offScreenGCs[1] = (Graphics2D) offScreenImages[1].getGraphics();
-            this.activeGraphics = 0;
+            PictureType pictureType = editStatus.getPictureType();
+            this.offScreenImage = PicturePanel.this.createImage(320, pictureType.getHeight());
+            this.offScreenGC = (Graphics2D) offScreenImage.getGraphics();
+            this.changedRegion = new DirtyRegion(pictureType.getWidth(), pictureType.getHeight());
+            this.changedRegion.addAll();
         }
         
         Image getImage() {
-        	return offScreenImages[(activeGraphics + 1) % 2];
+            return offScreenImage;
         }
         
-        Graphics2D getActiveGraphics() {
-        	return offScreenGCs[activeGraphics];
+        Graphics2D getGraphics() {
+            return offScreenGC;
         }
         
-        void toggle() {
-        	activeGraphics = ((activeGraphics + 1) % 2);
+        DirtyRegion getChangedRegion() {
+            return changedRegion;
         }
     }
 }
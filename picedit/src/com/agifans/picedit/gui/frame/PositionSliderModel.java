@@ -1,14 +1,11 @@
 package com.agifans.picedit.gui.frame;
 
-import java.util.LinkedList;
-
 import javax.swing.BoundedRangeModel;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.EventListenerList;
 
 import com.agifans.picedit.picture.Picture;
-import com.agifans.picedit.picture.PictureCode;
 
 /**
  * A BoundedRangeModel implementation whose behaviour and state is determined
@@ -12,7 +12,6 @@ import java.awt.event.WindowEvent;
 import java.beans.PropertyVetoException;
 import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
 
 import javax.imageio.ImageIO;
 import javax.swing.ButtonGroup;
@@ -37,7 +36,7 @@ import com.agifans.picedit.gui.frame.PictureFrame;
 import com.agifans.picedit.gui.frame.PicturePanel;
 import com.agifans.picedit.picture.EditStatus;
 import com.agifans.picedit.picture.Picture;
-import com.agifans.picedit.picture.PictureCode;
+import com.agifans.picedit.picture.PictureCodeBuffer;
 import com.agifans.picedit.types.BrushShape;
 import com.agifans.picedit.types.BrushTexture;
 import com.agifans.picedit.types.FillType;
@@ -190,6 +189,10 @@ public class Menu implements ActionListener, MenuListener {
         deleteMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0));
         deleteMenuItem.addActionListener(this);
         editMenu.add(deleteMenuItem);
+        JMenuItem pictureCacheSizeMenuItem = new JMenuItem(MenuOption.PICTURE_CACHE_SIZE.getDisplayValue(), KeyEvent.VK_C);
+        pictureCacheSizeMenuItem.addActionListener(this);
+        editMenu.addSeparator();
+        editMenu.add(pictureCacheSizeMenuItem);
         editMenu.addMenuListener(this);
         menuBar.add(editMenu);
         
@@ -235,6 +238,8 @@ public class Menu implements ActionListener, MenuListener {
         JMenuItem zoomx3MenuItem = new JMenuItem(MenuOption.ZOOM_X3.getDisplayValue());
         JMenuItem zoomx4MenuItem = new JMenuItem(MenuOption.ZOOM_X4.getDisplayValue());
         JMenuItem zoomx5MenuItem = new JMenuItem(MenuOption.ZOOM_X5.getDisplayValue());
+        JMenuItem zoomx8MenuItem = new JMenuItem(MenuOption.ZOOM_X8.getDisplayValue());
+        JMenuItem zoomx16MenuItem = new JMenuItem(MenuOption.ZOOM_X16.getDisplayValue());
         backgroundMenuItem.addActionListener(this);
         visualMenuItem.addActionListener(this);
         priorityMenuItem.addActionListener(this);
@@ -251,6 +256,8 @@ public class Menu implements ActionListener, MenuListener {
         zoomx3MenuItem.addActionListener(this);
         zoomx4MenuItem.addActionListener(this);
         zoomx5MenuItem.addActionListener(this);
+        zoomx8MenuItem.addActionListener(this);
+        zoomx16MenuItem.addActionListener(this);
         viewMenu.add(visualMenuItem);
         viewMenu.add(priorityMenuItem);
         viewMenu.addSeparator();
@@ -270,6 +277,8 @@ public class Menu implements ActionListener, MenuListener {
         zoomMenu.add(zoomx3MenuItem);
         zoomMenu.add(zoomx4MenuItem);
         zoomMenu.add(zoomx5MenuItem);
+        zoomMenu.add(zoomx8MenuItem);
+        zoomMenu.add(zoomx16MenuItem);
         zoomMenu.addSeparator();
         zoomMenu.add(zoomInMenuItem);
         zoomMenu.add(zoomOutMenuItem);
@@ -540,7 +549,7 @@ public class Menu implements ActionListener, MenuListener {
                 break;
             
             case ZOOM_IN:
-                if (editStatus.getZoomFactor() < 5) {
+                if (editStatus.getZoomFactor() < EditStatus.MAXIMUM_ZOOM_FACTOR) {
                     application.resizeScreen(editStatus.getZoomFactor() + 1);
                 }
                 break;
@@ -571,6 +580,14 @@ public class Menu implements ActionListener, MenuListener {
                 application.resizeScreen(5);
                 break;
 
+            case ZOOM_X8:
+                application.resizeScreen(8);
+                break;
+
+            case ZOOM_X16:
+                application.resizeScreen(16);
+                break;
+
             case BACKGROUND:
                 processToggleBackground();
                 break;
@@ -679,6 +696,10 @@ public class Menu implements ActionListener, MenuListener {
                 picture.deleteSelectedPictureCodes();
                 break;
                 
+            case PICTURE_CACHE_SIZE:
+                processEnterPictureCacheSize();
+                break;
+                
             case VISUAL:
                 if (editStatus.isPriorityShowing()) {
                     processTogglePriorityScreen();
@@ -722,14 +743,12 @@ public class Menu implements ActionListener, MenuListener {
                 Picture picture = application.getPicture();
                 
                 // If the entered value is valid, apply the new position.
-                LinkedList<PictureCode> pictureCodes = picture.getPictureCodes();
+                PictureCodeBuffer pictureCodes = picture.getPictureCodes();
                 int newPosition = Integer.parseInt(positionStr.toString());
                 if ((newPosition >= 0) && (newPosition < pictureCodes.size())) {
                     if (newPosition < (pictureCodes.size() - 1)) {
                         // Find the closest picture action to the entered position.
-                        while (pictureCodes.get(newPosition).getCode() < 0xF0) {
-                            newPosition = newPosition - 1;
-                        }
+                        newPosition = Math.max(pictureCodes.getActionStart(newPosition), 0);
                     }
                     picture.setPicturePosition(newPosition);
                     picture.drawPicture();
@@ -740,6 +759,34 @@ public class Menu implements ActionListener, MenuListener {
         }
     }
 
+    /**
+     * Allows the user to change the maximum size of the picture cache that each
+     * picture has. The usage and hit/miss/eviction counts of the current picture's
+     * cache are shown to help with choosing the size. The new size is applied to
+     * all of the open pictures and kept in the preferences.
+     */
+    protected void processEnterPictureCacheSize() {
+        StringBuilder message = new StringBuilder();
+        if (application.hasVisiblePictureFrame()) {
+            message.append("Picture cache: ");
+            message.append(application.getPicture().getPictureCache());
+            message.append("\n\n");
+        }
+        message.append("Enter the maximum picture cache size in KB:");
+        Object sizeStr = JOptionPane.showInputDialog(application, message.toString(), "Picture Cache Size", 
+                JOptionPane.QUESTION_MESSAGE, null, null, String.valueOf(application.getPictureCacheSize() / 1024));
+        if ((sizeStr != null) && (!sizeStr.toString().trim().equals(""))) {
+            try {
+                long newSize = Long.parseLong(sizeStr.toString().trim());
+                if (newSize > 0) {
+                    application.setPictureCacheSize(newSize * 1024);
+                }
+            } catch (NumberFormatException nfe) {
+                // Ignore. The user has entered a non-numeric value.
+            }
+        }
+    }
+
     /**
      * Toggles the display of the priority screen.
      */
@@ -27,6 +27,8 @@ public enum MenuOption {
     ZOOM_X3("Zoom x3"), 
     ZOOM_X4("Zoom x4"), 
     ZOOM_X5("Zoom x5"),
+    ZOOM_X8("Zoom x8"),
+    ZOOM_X16("Zoom x16"),
     VISUAL("Visual"),
     PRIORITY("Priority"),
     CONTROL("Control"),
@@ -50,7 +52,8 @@ public enum MenuOption {
     PREV("Previous"),
     END("End"),
     GOTO("Goto..."),
-    DELETE("Delete")
+    DELETE("Delete"),
+    PICTURE_CACHE_SIZE("Picture Cache Size...")
     ;
 
     // Holds mapping between the display values and the MenuOption it belongs to.
@@ -26,7 +26,7 @@ import javax.swing.JPanel;
 import javax.swing.JToggleButton;
 import javax.swing.border.BevelBorder;
 
-import com.agifans.picedit.picture.Picture;
+import com.agifans.picedit.picture.PictureRenderer;
 import com.agifans.picedit.types.BrushShape;
 import com.agifans.picedit.types.BrushTexture;
 import com.agifans.picedit.types.BrushType;
@@ -101,13 +101,13 @@ public class BrushChooserDialog extends JDialog {
      */
     public void plotBrush(int x, int y, int penSize, boolean isSquare, boolean isAirBrush, Graphics graphics) {
         int circlePos = 0;
-        int bitPos = Picture.splatterStart[10];
+        int bitPos = PictureRenderer.splatterStart[10];
 
         for (int y1 = (y + 8) - penSize; y1 <= (y + 8) + penSize; y1++) {
             for (int x1 = (x + 8) - penSize; x1 <= (x + 8) + penSize; x1+=2) {
                 if (isSquare) {
                     if (isAirBrush) {
-                        if (((Picture.splatterMap[bitPos >> 3] >> (7 - (bitPos & 7))) & 1) > 0) {
+                        if (((PictureRenderer.splatterMap[bitPos >> 3] >> (7 - (bitPos & 7))) & 1) > 0) {
                             graphics.fillRect((x1<<1) - 1, (y1<<1), 4, 2);
                         }
                         bitPos++;
@@ -120,9 +120,9 @@ public class BrushChooserDialog extends JDialog {
                     }
                 } else { 
                     // Not a square implies circle.
-                    if (((Picture.circles[penSize][circlePos >> 3] >> (7 - (circlePos & 7))) & 1) > 0) {
+                    if (((PictureRenderer.circles[penSize][circlePos >> 3] >> (7 - (circlePos & 7))) & 1) > 0) {
                         if (isAirBrush) {
-                            if (((Picture.splatterMap[bitPos >> 3] >> (7 - (bitPos & 7))) & 1) > 0) {
+                            if (((PictureRenderer.splatterMap[bitPos >> 3] >> (7 - (bitPos & 7))) & 1) > 0) {
                                 graphics.fillRect((x1<<1) - 1, (y1<<1), 4, 2);
                             }
                             bitPos++;
@@ -0,0 +1,132 @@
+package com.agifans.picedit.picture;
+
+/**
+ * Indexes where the action codes are within a PictureCodeBuffer. This is a Fenwick
+ * tree (binary indexed tree) over the slots of the buffer's codes array, holding a
+ * 1 for each slot that holds an action code and a 0 for everything else, including
+ * the slots in the gap. Because it is indexed by slot rather than by picture
+ * position, inserting or removing codes at the gap only changes the slots involved
+ * rather than shifting everything after them. This gives O(log n) counts of the
+ * actions up to a slot and O(log n) lookups of the slot of the k-th action, which
+ * is what finding action boundaries needs.
+ */
+class ActionIndex {
+
+    /**
+     * The Fenwick tree, indexed from 1.
+     */
+    private int[] tree;
+
+    /**
+     * Holds a 1 for each slot that holds an action code; otherwise 0.
+     */
+    private byte[] actions;
+
+    /**
+     * The highest power of two that is no bigger than the number of slots.
+     */
+    private int topBit;
+
+    /**
+     * Constructor for ActionIndex.
+     *
+     * @param capacity The number of slots to index.
+     */
+    ActionIndex(int capacity) {
+        this.tree = new int[capacity + 1];
+        this.actions = new byte[capacity];
+        this.topBit = Integer.highestOneBit(Math.max(capacity, 1));
+    }
+
+    /**
+     * Rebuilds the index from the given codes array. The slots from gapStart up to
+     * but not including gapEnd are the gap and are treated as empty. This takes
+     * linear time.
+     *
+     * @param codes The packed picture codes, including the gap.
+     * @param gapStart The slot where the gap starts.
+     * @param gapEnd The slot immediately after the end of the gap.
+     * @param codeRegistry The PictureCodeRegistry that says which codes are action codes.
+     */
+    void rebuild(int[] codes, int gapStart, int gapEnd, PictureCodeRegistry codeRegistry) {
+        if (actions.length != codes.length) {
+            this.tree = new int[codes.length + 1];
+            this.actions = new byte[codes.length];
+            this.topBit = Integer.highestOneBit(Math.max(codes.length, 1));
+        }
+        for (int slot = 0; slot < codes.length; slot++) {
+            actions[slot] = (byte)(((slot < gapStart) || (slot >= gapEnd)) && codeRegistry.isActionCode(codes[slot])? 1 : 0);
+            tree[slot + 1] = actions[slot];
+        }
+        for (int i = 1; i < tree.length; i++) {
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    /**
+     * Records what the given slot now holds.
+     *
+     * @param slot The slot that has changed.
+     * @param isAction true if the slot holds an action code; false if it holds a data code or is in the gap.
+     */
+    void set(int slot, boolean isAction) {
+        int value = (isAction? 1 : 0);
+        int delta = value - actions[slot];
+        if (delta != 0) {
+            actions[slot] = (byte)value;
+            for (int i = slot + 1; i < tree.length; i += (i & -i)) {
+                tree[i] += delta;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of action codes in the slots up to and including the given slot.
+     *
+     * @param slot The last slot to count.
+     *
+     * @return The number of action codes up to and including the slot.
+     */
+    int countTo(int slot) {
+        int count = 0;
+        for (int i = slot + 1; i > 0; i -= (i & -i)) {
+            count += tree[i];
+        }
+        return count;
+    }
+
+    /**
+     * Gets the total number of action codes.
+     *
+     * @return The total number of action codes.
+     */
+    int count() {
+        return countTo(actions.length - 1);
+    }
+
+    /**
+     * Finds the slot holding the given action, counting from 1.
+     *
+     * @param actionNumber The number of the action, where 1 is the first action.
+     *
+     * @return The slot holding the action, or -1 if there aren't that many actions.
+     */
+    int findSlot(int actionNumber) {
+        if ((actionNumber < 1) || (actionNumber > count())) {
+            return -1;
+        }
+        int position = 0;
+        int remaining = actionNumber;
+        for (int bit = topBit; bit > 0; bit >>= 1) {
+            int next = position + bit;
+            if ((next < tree.length) && (tree[next] < remaining)) {
+                position = next;
+                remaining -= tree[next];
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,406 @@
+package com.agifans.picedit.picture;
+
+import com.agifans.picedit.types.ToolType;
+
+/**
+ * The PictureCodeHandlers for the standard AGI picture action codes (0xF0 to 0xFA).
+ */
+final class AgiPictureCodeHandlers {
+
+    /**
+     * Private constructor, since this class only holds the handlers.
+     */
+    private AgiPictureCodeHandlers() {
+    }
+
+    /**
+     * Adds all of the standard AGI handlers to the given registry.
+     *
+     * @param registry The PictureCodeRegistry to add the handlers to.
+     */
+    static void registerAll(PictureCodeRegistry registry) {
+        registry.register(new ColourHandler(PictureCodeType.SET_VISUAL_COLOR, RenderProgram.SET_VISUAL_COLOUR));
+        registry.register(new ColourOffHandler(PictureCodeType.SET_VISUAL_COLOR_OFF, RenderProgram.SET_VISUAL_COLOUR, EditStatus.VISUAL_OFF));
+        registry.register(new ColourHandler(PictureCodeType.SET_PRIORITY_COLOR, RenderProgram.SET_PRIORITY_COLOUR));
+        registry.register(new ColourOffHandler(PictureCodeType.SET_PRIORITY_COLOR_OFF, RenderProgram.SET_PRIORITY_COLOUR, EditStatus.PRIORITY_OFF));
+        registry.register(new StepLineHandler(PictureCodeType.DRAW_VERTICAL_STEP_LINE, true));
+        registry.register(new StepLineHandler(PictureCodeType.DRAW_HORIZONTAL_STEP_LINE, false));
+        registry.register(new AbsoluteLineHandler());
+        registry.register(new RelativeLineHandler());
+        registry.register(new FillHandler());
+        registry.register(new BrushTypeHandler());
+        registry.register(new BrushHandler());
+        registry.register(new EndHandler());
+    }
+
+    /**
+     * Sets the visual or priority colour (actions 0xF0 and 0xF2).
+     */
+    static class ColourHandler extends PictureCodeHandler {
+
+        /**
+         * The RenderProgram operation that sets the colour.
+         */
+        private int op;
+
+        ColourHandler(PictureCodeType type, int op) {
+            super(type);
+            this.op = op;
+        }
+
+        public boolean isTruncatable() {
+            return false;
+        }
+
+        public void read(PictureCodeReader reader) {
+            reader.add(PictureCodeType.COLOR_DATA, reader.next());
+        }
+
+        public int compile(RenderProgram program, int position, int index, int endPosition) {
+            program.addOp(op, position, program.getPictureCodes().getCode(index++));
+            return index;
+        }
+    }
+
+    /**
+     * Turns off drawing on the visual or priority screen (actions 0xF1 and 0xF3).
+     */
+    static class ColourOffHandler extends PictureCodeHandler {
+
+        /**
+         * The RenderProgram operation that sets the colour.
+         */
+        private int op;
+
+        /**
+         * The colour that means drawing is off.
+         */
+        private int offColour;
+
+        ColourOffHandler(PictureCodeType type, int op, int offColour) {
+            super(type);
+            this.op = op;
+            this.offColour = offColour;
+        }
+
+        public boolean isTruncatable() {
+            return false;
+        }
+
+        public void read(PictureCodeReader reader) {
+        }
+
+        public int compile(RenderProgram program, int position, int index, int endPosition) {
+            program.addOp(op, position, offColour);
+            return index;
+        }
+    }
+
+    /**
+     * Draws a yCorner or xCorner (actions 0xF4 and 0xF5). The corners are compiled
+     * in to lines with both end points.
+     */
+    static class StepLineHandler extends PictureCodeHandler {
+
+        /**
+         * true for a yCorner, which starts with a Y position; false for an xCorner.
+         */
+        private boolean isYFirst;
+
+        StepLineHandler(PictureCodeType type, boolean isYFirst) {
+            super(type);
+            this.isYFirst = isYFirst;
+        }
+
+        public void read(PictureCodeReader reader) {
+            int x = reader.next();
+            int y = reader.next();
+            reader.add(PictureCodeType.ABSOLUTE_POINT_DATA, ((x << 8) | y));
+            boolean isY = isYFirst;
+            int position;
+            while ((position = reader.next()) < 0xF0) {
+                reader.add(isY? PictureCodeType.Y_POSITION_DATA : PictureCodeType.X_POSITION_DATA, position);
+                isY = !isY;
+            }
+            reader.back();
+        }
+
+        public int compile(RenderProgram program, int position, int index, int endPosition) {
+            PictureCodeBuffer pictureCodes = program.getPictureCodes();
+            int code = pictureCodes.getCode(index++);
+            int x1 = (code & 0xFF00) >> 8;
+            int y1 = (code & 0x00FF);
+
+            // A line must always have a least one point.
+            program.addOp(RenderProgram.SET_TOOL, position, ToolType.STEPLINE.ordinal());
+            program.addOp(RenderProgram.PIXEL, position, x1, y1);
+
+            boolean isY = isYFirst;
+            while (index <= endPosition) {
+                int value = pictureCodes.getCode(index++);
+                if (value >= 0xF0) {
+                    break;
+                }
+                if (isY) {
+                    program.addOp(RenderProgram.LINE, index - 1, x1, y1, x1, value);
+                    y1 = value;
+                } else {
+                    program.addOp(RenderProgram.LINE, index - 1, x1, y1, value, y1);
+                    x1 = value;
+                }
+                isY = !isY;
+            }
+
+            return (index - 1);
+        }
+    }
+
+    /**
+     * Draws long lines to actual locations (action 0xF6).
+     */
+    static class AbsoluteLineHandler extends PictureCodeHandler {
+
+        AbsoluteLineHandler() {
+            super(PictureCodeType.DRAW_LINE);
+        }
+
+        public void read(PictureCodeReader reader) {
+            readPoints(reader, PictureCodeType.ABSOLUTE_POINT_DATA);
+        }
+
+        public int compile(RenderProgram program, int position, int index, int endPosition) {
+            PictureCodeBuffer pictureCodes = program.getPictureCodes();
+            int code = pictureCodes.getCode(index++);
+            int x1 = (code & 0xFF00) >> 8;
+            int y1 = (code & 0x00FF);
+
+            // A line must always have a least one point.
+            program.addOp(RenderProgram.SET_TOOL, position, ToolType.LINE.ordinal());
+            program.addOp(RenderProgram.PIXEL, position, x1, y1);
+
+            while (index <= endPosition) {
+                if (pictureCodes.getType(index) != PictureCodeType.ABSOLUTE_POINT_DATA) {
+                    index++;
+                    break;
+                }
+                code = pictureCodes.getCode(index++);
+                int x2 = (code & 0xFF00) >> 8;
+                int y2 = (code & 0x00FF);
+                program.addOp(RenderProgram.LINE, index - 1, x1, y1, x2, y2);
+                x1 = x2;
+                y1 = y2;
+            }
+
+            return (index - 1);
+        }
+    }
+
+    /**
+     * Draws short lines relative to the last position (action 0xF7). The
+     * displacements are compiled in to lines with absolute end points.
+     */
+    static class RelativeLineHandler extends PictureCodeHandler {
+
+        RelativeLineHandler() {
+            super(PictureCodeType.DRAW_SHORT_LINE);
+        }
+
+        public void read(PictureCodeReader reader) {
+            int x = reader.next();
+            int y = reader.next();
+            reader.add(PictureCodeType.ABSOLUTE_POINT_DATA, ((x << 8) | y));
+            int disp;
+            while ((disp = reader.next()) < 0xF0) {
+                reader.add(PictureCodeType.RELATIVE_POINT_DATA, disp);
+            }
+            reader.back();
+        }
+
+        public int compile(RenderProgram program, int position, int index, int endPosition) {
+            PictureCodeBuffer pictureCodes = program.getPictureCodes();
+            int code = pictureCodes.getCode(index++);
+            int x1 = (code & 0xFF00) >> 8;
+            int y1 = (code & 0x00FF);
+
+            // A line must always have a least one point.
+            program.addOp(RenderProgram.SET_TOOL, position, ToolType.SHORTLINE.ordinal());
+            program.addOp(RenderProgram.PIXEL, position, x1, y1);
+
+            while (index <= endPosition) {
+                int disp = pictureCodes.getCode(index++);
+                if (disp >= 0xF0) {
+                    break;
+                }
+                int dx = ((disp & 0xF0) >> 4) & 0x0F;
+                int dy = (disp & 0x0F);
+                if ((dx & 0x08) > 0) {
+                    dx = (-1) * (dx & 0x07);
+                }
+                if ((dy & 0x08) > 0) {
+                    dy = (-1) * (dy & 0x07);
+                }
+                program.addOp(RenderProgram.LINE, index - 1, x1, y1, x1 + dx, y1 + dy);
+                x1 += dx;
+                y1 += dy;
+            }
+
+            return (index - 1);
+        }
+    }
+
+    /**
+     * AGI flood fill (action 0xF8).
+     */
+    static class FillHandler extends PictureCodeHandler {
+
+        FillHandler() {
+            super(PictureCodeType.DRAW_FILL);
+        }
+
+        public void read(PictureCodeReader reader) {
+            readPoints(reader, PictureCodeType.FILL_POINT_DATA);
+        }
+
+        public int compile(RenderProgram program, int position, int index, int endPosition) {
+            PictureCodeBuffer pictureCodes = program.getPictureCodes();
+            program.addOp(RenderProgram.SET_TOOL, position, ToolType.FILL.ordinal());
+
+            while (index <= endPosition) {
+                if (pictureCodes.getType(index) != PictureCodeType.FILL_POINT_DATA) {
+                    index++;
+                    break;
+                }
+                int code = pictureCodes.getCode(index++);
+                program.addOp(RenderProgram.FILL, index - 1, (code & 0xFF00) >> 8, (code & 0x00FF));
+            }
+
+            return (index - 1);
+        }
+    }
+
+    /**
+     * Sets the brush type (action 0xF9).
+     */
+    static class BrushTypeHandler extends PictureCodeHandler {
+
+        BrushTypeHandler() {
+            super(PictureCodeType.SET_BRUSH_TYPE);
+        }
+
+        public boolean isTruncatable() {
+            return false;
+        }
+
+        public void read(PictureCodeReader reader) {
+            reader.setBrushCode(reader.next());
+            reader.add(PictureCodeType.BRUSH_TYPE_DATA, reader.getBrushCode());
+        }
+
+        public int compile(RenderProgram program, int position, int index, int endPosition) {
+            program.setBrushCode(program.getPictureCodes().getCode(index++));
+            program.addOp(RenderProgram.SET_BRUSH_CODE, position, program.getBrushCode());
+            return index;
+        }
+    }
+
+    /**
+     * Plots points and the various brush patterns (action 0xFA). Whether each point
+     * has a pattern code before it depends on the brush type.
+     */
+    static class BrushHandler extends PictureCodeHandler {
+
+        BrushHandler() {
+            super(PictureCodeType.DRAW_BRUSH_POINT);
+        }
+
+        public void read(PictureCodeReader reader) {
+            int pattern, x, y;
+            while (true) {
+                if ((reader.getBrushCode() & 0x20) > 0) {
+                    if ((pattern = reader.next()) >= 0xF0) {
+                        break;
+                    }
+                    reader.add(PictureCodeType.BRUSH_PATTERN_DATA, pattern);
+                }
+                if ((x = reader.next()) >= 0xF0) {
+                    break;
+                }
+                if ((y = reader.next()) >= 0xF0) {
+                    break;
+                }
+                reader.add(PictureCodeType.BRUSH_POINT_DATA, ((x << 8) | y));
+            }
+            reader.back();
+        }
+
+        public int compile(RenderProgram program, int position, int index, int endPosition) {
+            PictureCodeBuffer pictureCodes = program.getPictureCodes();
+            int patNum = 0;
+
+            program.addOp(RenderProgram.SET_TOOL, position, ToolType.BRUSH.ordinal());
+
+            while (index <= endPosition) {
+                if ((program.getBrushCode() & 0x20) > 0) {
+                    if ((patNum = pictureCodes.getCode(index++)) >= 0xF0) {
+                        break;
+                    }
+                    patNum = (patNum >> 1 & 0x7f);
+                }
+                if (index > endPosition) {
+                    break;
+                }
+                if (pictureCodes.getType(index) != PictureCodeType.BRUSH_POINT_DATA) {
+                    index++;
+                    break;
+                }
+                int code = pictureCodes.getCode(index++);
+                program.addOp(RenderProgram.PLOT, index - 1, patNum, (code & 0xFF00) >> 8, (code & 0x00FF));
+            }
+
+            return (index - 1);
+        }
+    }
+
+    /**
+     * The end of the picture (code 0xFF). The reader stops when it gets to this code
+     * rather than reading it through this handler.
+     */
+    static class EndHandler extends PictureCodeHandler {
+
+        EndHandler() {
+            super(PictureCodeType.END);
+        }
+
+        public boolean isTruncatable() {
+            return false;
+        }
+
+        public void read(PictureCodeReader reader) {
+        }
+
+        public int compile(RenderProgram program, int position, int index, int endPosition) {
+            return index;
+        }
+    }
+
+    /**
+     * Reads pairs of X and Y positions up to the next action code, adding each as
+     * a point of the given type.
+     *
+     * @param reader The PictureCodeReader to read the points from.
+     * @param type The type of point data.
+     */
+    private static void readPoints(PictureCodeReader reader, PictureCodeType type) {
+        int x, y;
+        while (true) {
+            if ((x = reader.next()) >= 0xF0) {
+                break;
+            }
+            if ((y = reader.next()) >= 0xF0) {
+                break;
+            }
+            reader.add(type, ((x << 8) | y));
+        }
+        reader.back();
+    }
+}
@@ -0,0 +1,164 @@
+package com.agifans.picedit.picture;
+
+/**
+ * Holds the bounding box of the pixels that have changed on the picture screens
+ * since the region was last cleared. The drawing routines add to the region as
+ * they draw so that the GUI only needs to composite and repaint the part of the
+ * picture that has actually changed. The coordinates are picture pixels, with
+ * the right and bottom edges being inclusive. Like the PictureRenderer, this
+ * has no dependencies on AWT and is not thread safe.
+ */
+public class DirtyRegion {
+
+    /**
+     * The width of the picture in pixels.
+     */
+    private int width;
+
+    /**
+     * The height of the picture in pixels.
+     */
+    private int height;
+
+    /**
+     * The left edge of the region.
+     */
+    private int left;
+
+    /**
+     * The top edge of the region.
+     */
+    private int top;
+
+    /**
+     * The right edge of the region (inclusive).
+     */
+    private int right;
+
+    /**
+     * The bottom edge of the region (inclusive).
+     */
+    private int bottom;
+
+    /**
+     * Constructor for DirtyRegion. The region starts off empty.
+     *
+     * @param width The width of the picture in pixels.
+     * @param height The height of the picture in pixels.
+     */
+    public DirtyRegion(int width, int height) {
+        this.width = width;
+        this.height = height;
+        clear();
+    }
+
+    /**
+     * Empties the region.
+     */
+    public void clear() {
+        left = width;
+        top = height;
+        right = -1;
+        bottom = -1;
+    }
+
+    /**
+     * Returns true if nothing has changed, i.e. the region is empty.
+     *
+     * @return true if the region is empty; otherwise false.
+     */
+    public boolean isEmpty() {
+        return (right < left);
+    }
+
+    /**
+     * Adds the given rectangle to the region. Parts of the rectangle that are
+     * outside of the picture are ignored.
+     *
+     * @param left The left edge of the rectangle.
+     * @param top The top edge of the rectangle.
+     * @param right The right edge of the rectangle (inclusive).
+     * @param bottom The bottom edge of the rectangle (inclusive).
+     */
+    public void add(int left, int top, int right, int bottom) {
+        if (left < this.left) {
+            this.left = Math.max(left, 0);
+        }
+        if (top < this.top) {
+            this.top = Math.max(top, 0);
+        }
+        if (right > this.right) {
+            this.right = Math.min(right, width - 1);
+        }
+        if (bottom > this.bottom) {
+            this.bottom = Math.min(bottom, height - 1);
+        }
+    }
+
+    /**
+     * Adds the given region to this region.
+     *
+     * @param region The region to add.
+     */
+    public void add(DirtyRegion region) {
+        if (!region.isEmpty()) {
+            add(region.left, region.top, region.right, region.bottom);
+        }
+    }
+
+    /**
+     * Adds the whole picture to the region. This is used when all of the screen
+     * data has been replaced, e.g. when the screens are cleared or restored from
+     * the picture cache.
+     */
+    public void addAll() {
+        left = 0;
+        top = 0;
+        right = width - 1;
+        bottom = height - 1;
+    }
+
+    /**
+     * Adds this region to the given region and then clears this region.
+     *
+     * @param region The region to move this region in to.
+     */
+    public void moveTo(DirtyRegion region) {
+        region.add(this);
+        clear();
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    /**
+     * Gets the width of the region, or 0 if it is empty.
+     *
+     * @return The width of the region.
+     */
+    public int getWidth() {
+        return (isEmpty()? 0 : (right - left) + 1);
+    }
+
+    /**
+     * Gets the height of the region, or 0 if it is empty.
+     *
+     * @return The height of the region.
+     */
+    public int getHeight() {
+        return (isEmpty()? 0 : (bottom - top) + 1);
+    }
+}
@@ -25,6 +25,8 @@ public class EditStatus {
 
     public static final int CONTROL_OFF = -1;
 
+    public static final int MAXIMUM_ZOOM_FACTOR = 16;
+
     private ToolType tool;
 
     private int visualColour;
@@ -1,27 +1,26 @@
 package com.agifans.picedit.picture;
 
 import java.awt.Image;
-import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferByte;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 import com.agifans.picedit.picture.PictureCache.PictureCacheEntry;
+import com.agifans.picedit.picture.PictureDeltaLog.PictureDelta;
 import com.agifans.picedit.types.PictureType;
 import com.agifans.picedit.types.ToolType;
 import com.agifans.picedit.utils.EgaPalette;
@@ -29,39 +28,65 @@ import com.agifans.picedit.utils.EgaPalette;
 /**
  * This class represents an AGI/SCI Picture.
  * 
+ * A Picture is only used on the event dispatch thread. All changes to the picture
+ * codes, the picture position and the screens are made on that thread, including
+ * the mouse handling, Ego test mode and the screen repaints, and so none of it
+ * needs locking. The other threads are the PictureCacheRebuilder's and the 
+ * PictureRedrawer's, which work on their own copies of the picture codes and only
+ * share the PictureCache, which is synchronized.
+ * 
+ * When background redraws are enabled, drawing the picture further than a few 
+ * actions is left to the PictureRedrawer. The screens keep the last complete frame
+ * until the redrawn one is swapped in on the event dispatch thread.
+ * 
  * @author Lance Ewing
  */
 public class Picture {
 
     /**
-     * Holds the RGB values for the 16 EGA colours.
+     * The number of picture actions that is too many to draw on the event dispatch thread.
      */
-    private final static int[] colours = EgaPalette.colours;
-
+    private static final int BACKGROUND_REDRAW_ACTIONS = 32;
+    
     /**
      * Holds the current position within the picture code buffer.
      */
     private int picturePosition;
     
     /**
-     * Holds the linked list of picture codes for this picture.
+     * Holds the picture code buffer for this picture.
+     */
+    private PictureCodeBuffer pictureCodes;
+    
+    /**
+     * Renders the picture codes in to the screens.
      */
-    private LinkedList<PictureCode> pictureCodes;
+    private PictureRenderer renderer;
     
     /**
      * Holds the pixel data for the visual screen of the picture.
      */
-    private int visualScreen[];
+    private byte visualScreen[];
 
     /**
      * Holds the pixel data for the priority screen of the picture.
      */
-    private int priorityScreen[];
+    private byte priorityScreen[];
 
     /**
      * Holds the pixel data for the control screen of the picture.
      */
-    private int controlScreen[];
+    private byte controlScreen[];
+
+    /**
+     * Holds the effective priority and control line planes derived from the priority screen.
+     */
+    private PriorityPlanes priorityPlanes;
+    
+    /**
+     * The region of the picture that has changed since the GUI last took the changes.
+     */
+    private DirtyRegion changedRegion;
 
     /**
      * The Image for the visual screen.
@@ -88,6 +113,42 @@ public class Picture {
      */
     private PictureCache pictureCache;
     
+    /**
+     * Rebuilds the picture cache entries that have been invalidated by inserts.
+     */
+    private PictureCacheRebuilder pictureCacheRebuilder;
+    
+    /**
+     * Draws the picture in the background when it is too far to draw straight away.
+     */
+    private PictureRedrawer pictureRedrawer;
+    
+    /**
+     * Says whether drawing the picture a long way is done in the background.
+     */
+    private boolean backgroundRedrawEnabled;
+    
+    /**
+     * Says whether the screens are waiting for a background redraw to finish.
+     */
+    private boolean isRedrawPending;
+    
+    /**
+     * Holds the pixels that each picture action changed, for stepping back and forth.
+     */
+    private PictureDeltaLog deltaLog;
+    
+    /**
+     * The picture position that the screens are currently drawn up to, or -1 if 
+     * they have been changed in some other way since they were drawn.
+     */
+    private int drawnPosition;
+    
+    /**
+     * Holds the region drawn by the earlier actions while drawPicture records each action.
+     */
+    private DirtyRegion drawnRegion;
+    
     /**
      * List of registered PictureChangeListeners.
      */
@@ -119,20 +180,37 @@ public class Picture {
      * @param editStatus the EditStatus containing current editing status.
      */
     public Picture(EditStatus editStatus) {
+        this(editStatus, PictureCache.DEFAULT_MAXIMUM_SIZE);
+    }
+    
+    /**
+     * Constructor for Picture.
+     * 
+     * @param editStatus the EditStatus containing current editing status.
+     * @param maximumCacheSize The maximum size in bytes of the picture cache.
+     */
+    public Picture(EditStatus editStatus, long maximumCacheSize) {
         PictureType pictureType = editStatus.getPictureType();
 
-        this.visualScreen = new int[pictureType.getNumberOfPixels()];
+        this.renderer = new PictureRenderer(pictureType);
+        this.visualScreen = renderer.getVisualScreen();
         this.visualImage = createScreenImage(pictureType.getWidth(), pictureType.getHeight(), visualScreen);
-        this.priorityScreen = new int[pictureType.getNumberOfPixels()];
+        this.priorityScreen = renderer.getPriorityScreen();
         this.priorityImage = createScreenImage(pictureType.getWidth(), pictureType.getHeight(), priorityScreen);
+        this.priorityPlanes = new PriorityPlanes(pictureType.getWidth(), pictureType.getHeight());
+        this.changedRegion = new DirtyRegion(pictureType.getWidth(), pictureType.getHeight());
 
         if (pictureType.equals(PictureType.SCI0)) {
-            this.controlScreen = new int[pictureType.getNumberOfPixels()];
+            this.controlScreen = renderer.getControlScreen();
             this.controlImage = createScreenImage(pictureType.getWidth(), pictureType.getHeight(), controlScreen);
         }
 
         this.editStatus = editStatus;
-        this.pictureCache = new PictureCache(editStatus);
+        this.pictureCache = new PictureCache(maximumCacheSize);
+        this.pictureCacheRebuilder = new PictureCacheRebuilder(pictureCache, pictureType);
+        this.pictureRedrawer = new PictureRedrawer(pictureCache, pictureType);
+        this.deltaLog = new PictureDeltaLog(pictureType, PictureDeltaLog.DEFAULT_MAXIMUM_SIZE);
+        this.drawnRegion = new DirtyRegion(pictureType.getWidth(), pictureType.getHeight());
         this.pictureChangeListeners = new ArrayList<PictureChangeListener>();
         
         clearPicture();
@@ -177,6 +255,15 @@ public class Picture {
         }
     }
     
+    /**
+     * Fires a picture redrawn event to all PictureChangeListeners.
+     */
+    public void firePictureRedrawn() {
+        for (PictureChangeListener listener : pictureChangeListeners) {
+            listener.pictureRedrawn();
+        }
+    }
+    
     /**
      * Fires a selection interval collapsed event to all PictureChangeListeners.
      */
@@ -192,16 +279,14 @@ public class Picture {
      * 
      * @param width the width of the Image to create.
      * @param height the height of the Image to create.
-     * @param screenDataArray the int array that will hold the pixel data for this Image.
+     * @param screenDataArray the byte array of palette indexes that will hold the pixel data for this Image.
      * 
      * @return the created Image.
      */
-    public Image createScreenImage(int width, int height, int[] screenDataArray) {
-        DataBufferInt dataBuffer = new DataBufferInt(screenDataArray, screenDataArray.length);
-        ColorModel colorModel = ColorModel.getRGBdefault();
-        int[] bandMasks = new int[] { 0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000 };
-        WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width, bandMasks, null);
-        return new BufferedImage(colorModel, raster, false, null);
+    public Image createScreenImage(int width, int height, byte[] screenDataArray) {
+        DataBufferByte dataBuffer = new DataBufferByte(screenDataArray, screenDataArray.length);
+        WritableRaster raster = Raster.createInterleavedRaster(dataBuffer, width, height, width, 1, new int[] { 0 }, null);
+        return new BufferedImage(EgaPalette.COLOR_MODEL, raster, false, null);
     }
 
     /**
@@ -219,18 +304,28 @@ public class Picture {
      * Clears the visual, priority (and control) screens.
      */
     public void clearPictureScreens() {
-        Arrays.fill(visualScreen, EgaPalette.transparent);
-        Arrays.fill(priorityScreen, EgaPalette.transparent);
-        if (editStatus.getPictureType().equals(PictureType.SCI0)) {
-            Arrays.fill(controlScreen, EgaPalette.transparent);
-        }
+        pictureRedrawer.cancel();
+        isRedrawPending = false;
+        renderer.clearScreens();
+        drawnPosition = -1;
     }
     
     /**
-     * Clears the picture cache.
+     * Clears the picture cache, along with the log of what each picture action changed.
      */
     public void clearPictureCache() {
+        this.pictureCacheRebuilder.cancel();
         this.pictureCache.clear();
+        this.deltaLog.clear();
+    }
+    
+    /**
+     * Gets the picture cache for this picture.
+     * 
+     * @return The picture cache for this picture.
+     */
+    public PictureCache getPictureCache() {
+        return pictureCache;
     }
     
     /**
@@ -241,8 +336,12 @@ public class Picture {
             firePictureCodesRemoved(0, pictureCodes.size() - 1);
         }
         picturePosition = 0;
-        pictureCodes = new LinkedList<PictureCode>();
-        pictureCodes.add(new PictureCode(PictureCodeType.END));
+        if (pictureCodes == null) {
+            pictureCodes = new PictureCodeBuffer();
+        } else {
+            pictureCodes.clear();
+        }
+        pictureCodes.add(PictureCodeType.END);
     }
     
     /**
@@ -278,7 +377,7 @@ public class Picture {
      * @param type The type of PictureCode.
      */
     public void addPictureCode(PictureCodeType type) {
-        addPictureCode(type, type.getActionCode(), null);
+        addPictureCode(type, type.getActionCode());
     }
     
     /**
@@ -288,7 +387,7 @@ public class Picture {
      * @param y The y position of the point.
      */
     public void addPictureCode(int x, int y) {
-        addPictureCode(PictureCodeType.ABSOLUTE_POINT_DATA, ((x << 8) | y), new Point(x, y));
+        addPictureCode(PictureCodeType.ABSOLUTE_POINT_DATA, ((x << 8) | y));
     }
     
     /**
@@ -299,7 +398,7 @@ public class Picture {
      * @param y The y position of the point.
      */
     public void addPictureCode(PictureCodeType pointType, int x, int y) {
-        addPictureCode(pointType, ((x << 8) | y), new Point(x, y));
+        addPictureCode(pointType, ((x << 8) | y));
     }
     
     /**
@@ -309,21 +408,44 @@ public class Picture {
      * @param code The code to add to the picture code buffer.
      */
     public void addPictureCode(PictureCodeType type, int code) {
-        addPictureCode(type, code, null);
+        pictureCodes.add(picturePosition, type, code);
+        pictureCodesInserted(1);
     }
     
     /**
-     * Adds a code to the picture code buffer.
+     * Adds all of the given picture codes to the picture code buffer at the current
+     * picture position in one go. Listeners get a single event for the whole 
+     * range and the picture cache is only invalidated once.
      * 
-     * @param type The type of PictureCode.
-     * @param code The code to add to the picture code buffer.
-     * @param point Optional Point specifying absolute location that the picture code relates to.
+     * @param newPictureCodes The picture codes to add.
      */
-    public void addPictureCode(PictureCodeType type, int code, Point point) {
-        pictureCache.clear(picturePosition);
-        pictureCodes.add(picturePosition, new PictureCode(type, code, point));
-        firePictureCodesAdded(picturePosition, picturePosition);
-        picturePosition = picturePosition + 1;
+    public void addPictureCodes(PictureCodeBuffer newPictureCodes) {
+        if (newPictureCodes.size() > 0) {
+            pictureCodes.addAll(picturePosition, newPictureCodes);
+            pictureCodesInserted(newPictureCodes.size());
+        }
+    }
+    
+    /**
+     * Updates the picture cache, listeners, picture position and unsaved changes 
+     * flag after picture codes have been inserted at the current picture position.
+     * 
+     * @param numberOfCodes The number of picture codes that were inserted.
+     */
+    private void pictureCodesInserted(int numberOfCodes) {
+        finishRedraw();
+        
+        // The cache entry at the insert position is still valid if it is an action 
+        // code being inserted, but if it's a data code then the action that the 
+        // code belongs to will draw differently. Entries after that are rebuilt.
+        int firstInvalidPosition = (pictureCodes.isActionCode(picturePosition)? picturePosition + 1 : picturePosition);
+        pictureCache.invalidate(firstInvalidPosition, numberOfCodes);
+        deltaLog.clear(firstInvalidPosition);
+        drawnPosition = -1;
+        pictureCacheRebuilder.schedule(pictureCodes, editStatus.getFillType());
+        
+        firePictureCodesAdded(picturePosition, picturePosition + numberOfCodes - 1);
+        picturePosition = picturePosition + numberOfCodes;
         editStatus.setUnsavedChanges(true);
     }
 
@@ -375,8 +497,10 @@ public class Picture {
      */
     public void processVisualColourChange(int newVisualColour) {
         editStatus.setVisualColour(newVisualColour);
-        this.addPictureCode(PictureCodeType.SET_VISUAL_COLOR);
-        this.addPictureCode(PictureCodeType.COLOR_DATA, newVisualColour);
+        PictureCodeBuffer newPictureCodes = new PictureCodeBuffer(2);
+        newPictureCodes.add(PictureCodeType.SET_VISUAL_COLOR);
+        newPictureCodes.add(PictureCodeType.COLOR_DATA, newVisualColour);
+        this.addPictureCodes(newPictureCodes);
     }
     
     /**
@@ -394,8 +518,10 @@ public class Picture {
      */
     public void processPriorityColourChange(int newPriorityColour) {
         editStatus.setPriorityColour(newPriorityColour);
-        this.addPictureCode(PictureCodeType.SET_PRIORITY_COLOR);
-        this.addPictureCode(PictureCodeType.COLOR_DATA, newPriorityColour);
+        PictureCodeBuffer newPictureCodes = new PictureCodeBuffer(2);
+        newPictureCodes.add(PictureCodeType.SET_PRIORITY_COLOR);
+        newPictureCodes.add(PictureCodeType.COLOR_DATA, newPriorityColour);
+        this.addPictureCodes(newPictureCodes);
     }
     
     /**
@@ -411,7 +537,7 @@ public class Picture {
      * 
      * @return The picture code buffer.
      */
-    public LinkedList<PictureCode> getPictureCodes() {
+    public PictureCodeBuffer getPictureCodes() {
         return pictureCodes;
     }
     
@@ -421,7 +547,7 @@ public class Picture {
      * @return The PictureCode at the current picture position.
      */
     public PictureCode getCurrentPictureCode() {
-        return pictureCodes.get(picturePosition);
+        return pictureCodes.getPictureCode(picturePosition);
     }
     
     
@@ -436,22 +562,16 @@ public class Picture {
       if (pictureCodes.size() == 1) {
           return null;
       }
-      int position = picturePosition;
-      while ((position > 0) && !pictureCodes.get(position).isActionCode()) {
-          position--;
-      }
-      return pictureCodes.get(position);
+      int position = Math.max(pictureCodes.getActionStart(picturePosition), 0);
+      return pictureCodes.getPictureCode(position);
     }
 
     public PictureCode getNextPictureAction() {
         PictureCode pictureCode = null;
         if (picturePosition < pictureCodes.size() - 1) {
-            int position = picturePosition + 1;
-            while ((position < pictureCodes.size()) && !pictureCodes.get(position).isActionCode()) {
-                position++;
-            }
-            if (position < pictureCodes.size()) {
-                pictureCode = pictureCodes.get(position);
+            int position = pictureCodes.getNextActionIndex(picturePosition);
+            if (position != -1) {
+                pictureCode = pictureCodes.getPictureCode(position);
             }
         }
         return pictureCode;
@@ -463,7 +583,7 @@ public class Picture {
             picturePosition = pictureCodes.size() - 1;
             return null;
         } else {
-            return pictureCodes.get(picturePosition);
+            return pictureCodes.getPictureCode(picturePosition);
         }
     }
 
@@ -472,7 +592,7 @@ public class Picture {
         if (picturePosition < 0) {
             picturePosition = 0;
         }
-        return pictureCodes.get(picturePosition);
+        return pictureCodes.getPictureCode(picturePosition);
     }
 
     public PictureCode deleteAtPicturePosition() {
@@ -481,7 +601,7 @@ public class Picture {
             pictureCodes.remove(picturePosition);
             firePictureCodesRemoved(picturePosition, picturePosition);
             if (picturePosition < (pictureCodes.size() - 1)) {
-                pictureCode = pictureCodes.get(picturePosition);
+                pictureCode = pictureCodes.getPictureCode(picturePosition);
             }
             editStatus.setUnsavedChanges(true);
         }
@@ -498,19 +618,39 @@ public class Picture {
      * @param toPosition The picture position to delete picture codes to.
      */
     public void deletePictureCodes(int fromPosition, int toPosition) {
-        int numOfCodesToRemove = (toPosition - fromPosition) + 1;
-        for (int count = 0; count < numOfCodesToRemove; count++) {
-            if (!getCurrentPictureCode().isEndCode()) {
-                pictureCodes.remove(fromPosition);
-                firePictureCodesRemoved(fromPosition, fromPosition);
-            }
+        // The end of picture code is never removed.
+        toPosition = Math.min(toPosition, pictureCodes.size() - 2);
+        if (fromPosition > toPosition) {
+            return;
         }
         
         // TODO: Detect when the starting point has been removed for a relative or step line action and convert the next point in to an absolute starting point.
         
+        removePictureCodes(fromPosition, toPosition);
+    }
+    
+    /**
+     * Removes the given range of picture codes in one go, firing a single event for
+     * the whole range, and then redraws the picture once.
+     * 
+     * @param fromPosition The picture position of the first picture code to remove.
+     * @param toPosition The picture position of the last picture code to remove.
+     */
+    private void removePictureCodes(int fromPosition, int toPosition) {
+        pictureCodes.remove(fromPosition, toPosition);
+        firePictureCodesRemoved(fromPosition, toPosition);
+        if (picturePosition > toPosition) {
+            picturePosition -= (toPosition - fromPosition) + 1;
+        } else if (picturePosition >= fromPosition) {
+            picturePosition = fromPosition;
+        }
+        
         editStatus.setUnsavedChanges(true);
         pictureCache.clear(fromPosition);
+        deltaLog.clear(fromPosition);
+        drawnPosition = -1;
         drawPicture();
+        pictureCacheRebuilder.schedulePrewarm(pictureCodes, editStatus.getFillType(), fromPosition);
     }
     
     /**
@@ -527,12 +667,8 @@ public class Picture {
      * picture code JList.
      */
     public void moveBackOnePictureAction() {
-        // Move back through the codes until we find an Action code.
-        PictureCode pictureCode = null;
-        picturePosition = firstSelectedPosition;
-        do {
-            pictureCode = decrementPicturePosition();
-        } while ((pictureCode != null) && !pictureCode.isActionCode() && (picturePosition > 0));
+        // Move back to the previous Action code, or the start if there isn't one.
+        picturePosition = Math.max(pictureCodes.getPreviousActionIndex(firstSelectedPosition), 0);
         drawPicture();
     }
 
@@ -553,10 +689,9 @@ public class Picture {
      */
     public void moveForwardOnePictureAction() {
         if (picturePosition < (pictureCodes.size() - 1)) {
-            PictureCode pictureCode = null;
-            do {
-                pictureCode = incrementPicturePosition();
-            } while ((pictureCode != null) && !pictureCode.isActionCode());
+            // Move forward to the next Action code, or the end if there isn't one.
+            int nextActionPosition = pictureCodes.getNextActionIndex(picturePosition);
+            picturePosition = (nextActionPosition == -1? pictureCodes.size() - 1 : nextActionPosition);
 
             drawPicture();
         }
@@ -604,12 +739,24 @@ public class Picture {
      * action at the current picture position.
      */
     public void deleteCurrentPictureAction() {
-        PictureCode pictureCode = deleteAtPicturePosition();
-        while ((pictureCode != null) && (pictureCode.isDataCode())) {
-            pictureCode = deleteAtPicturePosition();
+        if (picturePosition < (pictureCodes.size() - 1)) {
+            // The action is the code at the current position plus the data codes that follow it.
+            int toPosition = getActionEnd(picturePosition);
+            removePictureCodes(picturePosition, toPosition);
         }
-        pictureCache.clear(picturePosition);
-        drawPicture();
+    }
+
+    /**
+     * Gets the position of the last data code of the picture action that starts at
+     * the given position, i.e. the position before the next action or the end code.
+     * 
+     * @param actionPosition The position of the action code.
+     * 
+     * @return The position of the last code of the picture action.
+     */
+    public int getActionEnd(int actionPosition) {
+        int nextActionPosition = pictureCodes.getNextActionIndex(actionPosition);
+        return (nextActionPosition == -1? pictureCodes.size() - 1 : nextActionPosition) - 1;
     }
 
     /**
@@ -631,11 +778,20 @@ public class Picture {
     }
     
     /**
-     * Gets the raw RGB byte array for the priority screen.
+     * Gets the raw palette index byte array for the visual screen.
+     * 
+     * @return The raw palette index byte array for the visual screen.
+     */
+    public byte[] getVisualScreen() {
+        return visualScreen;
+    }
+    
+    /**
+     * Gets the raw palette index byte array for the priority screen.
      * 
-     * @return The raw RGB byte array for the priority screen.
+     * @return The raw palette index byte array for the priority screen.
      */
-    public int[] getPriorityScreen() {
+    public byte[] getPriorityScreen() {
         return priorityScreen;
     }
     
@@ -654,8 +810,6 @@ public class Picture {
      * @param pictureFile the File to load the AGI picture from.
      */
     public void loadPicture(File pictureFile) {
-        BufferedInputStream in = null;
-        
         try {
             // This stops the change listening from firing. We'll call that at the end of the method instead.
             isLoading = true;
@@ -667,169 +821,24 @@ public class Picture {
             // Store file name for display on title bar.
             editStatus.setPictureFile(pictureFile);
             
-            // Open the file for reading.
-            in = new BufferedInputStream(new FileInputStream(pictureFile));
-            
-            // Read the file in to an int array to make it easy to convert to PictureCodes.
-            int[] rawPictureCodes = new int[(int)pictureFile.length() + 1];
-            int rawPictureCodesIndex = 0;
-            while ((rawPictureCodes[rawPictureCodesIndex++] = in.read()) != -1) {}
-
-            // Process the raw int array to create a PictureCodes LinkedList.
-            int pictureCode, index = 0, x, y, brushCode = 0;
-            while ((pictureCode = rawPictureCodes[index++]) != -1) {
-                if (pictureCode != 0xFF) {
-                    switch (pictureCode) {
-                        case 0xF0:
-                            addPictureCode(PictureCodeType.SET_VISUAL_COLOR);
-                            addPictureCode(PictureCodeType.COLOR_DATA, rawPictureCodes[index++]);
-                            break;
-                            
-                        case 0xF1:
-                            addPictureCode(PictureCodeType.SET_VISUAL_COLOR_OFF);
-                            break;
-                            
-                        case 0xF2:
-                            addPictureCode(PictureCodeType.SET_PRIORITY_COLOR);
-                            addPictureCode(PictureCodeType.COLOR_DATA, rawPictureCodes[index++]);
-                            break;
-                            
-                        case 0xF3:
-                            addPictureCode(PictureCodeType.SET_PRIORITY_COLOR_OFF);
-                            break;
-                            
-                        case 0xF4:
-                            addPictureCode(PictureCodeType.DRAW_VERTICAL_STEP_LINE);
-                            x = pictureCode = rawPictureCodes[index++];
-                            y = pictureCode = rawPictureCodes[index++];
-                            addPictureCode(x, y);
-                            while (true) {
-                                if ((y = rawPictureCodes[index++]) >= 0xF0) {
-                                    break;
-                                }
-                                addPictureCode(PictureCodeType.Y_POSITION_DATA, y, new Point(x, y));
-                                if ((x = rawPictureCodes[index++]) >= 0xF0) {
-                                    break;
-                                }
-                                addPictureCode(PictureCodeType.X_POSITION_DATA, x, new Point(x, y));
-                            }
-                            index--;
-                            break;
-                            
-                        case 0xF5:
-                            addPictureCode(PictureCodeType.DRAW_HORIZONTAL_STEP_LINE);
-                            x = pictureCode = rawPictureCodes[index++];
-                            y = pictureCode = rawPictureCodes[index++];
-                            addPictureCode(x, y);
-                            while (true) {
-                                if ((x = rawPictureCodes[index++]) >= 0xF0) {
-                                    break;
-                                }
-                                addPictureCode(PictureCodeType.X_POSITION_DATA, x, new Point(x, y));
-                                if ((y = rawPictureCodes[index++]) >= 0xF0) {
-                                    break;
-                                }
-                                addPictureCode(PictureCodeType.Y_POSITION_DATA, y, new Point(x, y));
-                            }
-                            index--;
-                            break;
-                            
-                        case 0xF6:
-                            addPictureCode(PictureCodeType.DRAW_LINE);
-                            while (true) {
-                                if ((x = rawPictureCodes[index++]) >= 0xF0) {
-                                    break;
-                                }
-                                if ((y = rawPictureCodes[index++]) >= 0xF0) {
-                                    break;
-                                }
-                                addPictureCode(x, y);
-                            }
-                            index--;
-                            break;
-                            
-                        case 0xF7:
-                            addPictureCode(PictureCodeType.DRAW_SHORT_LINE);
-                            x = pictureCode = rawPictureCodes[index++];
-                            y = pictureCode = rawPictureCodes[index++];
-                            addPictureCode(x, y);
-                            while ((pictureCode = rawPictureCodes[index++]) < 0xF0) {
-                                int dx = ((pictureCode & 0xF0) >> 4) & 0x0F;
-                                int dy = (pictureCode & 0x0F);
-                                if ((dx & 0x08) > 0) {
-                                    dx = (-1) * (dx & 0x07);
-                                }
-                                if ((dy & 0x08) > 0) {
-                                    dy = (-1) * (dy & 0x07);
-                                }
-                                x = x + dx;
-                                y = y + dy;
-                                addPictureCode(PictureCodeType.RELATIVE_POINT_DATA, pictureCode, new Point(x, y));
-                            }
-                            index--;
-                            break;
-                            
-                        case 0xF8:
-                            addPictureCode(PictureCodeType.DRAW_FILL);
-                            while (true) {
-                                if ((x = rawPictureCodes[index++]) >= 0xF0) {
-                                    break;
-                                }
-                                if ((y = rawPictureCodes[index++]) >= 0xF0) {
-                                    break;
-                                }
-                                addPictureCode(PictureCodeType.FILL_POINT_DATA, x, y);
-                            }
-                            index--;
-                            break;
-                            
-                        case 0xF9:
-                            addPictureCode(PictureCodeType.SET_BRUSH_TYPE);
-                            brushCode = rawPictureCodes[index++];
-                            addPictureCode(PictureCodeType.BRUSH_TYPE_DATA, brushCode);
-                            break;
-                            
-                        case 0xFA:
-                            addPictureCode(PictureCodeType.DRAW_BRUSH_POINT);
-                            while (true) {
-                                if ((brushCode & 0x20) > 0) {
-                                    if ((pictureCode = rawPictureCodes[index++]) >= 0xF0) {
-                                        break;
-                                    }
-                                    addPictureCode(PictureCodeType.BRUSH_PATTERN_DATA, pictureCode);
-                                }
-                                if ((x = rawPictureCodes[index++]) >= 0xF0) {
-                                    break;
-                                }
-                                if ((y = rawPictureCodes[index++]) >= 0xF0) {
-                                    break;
-                                }
-                                addPictureCode(PictureCodeType.BRUSH_POINT_DATA, x, y);
-                            }
-                            index--;
-                            break;
-                            
-                        case 0xFF:
-                            // End of the picture.
-                            break;
-                            
-                        default:
-                            // An attempt to load a picture that is corrupt.
-                            System.out.printf("Unknown picture code : %X, picturePosition: %d\n", pictureCode, pictureCodes.size());
-                            System.exit(0);
-                            break;
-                    }
-                    
-                } else {
-                    // 0xFF is the end of an AGI picture.
-                    break;
-                }
-            }
+            // Read the whole file in one go and then decode it straight in to the picture code buffer.
+            byte[] pictureData = readPictureData(pictureFile);
+            pictureCodes.clear();
+            readPictureCodes(pictureData, pictureCodes);
+            picturePosition = pictureCodes.size() - 1;
             
-            this.drawPicture();
+            // Draw the whole picture without adding cache entries along the way, since 
+            // packing the entries takes far longer than the drawing itself. The cache 
+            // is filled in by the pre-warm below instead.
+            renderer.setFillType(editStatus.getFillType());
+            renderer.render(pictureCodes);
+            updateEditStatus();
             editStatus.setTool(ToolType.NONE);
             editStatus.setUnsavedChanges(false);
             
+            // Fill the picture cache in the background so that navigation is quick from the start.
+            pictureCacheRebuilder.schedulePrewarm(pictureCodes, editStatus.getFillType(), 0);
+            
             // Now that we've finished loading, trigger an event for the whole Picture.
             isLoading = false;
             firePictureCodesAdded(0, pictureCodes.size());
@@ -840,17 +849,50 @@ public class Picture {
         } catch (IOException ioe) {
             System.out.printf("Error loading picture : %s.\n", pictureFile.getPath());
             System.exit(1);
-        } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (Exception e) {
-                    // Not worried about file close errors.
-                }
-            }
         }
     }
 
+    /**
+     * Reads the whole of the given AGI picture file in to a byte array. This uses
+     * a FileChannel to read straight in to the array rather than going through 
+     * a buffered stream.
+     * 
+     * @param pictureFile The AGI picture file to read.
+     * 
+     * @return The raw picture data.
+     * 
+     * @throws IOException If the file could not be read.
+     */
+    public static byte[] readPictureData(File pictureFile) throws IOException {
+        FileInputStream in = new FileInputStream(pictureFile);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+            while (buffer.hasRemaining() && (channel.read(buffer) != -1)) {
+            }
+            return buffer.array();
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Reads the given AGI picture data in to the given picture code buffer. The 
+     * picture codes are added to the end of the buffer, finishing with the end of
+     * picture code. The action codes are read by the handlers in the buffer's
+     * PictureCodeRegistry. This does not depend on a Picture instance and so can
+     * be used to read pictures outside of the GUI.
+     * 
+     * @param pictureData The raw AGI picture data.
+     * @param pictureCodes The picture code buffer to add the picture codes to.
+     */
+    public static void readPictureCodes(byte[] pictureData, PictureCodeBuffer pictureCodes) {
+        // There is never more than one picture code per byte, plus the end code.
+        pictureCodes.ensureCapacity(pictureCodes.size() + pictureData.length + 1);
+        
+        new PictureCodeReader(pictureData, pictureCodes).read();
+    }
+    
     /**
      * Saves the AGI picture to the given File.
      * 
@@ -867,15 +909,16 @@ public class Picture {
             out = new BufferedOutputStream(new FileOutputStream(pictureFile));
 
             // Write each of the picture codes out to the file.
-            for (PictureCode pictureCode : this.getPictureCodes()) {
-                if (pictureCode.isAbsolutePoint()) {
-                    int code = pictureCode.getCode();
+            PictureCodeBuffer pictureCodes = this.getPictureCodes();
+            for (int index = 0; index < pictureCodes.size(); index++) {
+                int code = pictureCodes.getCode(index);
+                if (pictureCodes.isAbsolutePoint(index)) {
                     int x = (code & 0xFF00) >> 8;
                     int y = (code & 0x00FF);
                     out.write(x);
                     out.write(y);
                 } else {
-                    out.write(pictureCode.getCode());
+                    out.write(code);
                 }
             }
             
@@ -899,907 +942,351 @@ public class Picture {
     }
     
     /**
-     * Draws the picture from the beginning up to the current picture position.
+     * Draws the picture from the beginning up to the current picture position. If the
+     * screens are currently drawn at the position either side of a single picture 
+     * action that has been logged then that action's changes are simply applied or 
+     * reverted. Otherwise the drawing carries on from either the screens as they are 
+     * or the closest PictureCache entry, whichever is closer, and the changes made 
+     * by each action drawn along the way are logged.
      */
     public void drawPicture() {
+        drawPicture(backgroundRedrawEnabled);
+    }
+    
+    /**
+     * Draws the picture up to the current picture position, as described above.
+     * 
+     * @param isBackgroundAllowed true if a long redraw can be done in the background; otherwise false.
+     */
+    private void drawPicture(boolean isBackgroundAllowed) {
     	int action = 0;
         int index = 0;
 
         // Tells other parts of the application that want to ask that we're drawing the picture now.
         isDrawing = true;
         
-        PictureCacheEntry cacheEntry = this.pictureCache.getCacheEntry(picturePosition);
-        if (cacheEntry != null) {
-        	// Copy the cached screen arrays into the main picture images.
-        	System.arraycopy(cacheEntry.getVisualScreen(), 0, visualScreen, 0, visualScreen.length);
-        	System.arraycopy(cacheEntry.getPriorityScreen(), 0, priorityScreen, 0, priorityScreen.length);
-        	if (editStatus.getPictureType().equals(PictureType.SCI0)) {
-    	    	System.arraycopy(cacheEntry.getControlScreen(), 0, controlScreen, 0, controlScreen.length);
-        	}
-        	
-        	// Skip straight to the cached position.
-        	index = cacheEntry.getPicturePosition();
-        	
-        	// Restore the settings from the EditStatus that apply to the cached position.
-        	editStatus.setBrushShape(cacheEntry.getBrushShape());
-        	editStatus.setBrushSize(cacheEntry.getBrushSize());
-        	editStatus.setBrushTexture(cacheEntry.getBrushTexture());
-        	editStatus.setControlColour(cacheEntry.getControlColour());
-        	editStatus.setPriorityColour(cacheEntry.getPriorityColour());
-        	editStatus.setTool(cacheEntry.getTool());
-        	editStatus.setVisualColour(cacheEntry.getVisualColour());
-        	
+        // The fill type is a display option rather than part of the picture.
+        renderer.setFillType(editStatus.getFillType());
+        
+        // A frame that is still being redrawn in the background is no longer wanted.
+        if (isRedrawPending) {
+            pictureRedrawer.cancel();
+            isRedrawPending = false;
+        }
+        
+        PictureCacheEntry cacheEntry = null;
+        if (applyLoggedDelta()) {
+            // The screens are already at the picture position.
+            index = picturePosition;
+            
         } else {
-	        // Clear the picture bitmaps to the original colours.
-	        clearPictureScreens();
-	       
-	        // When drawing from the start, we need to clear everything except for the data.
-	        editStatus.clear(false);
+            cacheEntry = this.pictureCache.getCacheEntry(picturePosition);
+            boolean isFromDrawnPosition = isDrawnUpTo(cacheEntry);
+            index = (isFromDrawnPosition? drawnPosition : (cacheEntry != null? cacheEntry.getPicturePosition() : 0));
+            if (!isFromDrawnPosition && (cacheEntry == null)) {
+                // When drawing from the start, we need to clear everything except for the data.
+                editStatus.clear(false);
+            }
+            
+            if (isBackgroundAllowed && isLongRedraw(index)) {
+                // Leave the screens as they are until the redrawn frame is swapped in.
+                redrawInBackground(isFromDrawnPosition? pictureCache.addCacheEntry(drawnPosition, renderer) : cacheEntry);
+                isDrawing = false;
+                return;
+            }
+            
+            if (isFromDrawnPosition) {
+                // Carry on drawing from where the screens are already drawn up to.
+                
+            } else if (cacheEntry != null) {
+            	// Copy the cached screen data and render state into the renderer.
+            	cacheEntry.restore(renderer);
+            	
+            } else {
+    	        // Clear the picture bitmaps to the original colours.
+    	        renderer.clear();
+            }
         }
 
         if ((picturePosition > 0) && (index < picturePosition)) {
+            DirtyRegion rendererRegion = renderer.getDirtyRegion();
+            deltaLog.start(renderer);
             do {
-                boolean isCacheable = true;
+                // Keep what has been drawn so far to one side so that the renderer's region is just this action.
+                rendererRegion.moveTo(drawnRegion);
                 
-                // Get the next picture action.
-                PictureCode pictureCode = pictureCodes.get(index++);
-                action = pictureCode.getCode();
+                // Draw the next picture action.
+                int actionPosition = index;
+                action = pictureCodes.getCode(index);
+                index = renderer.drawAction(pictureCodes, index, picturePosition);
                 
-                // Process the actions data.
-                switch (action) {
-                    case 0xF0:
-                        editStatus.setVisualColour(pictureCodes.get(index++).getCode());
-                        isCacheable = false;
-                        break;
-                    case 0xF1:
-                        editStatus.setVisualColour(EditStatus.VISUAL_OFF);
-                        isCacheable = false;
-                        break;
-                    case 0xF2:
-                        editStatus.setPriorityColour(pictureCodes.get(index++).getCode());
-                        isCacheable = false;
-                        break;
-                    case 0xF3:
-                        editStatus.setPriorityColour(EditStatus.PRIORITY_OFF);
-                        isCacheable = false;
-                        break;
-                    case 0xF4:
-                        editStatus.setTool(ToolType.STEPLINE);
-                        index = drawPictureYCorner(pictureCodes, index);
-                        break;
-                    case 0xF5:
-                        editStatus.setTool(ToolType.STEPLINE);
-                        index = drawPictureXCorner(pictureCodes, index);
-                        break;
-                    case 0xF6:
-                        editStatus.setTool(ToolType.LINE);
-                        index = drawPictureAbsoluteLine(pictureCodes, index);
-                        break;
-                    case 0xF7:
-                        editStatus.setTool(ToolType.SHORTLINE);
-                        index = drawPictureRelativeDraw(pictureCodes, index);
-                        break;
-                    case 0xF8:
-                        editStatus.setTool(ToolType.FILL);
-                        index = drawPictureFill(pictureCodes, index);
-                        break;
-                    case 0xF9:
-                        editStatus.setBrushCode(pictureCodes.get(index++).getCode());
-                        isCacheable = false;
-                        break;
-                    case 0xFA:
-                        editStatus.setTool(ToolType.BRUSH);
-                        index = drawPicturePlotBrush(pictureCodes, index);
-                        break;
-                    case 0xFF:
-                        // End of the picture.
-                        break;
-                    default:
-                        // An attempt to load a picture that is corrupt.
-                        System.out.printf("Unknown picture code : %X, index: %d, picturePosition: %d, pictureSize: %d\n", action, index, picturePosition, pictureCodes.size());
-                        System.exit(0);
-                        break;
+                // Log the action's changes, unless it stopped part way through its data at the picture position.
+                if ((action != 0xFF) && !pictureCodes.isDataCode(index)) {
+                    deltaLog.record(actionPosition, index, renderer, rendererRegion);
                 }
                 
                 // Add the current picture state to the picture cache.
-                if (isCacheable) {
-                    // Cache only if a gap of at least 100 has been reached and the next picture code is an action code.
-                    if (((cacheEntry == null) || ((index - cacheEntry.getPicturePosition()) > 100)) && pictureCodes.get(index).isActionCode()) {
-                        cacheEntry = pictureCache.addCacheEntry(index, visualScreen, priorityScreen, controlScreen);
+                if (!PictureRenderer.isStateAction(action)) {
+                    // Snapshots share their unchanged tiles, so every action boundary can be cached.
+                    if (pictureCodes.isActionCode(index) && !pictureCache.containsEntry(index)) {
+                        pictureCache.addCacheEntry(index, renderer);
                     }
                 }
             } while ((index < picturePosition) && (action != 0xFF));
+            drawnRegion.moveTo(rendererRegion);
         }
         
-        // If the current picture position is on a data code, then clear the selected tool. We don't allow inserts within a picture action.
-        if (getCurrentPictureCode().isDataCode()) {
-            editStatus.setTool(ToolType.NONE);
-        }
+        drawnPosition = picturePosition;
+        updateEditStatus();
+        updatePriorityPlanes();
         
         // Tells other parts of the application that want to ask that we are not longer drawing the picture.
         isDrawing = false;
     }
 
     /**
-     * Returns true if the picture is currently being drawn; otherwise false.
+     * Returns true if drawing from the given picture position to the current picture
+     * position should be done in the background.
      * 
-     * @return true if the picture is currently being drawn; otherwise false.
+     * @param fromPosition The picture position that drawing would start from.
+     * 
+     * @return true if the picture should be redrawn in the background; otherwise false.
      */
-    public boolean isBeingDrawn() {
-        return isDrawing;
+    private boolean isLongRedraw(int fromPosition) {
+        return ((pictureCodes.countActions(picturePosition - 1) - pictureCodes.countActions(fromPosition - 1)) > BACKGROUND_REDRAW_ACTIONS);
     }
     
     /**
-     * Draws a yCorner (drawing action 0xF4).
+     * Starts redrawing the picture up to the current picture position in the 
+     * background. When it has finished, the redrawn frame is swapped in on the 
+     * event dispatch thread.
      * 
-     * @param picturesCodes the List of picture codes to draw Y corners from.
-     * @param index the index within the List to start processing from.
-     * 
-     * @return the index of the next picture action.
-     */
-    public int drawPictureYCorner(List<PictureCode> pictureCodes, int index) {
-        int code, x1, x2, y1, y2;
-        
-        PictureCode pictureCode = pictureCodes.get(index++);
-        code = pictureCode.getCode();
-        x1 = (code & 0xFF00) >> 8;
-        y1 = (code & 0x00FF);
-
-        // A line must always have a least one point.
-        putPixel(x1, y1);
-        
-        while (index <= picturePosition) {
-            y2 = pictureCodes.get(index++).getCode();
-            if (y2 >= 0xF0) {
-                break;
-            }
-            drawLine(x1, y1, x1, y2);
-            y1 = y2;
-            if (index > picturePosition) {
-                break;
-            }
-            x2 = pictureCodes.get(index++).getCode();
-            if (x2 >= 0xF0) {
-                break;
+     * @param startEntry The cache entry to start drawing from, or null to draw from the start.
+     */
+    private void redrawInBackground(PictureCacheEntry startEntry) {
+        isRedrawPending = true;
+        pictureRedrawer.redraw(new PictureCodeBuffer(pictureCodes), editStatus.getFillType(), startEntry, picturePosition, new Runnable() {
+            public void run() {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        swapInRedrawnFrame();
+                    }
+                });
             }
-            drawLine(x1, y1, x2, y1);
-            x1 = x2;
+        });
+    }
+    
+    /**
+     * Swaps in the frame that the background redraw has finished with, if it is 
+     * still wanted. Only the tiles that differ from the current screens are copied.
+     */
+    private void swapInRedrawnFrame() {
+        PictureCacheEntry frame = pictureRedrawer.takeRedrawnFrame();
+        if (isRedrawPending && (frame != null) && (frame.getPicturePosition() == picturePosition)) {
+            isRedrawPending = false;
+            frame.restore(renderer);
+            drawnPosition = picturePosition;
+            updateEditStatus();
+            updatePriorityPlanes();
+            firePictureRedrawn();
         }
-
-        return (index - 1);
     }
-
+    
     /**
-     * Draws an xCorner (drawing action 0xF5).
-     * 
-     * @param picturesCodes the List of picture codes to draw X corners from.
-     * @param index the index within the List to start processing from.
+     * Brings the screens up to the current picture position straight away if they 
+     * are still waiting for a background redraw, for when something is about to 
+     * draw on them or change the picture codes.
+     */
+    private void finishRedraw() {
+        swapInRedrawnFrame();
+        if (isRedrawPending) {
+            drawPicture(false);
+        }
+    }
+    
+    /**
+     * Moves the screens from the picture position that they are drawn at to the 
+     * current picture position by applying or reverting the logged delta of the
+     * picture action between the two, if there is one.
      * 
-     * @return the index of the next picture action.
+     * @return true if the screens are now drawn at the picture position; otherwise false.
      */
-    public int drawPictureXCorner(List<PictureCode> pictureCodes, int index) {
-        int code, x1, x2, y1, y2;
-
-        PictureCode pictureCode = pictureCodes.get(index++);
-        code = pictureCode.getCode();
-        x1 = (code & 0xFF00) >> 8;
-        y1 = (code & 0x00FF);
-
-        // A line must always have a least one point.
-        putPixel(x1, y1);
-        
-        while (index <= picturePosition) {
-            x2 = pictureCodes.get(index++).getCode();
-            if (x2 >= 0xF0) {
-                break;
-            }
-            drawLine(x1, y1, x2, y1);
-            x1 = x2;
-            if (index > picturePosition) {
-                break;
+    private boolean applyLoggedDelta() {
+        if ((drawnPosition < 0) || (drawnPosition == picturePosition)) {
+            return false;
+        }
+        if (drawnPosition < picturePosition) {
+            PictureDelta delta = deltaLog.getDelta(drawnPosition);
+            if ((delta != null) && (delta.getToPosition() == picturePosition)) {
+                delta.apply(renderer);
+                return true;
             }
-            y2 = pictureCodes.get(index++).getCode();
-            if (y2 >= 0xF0) {
-                break;
+        } else {
+            PictureDelta delta = deltaLog.getDelta(picturePosition);
+            if ((delta != null) && (delta.getToPosition() == drawnPosition)) {
+                delta.revert(renderer);
+                return true;
             }
-            drawLine(x1, y1, x1, y2);
-            y1 = y2;
         }
-
-        return (index - 1);
+        return false;
     }
-
+    
     /**
-     * Draws long lines to actual locations (cf. relative) (drawing action 0xF6).
+     * Returns true if the screens are drawn up to the start of an action that is
+     * before the current picture position and no further back than the given cache
+     * entry, which means that drawing can carry on from the screens as they are.
      * 
-     * @param picturesCodes the List of picture codes to draw absolute lines from.
-     * @param index the index within the List to start processing from. 
+     * @param cacheEntry The closest cache entry at or below the picture position, or null if there isn't one.
      * 
-     * @return the index of the next picture action.
+     * @return true if drawing can carry on from the drawn position; otherwise false.
      */
-    public int drawPictureAbsoluteLine(List<PictureCode> pictureCodes, int index) {
-        int code, x1, y1, x2, y2, lineCount=0;
-
-        PictureCode pictureCode = pictureCodes.get(index++);
-        code = pictureCode.getCode();
-        x1 = (code & 0xFF00) >> 8;
-        y1 = (code & 0x00FF);
-
-        // A line must always have a least one point.
-        putPixel(x1, y1);
+    private boolean isDrawnUpTo(PictureCacheEntry cacheEntry) {
+        return ((drawnPosition > 0) && (drawnPosition < picturePosition) && !pictureCodes.isDataCode(drawnPosition) &&
+                ((cacheEntry == null) || (cacheEntry.getPicturePosition() <= drawnPosition)));
+    }
+    
+    /**
+     * Updates the EditStatus to match the render state at the current picture position.
+     */
+    private void updateEditStatus() {
+        editStatus.setTool(renderer.getTool());
+        editStatus.setVisualColour(renderer.getVisualColour());
+        editStatus.setPriorityColour(renderer.getPriorityColour());
+        editStatus.setControlColour(renderer.getControlColour());
+        editStatus.setBrushCode(renderer.getBrushCode());
         
-        while (index <= picturePosition) {
-            pictureCode = pictureCodes.get(index++);
-            if (pictureCode.getType() != PictureCodeType.ABSOLUTE_POINT_DATA) {
-                break;
-            }
-            code = pictureCode.getCode();
-            x2 = (code & 0xFF00) >> 8;
-            y2 = (code & 0x00FF);
-            drawLine(x1, y1, x2, y2);
-            x1 = x2;
-            y1 = y2;
-            lineCount++;
+        // If the current picture position is on a data code, then clear the selected tool. We don't allow inserts within a picture action.
+        if (pictureCodes.isDataCode(picturePosition)) {
+            editStatus.setTool(ToolType.NONE);
         }
-
-        return (index - 1);
     }
-
+    
     /**
-     * Draws short lines relative to last position.  (drawing action 0xF7).
+     * Adds the region of the picture that has changed since the last call to the
+     * given DirtyRegion, and then starts tracking changes afresh.
      * 
-     * @param picturesCodes the List of picture codes to draw relative lines from.
-     * @param index the index within the List to start processing from. 
+     * @param dirtyRegion The DirtyRegion to add the changed region to.
+     */
+    public void takeDirtyRegion(DirtyRegion dirtyRegion) {
+        updatePriorityPlanes();
+        changedRegion.moveTo(dirtyRegion);
+    }
+    
+    /**
+     * Gets the effective priority and control line planes for the priority screen,
+     * which are used for working out whether Ego can walk somewhere and what Ego
+     * is behind. 
      * 
-     * @return the index of the next picture action.
+     * @return The PriorityPlanes for the current priority screen.
      */
-    public int drawPictureRelativeDraw(List<PictureCode> pictureCodes, int index) {
-        int x1, y1, disp;
-        int dx, dy;
-
-        PictureCode pictureCode = pictureCodes.get(index++);
-        int code = pictureCode.getCode();
-        x1 = (code & 0xFF00) >> 8;
-        y1 = (code & 0x00FF);
-
-        // A line must always have a least one point.
-        putPixel(x1, y1);
-        
-        while (index <= picturePosition) {
-            disp = pictureCodes.get(index++).getCode();
-            if (disp >= 0xF0) {
-                break;
-            }
-            dx = ((disp & 0xF0) >> 4) & 0x0F;
-            dy = (disp & 0x0F);
-            if ((dx & 0x08) > 0) {
-                dx = (-1) * (dx & 0x07);
-            }
-            if ((dy & 0x08) > 0) {
-                dy = (-1) * (dy & 0x07);
-            }
-            drawLine(x1, y1, x1 + dx, y1 + dy);
-            x1 += dx;
-            y1 += dy;
+    public PriorityPlanes getPriorityPlanes() {
+        updatePriorityPlanes();
+        return priorityPlanes;
+    }
+    
+    /**
+     * Brings the PriorityPlanes up to date with what the renderer has drawn since 
+     * the last time, and then keeps the changed region for the GUI.
+     */
+    private void updatePriorityPlanes() {
+        DirtyRegion rendererRegion = renderer.getDirtyRegion();
+        if (!rendererRegion.isEmpty()) {
+            priorityPlanes.update(priorityScreen, rendererRegion);
+            rendererRegion.moveTo(changedRegion);
         }
-
-        return (index - 1);
     }
-
+    
     /**
-     * AGI flood fill. (drawing action 0xF8).
-     * 
-     * @param picturesCodes the List of picture codes to draw fills from.
-     * @param index the index within the List to start processing from. 
+     * Returns true if the picture is currently being drawn; otherwise false.
      * 
-     * @return the index of the next picture action.
+     * @return true if the picture is currently being drawn; otherwise false.
      */
-    public int drawPictureFill(List<PictureCode> pictureCodes, int index) {
-        int code, x1, y1;
-
-        while (index <= picturePosition) {
-            PictureCode pictureCode = pictureCodes.get(index++);
-            if (pictureCode.getType() != PictureCodeType.FILL_POINT_DATA) {
-                break;
-            }
-            code = pictureCode.getCode();
-            x1 = (code & 0xFF00) >> 8;
-            y1 = (code & 0x00FF);
-            fill(x1, y1);
-        }
-
-        return (index - 1);
+    public boolean isBeingDrawn() {
+        return isDrawing;
     }
-
+    
     /**
-     * Plots points and various brush patterns. (drawing action 0xF8).
-     *
-     * @param picturesCodes the List of picture codes to plot brushes from.
-     * @param index the index within the List to start processing from. 
+     * Sets whether drawing the picture a long way is done in the background, 
+     * leaving the screens as they were until it is finished. This is for the 
+     * editor; anything that needs the screens to be drawn as soon as drawPicture
+     * returns leaves it off.
      * 
-     * @return the index of the next picture action.
+     * @param backgroundRedrawEnabled true to redraw in the background; otherwise false.
      */
-    public int drawPicturePlotBrush(List<PictureCode> pictureCodes, int index) {
-        int code, x1, y1, patNum = 0;
-
-        int patCode = editStatus.getBrushCode();
-
-        while (index <= picturePosition) {
-            if ((patCode & 0x20) > 0) {
-                if ((patNum = pictureCodes.get(index++).getCode()) >= 0xF0) {
-                    break;
-                }
-                patNum = (patNum >> 1 & 0x7f);
-            }
-            if (index > picturePosition) {
-                break;
-            }
-            PictureCode pictureCode = pictureCodes.get(index++);
-            if (pictureCode.getType() != PictureCodeType.BRUSH_POINT_DATA) {
-                break;
-            }
-            code = pictureCode.getCode();
-            x1 = (code & 0xFF00) >> 8;
-            y1 = (code & 0x00FF);
-            plotPattern(patNum, x1, y1);
+    public void setBackgroundRedrawEnabled(boolean backgroundRedrawEnabled) {
+        if (!backgroundRedrawEnabled) {
+            finishRedraw();
         }
-
-        return (index - 1);
+        this.backgroundRedrawEnabled = backgroundRedrawEnabled;
     }
-
+    
+    /**
+     * Updates the render state of the renderer to match the EditStatus, so 
+     * that the drawing methods below draw using the colours, brush and fill
+     * type that the user currently has selected.
+     */
+    private void updateRenderState() {
+        renderer.setVisualColour(editStatus.getVisualColour());
+        renderer.setPriorityColour(editStatus.getPriorityColour());
+        renderer.setControlColour(editStatus.getControlColour());
+        renderer.setBrushCode(editStatus.getBrushCode());
+        renderer.setFillType(editStatus.getFillType());
+    }
+    
     /**
-     * Draws a single pixel on the AGI picture.
+     * Draws a single pixel on the picture using the current EditStatus colours.
      * 
      * @param x The X position of the pixel.
      * @param y The Y position of the pixel.
      */
     public void putPixel(int x, int y) {
-        int index = (y << 7) + (y << 5) + x;
-        
-        if (editStatus.isVisualDrawEnabled()) {
-            visualScreen[index] = colours[editStatus.getVisualColour()];
-        }
-        if (editStatus.isPriorityDrawEnabled()) {
-            priorityScreen[index] = colours[editStatus.getPriorityColour()];
-        }
+        finishRedraw();
+        updateRenderState();
+        renderer.putPixel(x, y);
+        drawnPosition = -1;
     }
     
     /**
-     * Draw a line the most efficient way we can. Speed is preferred over
-     * removal of duplicated code.
+     * Draws a line on the picture using the current EditStatus colours.
      * 
      * @param x1 Start X Coordinate.
      * @param y1 Start Y Coordinate.
      * @param x2 End X Coordinate.
      * @param y2 End Y Coordinate.
      */
-    public final void drawLine(int x1, int y1, int x2, int y2) {
-        int x, y, index, endIndex, visualRGBCode, priorityRGBCode;
-
-        // Vertical Line.
-        if (x1 == x2) {
-            if (y1 > y2) {
-                y = y1;
-                y1 = y2;
-                y2 = y;
-            }
-
-            index = (y1 << 7) + (y1 << 5) + x1;
-            endIndex = (y2 << 7) + (y2 << 5) + x2;
-
-            if (editStatus.isVisualDrawEnabled()) {
-                if (editStatus.isPriorityDrawEnabled()) {
-                    // Vertical line on both visual and priority screens.
-                    visualRGBCode = colours[editStatus.getVisualColour()];
-                    priorityRGBCode = colours[editStatus.getPriorityColour()];
-
-                    for (; index <= endIndex; index += 160) {
-                        visualScreen[index] = visualRGBCode;
-                        priorityScreen[index] = priorityRGBCode;
-                    }
-                } else {
-                    // Vertical line on only the visual screen.
-                    visualRGBCode = colours[editStatus.getVisualColour()];
-
-                    for (; index <= endIndex; index += 160) {
-                        visualScreen[index] = visualRGBCode;
-                    }
-                }
-            } else if (editStatus.isPriorityDrawEnabled()) {
-                // Vertical line on only the priority screen.
-                priorityRGBCode = colours[editStatus.getPriorityColour()];
-
-                for (; index <= endIndex; index += 160) {
-                    priorityScreen[index] = priorityRGBCode;
-                }
-            }
-        }
-        // Horizontal Line.
-        else if (y1 == y2) {
-            if (x1 > x2) {
-                x = x1;
-                x1 = x2;
-                x2 = x;
-            }
-
-            index = (y1 << 7) + (y1 << 5) + x1;
-            endIndex = (y2 << 7) + (y2 << 5) + x2;
-
-            if (editStatus.isVisualDrawEnabled()) {
-                if (editStatus.isPriorityDrawEnabled()) {
-                    // Horizontal line on both visual and priority screens.
-                    visualRGBCode = colours[editStatus.getVisualColour()];
-                    priorityRGBCode = colours[editStatus.getPriorityColour()];
-
-                    for (; index <= endIndex; index++) {
-                        visualScreen[index] = visualRGBCode;
-                        priorityScreen[index] = priorityRGBCode;
-                    }
-                } else {
-                    // Horizontal line on only the visual screen.
-                    visualRGBCode = colours[editStatus.getVisualColour()];
-
-                    for (; index <= endIndex; index++) {
-                        visualScreen[index] = visualRGBCode;
-                    }
-                }
-            } else if (editStatus.isPriorityDrawEnabled()) {
-                // Horizontal line on only the priority screen.
-                priorityRGBCode = colours[editStatus.getPriorityColour()];
-
-                for (; index <= endIndex; index++) {
-                    priorityScreen[index] = priorityRGBCode;
-                }
-            }
-
-        } else {
-            int deltaX = x2 - x1;
-            int deltaY = y2 - y1;
-            int stepX = 1;
-            int stepY = 1;
-            int detDelta;
-            int errorX;
-            int errorY;
-            int count;
-
-            if (deltaY < 0) {
-                stepY = -1;
-                deltaY = -deltaY;
-            }
-
-            if (deltaX < 0) {
-                stepX = -1;
-                deltaX = -deltaX;
-            }
-
-            if (deltaY > deltaX) {
-                count = deltaY;
-                detDelta = deltaY;
-                errorX = deltaY / 2;
-                errorY = 0;
-            } else {
-                count = deltaX;
-                detDelta = deltaX;
-                errorX = 0;
-                errorY = deltaX / 2;
-            }
-
-            x = x1;
-            y = y1;
-
-            if (editStatus.isVisualDrawEnabled()) {
-                if (editStatus.isPriorityDrawEnabled()) {
-                    // Both visual and priority screens.
-                    visualRGBCode = colours[editStatus.getVisualColour()];
-                    priorityRGBCode = colours[editStatus.getPriorityColour()];
-
-                    index = (y << 7) + (y << 5) + x;
-                    visualScreen[index] = visualRGBCode;
-                    priorityScreen[index] = priorityRGBCode;
-
-                    do {
-                        errorY = (errorY + deltaY);
-                        if (errorY >= detDelta) {
-                            errorY -= detDelta;
-                            y += stepY;
-                        }
-
-                        errorX = (errorX + deltaX);
-                        if (errorX >= detDelta) {
-                            errorX -= detDelta;
-                            x += stepX;
-                        }
-
-                        index = (y << 7) + (y << 5) + x;
-                        visualScreen[index] = visualRGBCode;
-                        priorityScreen[index] = priorityRGBCode;
-                        count--;
-                    } while (count > 0);
-
-                    index = (y << 7) + (y << 5) + x;
-                    visualScreen[index] = visualRGBCode;
-                    priorityScreen[index] = priorityRGBCode;
-
-                } else {
-                    // Only the visual screen.
-                    visualRGBCode = colours[editStatus.getVisualColour()];
-
-                    visualScreen[(y << 7) + (y << 5) + x] = visualRGBCode;
-
-                    do {
-                        errorY = (errorY + deltaY);
-                        if (errorY >= detDelta) {
-                            errorY -= detDelta;
-                            y += stepY;
-                        }
-
-                        errorX = (errorX + deltaX);
-                        if (errorX >= detDelta) {
-                            errorX -= detDelta;
-                            x += stepX;
-                        }
-
-                        visualScreen[(y << 7) + (y << 5) + x] = visualRGBCode;
-                        count--;
-                    } while (count > 0);
-
-                    visualScreen[(y << 7) + (y << 5) + x] = visualRGBCode;
-                }
-            } else if (editStatus.isPriorityDrawEnabled()) {
-                // Only the priority screen.
-                priorityRGBCode = colours[editStatus.getPriorityColour()];
-
-                priorityScreen[(y << 7) + (y << 5) + x] = priorityRGBCode;
-
-                do {
-                    errorY = (errorY + deltaY);
-                    if (errorY >= detDelta) {
-                        errorY -= detDelta;
-                        y += stepY;
-                    }
-
-                    errorX = (errorX + deltaX);
-                    if (errorX >= detDelta) {
-                        errorX -= detDelta;
-                        x += stepX;
-                    }
-
-                    priorityScreen[(y << 7) + (y << 5) + x] = priorityRGBCode;
-                    count--;
-                } while (count > 0);
-
-                priorityScreen[(y << 7) + (y << 5) + x] = priorityRGBCode;
-            }
-        }
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        finishRedraw();
+        updateRenderState();
+        renderer.drawLine(x1, y1, x2, y2);
+        drawnPosition = -1;
     }
-
+    
     /**
-     * Performs a fill at the given position on the picture.
+     * Performs a fill at the given position on the picture using the current 
+     * EditStatus colours and fill type.
      * 
      * @param x the X position to fill at.
      * @param y the Y position to fill at.
      */
     public void fill(int x, int y) {
-        // If the fill colour is white then return immediately.
-        if (editStatus.getVisualColour() == EditStatus.TRANSPARENT) {
-            return;
-        }
-
-        int fillQueue[] = new int[8000];
-        int rpos = 0;
-        int spos = 0;
-        int index = (y << 7) + (y << 5) + x;
-        int white = EgaPalette.transparent;
-        int red = EgaPalette.transparent;
-        int[] fillColours = colours;
-        
-        // The fill type determines how we fill.
-        switch (editStatus.getFillType()) {
-            case NONE:
-                // No fill so return immediately.
-                return;
-            case TRANSPARENT:
-                fillColours = EgaPalette.transparent_colours;
-                break;
-        }
-        
-        if (editStatus.isVisualDrawEnabled()) {
-            if (editStatus.isPriorityDrawEnabled()) {
-                // Fill both visual and priority.
-                int visualRGBCode = fillColours[editStatus.getVisualColour()];
-                int priorityRGBCode = fillColours[editStatus.getPriorityColour()];
-
-                fillQueue[spos++] = index;
-
-                while (rpos != spos) {
-
-                    index = fillQueue[rpos++];
-
-                    if (visualScreen[index] == white) {
-                        // Fill current position.
-                        visualScreen[index] = visualRGBCode;
-                        priorityScreen[index] = priorityRGBCode;
-
-                        int lineStartIndex = (index / 160) * 160;
-                        int lineEndIndex = lineStartIndex + 159;
-
-                        // Go west.
-                        int westIndex = index - 1;
-                        while ((westIndex >= lineStartIndex) && (visualScreen[westIndex] == white)) {
-                            westIndex--;
-                        }
-
-                        // Go east
-                        int eastIndex = index + 1;
-                        while ((eastIndex <= lineEndIndex) && (visualScreen[eastIndex] == white)) {
-                            eastIndex++;
-                        }
-
-                        // Draw line.
-                        westIndex++;
-                        eastIndex--;
-                        for (index = westIndex; index <= eastIndex; index++) {
-                            visualScreen[index] = visualRGBCode;
-                            priorityScreen[index] = priorityRGBCode;
-                        }
-
-                        int lastRGBColour = 0x80000000;
-
-                        // Test above.
-                        westIndex -= 160;
-                        eastIndex -= 160;
-                        if (westIndex > -1) {
-                            for (index = westIndex; index <= eastIndex; index++) {
-                                int rgbColour = visualScreen[index];
-                                if ((rgbColour == white) && (lastRGBColour != white)) {
-                                    fillQueue[spos++] = index;
-                                }
-                                lastRGBColour = rgbColour;
-                            }
-                        }
-
-                        // Test below.
-                        westIndex += 320;
-                        eastIndex += 320;
-                        lastRGBColour = 0x80000000;
-                        if (eastIndex < 26880) {
-                            for (index = westIndex; index <= eastIndex; index++) {
-                                int rgbColour = visualScreen[index];
-                                if ((rgbColour == white) && (lastRGBColour != white)) {
-                                    fillQueue[spos++] = index;
-                                }
-                                lastRGBColour = rgbColour;
-                            }
-                        }
-                    }
-                }
-            } else {
-                // Visual only fill.
-                int visualRGBCode = fillColours[editStatus.getVisualColour()];
-
-                fillQueue[spos++] = index;
-
-                while (rpos != spos) {
-
-                    index = fillQueue[rpos++];
-
-                    if (visualScreen[index] == white) {
-                        // Fill current position.
-                        visualScreen[index] = visualRGBCode;
-
-                        int lineStartIndex = (index / 160) * 160;
-                        int lineEndIndex = lineStartIndex + 159;
-
-                        // Go west.
-                        int westIndex = index - 1;
-                        while ((westIndex >= lineStartIndex) && (visualScreen[westIndex] == white)) {
-                            westIndex--;
-                        }
-
-                        // Go east
-                        int eastIndex = index + 1;
-                        while ((eastIndex <= lineEndIndex) && (visualScreen[eastIndex] == white)) {
-                            eastIndex++;
-                        }
-
-                        // Draw line.
-                        westIndex++;
-                        eastIndex--;
-                        for (index = westIndex; index <= eastIndex; index++) {
-                            visualScreen[index] = visualRGBCode;
-                        }
-
-                        int lastRGBColour = 0x80000000;
-
-                        // Test above.
-                        westIndex -= 160;
-                        eastIndex -= 160;
-                        if (westIndex > -1) {
-                            for (index = westIndex; index <= eastIndex; index++) {
-                                int rgbColour = visualScreen[index];
-                                if ((rgbColour == white) && (lastRGBColour != white)) {
-                                    fillQueue[spos++] = index;
-                                }
-                                lastRGBColour = rgbColour;
-                            }
-                        }
-
-                        // Test below.
-                        westIndex += 320;
-                        eastIndex += 320;
-                        lastRGBColour = 0x80000000;
-                        if (eastIndex < 26880) {
-                            for (index = westIndex; index <= eastIndex; index++) {
-                                int rgbColour = visualScreen[index];
-                                if ((rgbColour == white) && (lastRGBColour != white)) {
-                                    fillQueue[spos++] = index;
-                                }
-                                lastRGBColour = rgbColour;
-                            }
-                        }
-                    }
-                }
-            }
-        } else if (editStatus.isPriorityDrawEnabled()) {
-            // Priority only fill.
-            int priorityRGBCode = fillColours[editStatus.getPriorityColour()];
-
-            fillQueue[spos++] = index;
-
-            while (rpos != spos) {
-
-                index = fillQueue[rpos++];
-
-                if (priorityScreen[index] == red) {
-                    // Fill current position.
-                    priorityScreen[index] = priorityRGBCode;
-
-                    int lineStartIndex = (index / 160) * 160;
-                    int lineEndIndex = lineStartIndex + 159;
-
-                    // Go west.
-                    int westIndex = index - 1;
-                    while ((westIndex >= lineStartIndex) && (priorityScreen[westIndex] == red)) {
-                        westIndex--;
-                    }
-
-                    // Go east
-                    int eastIndex = index + 1;
-                    while ((eastIndex <= lineEndIndex) && (priorityScreen[eastIndex] == red)) {
-                        eastIndex++;
-                    }
-
-                    // Draw line.
-                    westIndex++;
-                    eastIndex--;
-                    for (index = westIndex; index <= eastIndex; index++) {
-                        priorityScreen[index] = priorityRGBCode;
-                    }
-
-                    int lastRGBColour = 0x80000000;
-
-                    // Test above.
-                    westIndex -= 160;
-                    eastIndex -= 160;
-                    if (westIndex > -1) {
-                        for (index = westIndex; index <= eastIndex; index++) {
-                            int rgbColour = priorityScreen[index];
-                            if ((rgbColour == red) && (lastRGBColour != red)) {
-                                fillQueue[spos++] = index;
-                            }
-                            lastRGBColour = rgbColour;
-                        }
-                    }
-
-                    // Test below.
-                    westIndex += 320;
-                    eastIndex += 320;
-                    lastRGBColour = 0x80000000;
-                    if (eastIndex < 26880) {
-                        for (index = westIndex; index <= eastIndex; index++) {
-                            int rgbColour = priorityScreen[index];
-                            if ((rgbColour == red) && (lastRGBColour != red)) {
-                                fillQueue[spos++] = index;
-                            }
-                            lastRGBColour = rgbColour;
-                        }
-                    }
-                }
-            }
-        }
+        finishRedraw();
+        updateRenderState();
+        renderer.fill(x, y);
+        drawnPosition = -1;
     }
-
-    /** Circle Bitmaps */
-    public static final short circles[][] = new short[][] { { 0x80 }, { 0xfc }, { 0x5f, 0xf4 }, { 0x66, 0xff, 0xf6, 0x60 }, { 0x23, 0xbf, 0xff, 0xff, 0xee, 0x20 }, { 0x31, 0xe7, 0x9e, 0xff, 0xff, 0xde, 0x79, 0xe3, 0x00 }, { 0x38, 0xf9, 0xf3, 0xef, 0xff, 0xff, 0xff, 0xfe, 0xf9, 0xf3, 0xe3, 0x80 }, { 0x18, 0x3c, 0x7e, 0x7e, 0x7e, 0xff, 0xff, 0xff, 0xff, 0xff, 0x7e, 0x7e, 0x7e, 0x3c, 0x18 } };
-
-    /** Splatter Brush Bitmaps */
-    public static final short splatterMap[] = new short[] { 0x20, 0x94, 0x02, 0x24, 0x90, 0x82, 0xa4, 0xa2, 0x82, 0x09, 0x0a, 0x22, 0x12, 0x10, 0x42, 0x14, 0x91, 0x4a, 0x91, 0x11, 0x08, 0x12, 0x25, 0x10, 0x22, 0xa8, 0x14, 0x24, 0x00, 0x50, 0x24, 0x04 };
-
-    /** Starting Bit Position */
-    public static final short splatterStart[] = new short[] { 0x00, 0x18, 0x30, 0xc4, 0xdc, 0x65, 0xeb, 0x48, 0x60, 0xbd, 0x89, 0x05, 0x0a, 0xf4, 0x7d, 0x7d, 0x85, 0xb0, 0x8e, 0x95, 0x1f, 0x22, 0x0d, 0xdf, 0x2a, 0x78, 0xd5, 0x73, 0x1c, 0xb4, 0x40, 0xa1, 0xb9, 0x3c, 0xca, 0x58, 0x92, 0x34, 0xcc, 0xce, 0xd7, 0x42, 0x90, 0x0f, 0x8b, 0x7f, 0x32, 0xed, 0x5c, 0x9d, 0xc8, 0x99, 0xad, 0x4e, 0x56, 0xa6, 0xf7, 0x68, 0xb7, 0x25, 0x82, 0x37, 0x3a, 0x51, 0x69, 0x26, 0x38, 0x52, 0x9e, 0x9a, 0x4f, 0xa7, 0x43, 0x10, 0x80, 0xee, 0x3d, 0x59, 0x35, 0xcf, 0x79, 0x74, 0xb5, 0xa2, 0xb1, 0x96, 0x23, 0xe0, 0xbe, 0x05, 0xf5, 0x6e, 0x19, 0xc5, 0x66, 0x49, 0xf0, 0xd1, 0x54, 0xa9, 0x70, 0x4b, 0xa4, 0xe2, 0xe6, 0xe5, 0xab, 0xe4, 0xd2, 0xaa, 0x4c, 0xe3, 0x06, 0x6f, 0xc6, 0x4a, 0xa4, 0x75, 0x97, 0xe1 };
-
+    
     /**
-     * Plots a brush pattern. Draws pixels, circles, squares, or splatter 
-     * brush patterns depending on the pattern code.
+     * Plots a brush pattern on the picture using the current EditStatus colours 
+     * and brush.
      * 
      * @param patNum the pattern number to use.
      * @param x the X position to plot at. 
      * @param y the Y position to plot at.
      */
     public void plotPattern(int patNum, int x, int y) {
-        int circlePos = 0;
-        int x1, y1, penSize, bitPos = splatterStart[patNum];
-        int visualRGBCode = (editStatus.isVisualDrawEnabled() ? colours[editStatus.getVisualColour()] : 0);
-        int priorityRGBCode = (editStatus.isPriorityDrawEnabled() ? colours[editStatus.getPriorityColour()] : 0);
-        int patCode = editStatus.getBrushCode();
-
-        penSize = (patCode & 7);
-
-        if (x < ((penSize / 2) + 1)) {
-            x = ((penSize / 2) + 1);
-
-        } else if (x > 160 - ((penSize / 2) + 1)) {
-            x = 160 - ((penSize / 2) + 1);
-        }
-
-        if (y < penSize) {
-            y = penSize;
-
-        } else if (y >= 168 - penSize) {
-            y = 167 - penSize;
-        }
-
-        for (y1 = y - penSize; y1 <= y + penSize; y1++) {
-            for (x1 = x - ((int) Math.ceil((float) penSize / 2)); x1 <= x + ((int) Math.floor((float) penSize / 2)); x1++) {
-                if ((patCode & 0x10) > 0) { /* Square */
-                    if ((patCode & 0x20) > 0) {
-                        if (((splatterMap[bitPos >> 3] >> (7 - (bitPos & 7))) & 1) > 0) {
-                            if (editStatus.isVisualDrawEnabled()) {
-                                visualScreen[(y1 << 7) + (y1 << 5) + x1] = visualRGBCode;
-                            }
-                            if (editStatus.isPriorityDrawEnabled()) {
-                                priorityScreen[(y1 << 7) + (y1 << 5) + x1] = priorityRGBCode;
-                            }
-                        }
-                        bitPos++;
-                        if (bitPos == 0xff) {
-                            bitPos = 0;
-                        }
-                    } else {
-                        if (editStatus.isVisualDrawEnabled()) {
-                            visualScreen[(y1 << 7) + (y1 << 5) + x1] = visualRGBCode;
-                        }
-                        if (editStatus.isPriorityDrawEnabled()) {
-                            priorityScreen[(y1 << 7) + (y1 << 5) + x1] = priorityRGBCode;
-                        }
-                    }
-                } else { /* Circle */
-                    if (((circles[patCode & 7][circlePos >> 3] >> (7 - (circlePos & 7))) & 1) > 0) {
-                        if ((patCode & 0x20) > 0) {
-                            if (((splatterMap[bitPos >> 3] >> (7 - (bitPos & 7))) & 1) > 0) {
-                                if (editStatus.isVisualDrawEnabled()) {
-                                    visualScreen[(y1 << 7) + (y1 << 5) + x1] = visualRGBCode;
-                                }
-                                if (editStatus.isPriorityDrawEnabled()) {
-                                    priorityScreen[(y1 << 7) + (y1 << 5) + x1] = priorityRGBCode;
-                                }
-                            }
-                            bitPos++;
-                            if (bitPos == 0xff) {
-                                bitPos = 0;
-                            }
-                        } else {
-                            if (editStatus.isVisualDrawEnabled()) {
-                                visualScreen[(y1 << 7) + (y1 << 5) + x1] = visualRGBCode;
-                            }
-                            if (editStatus.isPriorityDrawEnabled()) {
-                                priorityScreen[(y1 << 7) + (y1 << 5) + x1] = priorityRGBCode;
-                            }
-                        }
-                    }
-                    circlePos++;
-                }
-            }
-        }
+        finishRedraw();
+        updateRenderState();
+        renderer.plotPattern(patNum, x, y);
+        drawnPosition = -1;
     }
 }
@@ -1,11 +1,12 @@
 package com.agifans.picedit.picture;
 
-import java.util.SortedMap;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
-import com.agifans.picedit.types.BrushShape;
-import com.agifans.picedit.types.BrushTexture;
-import com.agifans.picedit.types.PictureType;
 import com.agifans.picedit.types.ToolType;
 
 /**
@@ -18,35 +19,163 @@ import com.agifans.picedit.types.ToolType;
  * every time the user navigates through the picture code buffer if that
  * data already exists in this cache.
  * 
+ * The screens in each entry are TiledScreen snapshots, which share the tiles
+ * that haven't changed with the snapshot taken before them. An entry therefore
+ * only costs as much as the area that has changed since the previous one, which
+ * means that there can be an entry at every action boundary. The size of the
+ * cache is the size of all of the distinct tiles that the entries hold.
+ * 
+ * The cache is bounded by a maximum size in bytes. When adding an entry 
+ * would take the cache over that size, entries are evicted. The most 
+ * recently used entries are never evicted, since these are the ones near 
+ * where the user is currently working. Of the rest, the entry chosen is 
+ * the one whose removal leaves the smallest gap between its neighbours, 
+ * which keeps the remaining entries spread out across the picture code 
+ * buffer. Ties are broken by evicting the least recently used entry. The
+ * entries are kept in that order as they are added, used and removed, so
+ * choosing one doesn't have to look at all of them.
+ * 
+ * When picture codes are inserted, the entries before the insert position are
+ * still valid but those after it are not. Rather than simply losing them, 
+ * their (shifted) positions are remembered as stale positions so that the 
+ * PictureCacheRebuilder can recreate them in the background. Every change 
+ * that invalidates entries increments the cache generation, which is how a 
+ * rebuild that has been overtaken by a later edit knows to give up.
+ * 
  * @author Lance Ewing
  */
 public class PictureCache {
 
     /**
-     * A map of picture position to 
+     * The default maximum size of the cache in bytes.
+     */
+    public static final long DEFAULT_MAXIMUM_SIZE = 8 * 1024 * 1024;
+    
+    /**
+     * The number of most recently used entries that are protected from eviction.
+     */
+    private static final int PROTECTED_ENTRIES = 2;
+    
+    /**
+     * The approximate number of bytes used by a cache entry in addition to the screen data.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+    
+    /**
+     * Orders entries by the gap that evicting them would leave, then by how long
+     * ago they were last used.
+     */
+    private static final Comparator<PictureCacheEntry> EVICTION_ORDER = new Comparator<PictureCacheEntry>() {
+        public int compare(PictureCacheEntry entry1, PictureCacheEntry entry2) {
+            if (entry1.gap != entry2.gap) {
+                return (entry1.gap < entry2.gap? -1 : 1);
+            }
+            return Long.compare(entry1.lastUsed, entry2.lastUsed);
+        }
+    };
+    
+    /**
+     * Orders entries by how recently they were last used, least recent first.
+     */
+    private static final Comparator<PictureCacheEntry> USE_ORDER = new Comparator<PictureCacheEntry>() {
+        public int compare(PictureCacheEntry entry1, PictureCacheEntry entry2) {
+            return Long.compare(entry1.lastUsed, entry2.lastUsed);
+        }
+    };
+    
+    /**
+     * A map of picture position to the cache entry for that position.
      */
     private TreeMap<Integer, PictureCacheEntry> cache;
+    
+    /**
+     * The entries in the order that they would be evicted in.
+     */
+    private TreeSet<PictureCacheEntry> evictionOrder;
+    
+    /**
+     * The entries in the order that they were last used in.
+     */
+    private TreeSet<PictureCacheEntry> useOrder;
+    
+    /**
+     * The positions of entries that were invalidated by an insert and are waiting to be rebuilt.
+     */
+    private TreeSet<Integer> stalePositions;
+    
+    /**
+     * Incremented every time that entries are invalidated or the cache is cleared.
+     */
+    private int generation;
 
     /**
-     * Holds the editing status of the PICEDIT application.
+     * The maximum size of the cache in bytes.
+     */
+    private long maximumSize;
+    
+    /**
+     * The current size of the cache in bytes.
+     */
+    private long currentSize;
+    
+    /**
+     * Incremented every time an entry is added or used. Used to track how recently an entry was used.
+     */
+    private long useCounter;
+    
+    /**
+     * The number of lookups that found an entry for the exact picture position.
+     */
+    private long hitCount;
+    
+    /**
+     * The number of lookups that found an entry below the picture position.
+     */
+    private long partialHitCount;
+    
+    /**
+     * The number of lookups that found no entry at all.
      */
-    private EditStatus editStatus;
+    private long missCount;
+    
+    /**
+     * The number of entries that have been evicted to keep within the maximum size.
+     */
+    private long evictionCount;
+    
+    /**
+     * Constructor for PictureCache.
+     */
+    public PictureCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
     
     /**
      * Constructor for PictureCache.
      * 
-     * @param editStatus The editing status of the PICEDIT application.
+     * @param maximumSize The maximum size of the cache in bytes.
      */
-    public PictureCache(EditStatus editStatus) {
+    public PictureCache(long maximumSize) {
         this.cache = new TreeMap<Integer, PictureCacheEntry>();
-        this.editStatus = editStatus;
+        this.evictionOrder = new TreeSet<PictureCacheEntry>(EVICTION_ORDER);
+        this.useOrder = new TreeSet<PictureCacheEntry>(USE_ORDER);
+        this.stalePositions = new TreeSet<Integer>();
+        this.maximumSize = maximumSize;
     }
 
     /**
      * Clears the picture cache.
      */
-    public void clear() {
+    public synchronized void clear() {
+        for (PictureCacheEntry entry : cache.values()) {
+            entry.release();
+        }
         this.cache.clear();
+        this.evictionOrder.clear();
+        this.useOrder.clear();
+        this.stalePositions.clear();
+        this.currentSize = 0;
+        this.generation++;
     }
     
     /**
@@ -54,12 +183,62 @@ public class PictureCache {
      * 
      * @param fromPicturePosition The picture position to clear the picture from.
      */
-    public void clear(int fromPicturePosition) {
+    public synchronized void clear(int fromPicturePosition) {
         if (cache.higherKey(fromPicturePosition) != null) {
-            SortedMap<Integer, PictureCacheEntry> entriesBelow = cache.headMap(fromPicturePosition);
-            cache.clear();
-            cache.putAll(entriesBelow);
+            Map.Entry<Integer, PictureCacheEntry> mapEntry;
+            while ((mapEntry = cache.ceilingEntry(fromPicturePosition)) != null) {
+                currentSize -= removeEntry(mapEntry.getValue());
+            }
         }
+        stalePositions.tailSet(fromPicturePosition, true).clear();
+        generation++;
+    }
+    
+    /**
+     * Invalidates the entries from the given picture position onwards, following 
+     * an insert of the given number of picture codes. The entries before the 
+     * position are unaffected, since they only depend on the picture codes before
+     * them. The entries from the position onwards are removed, but their positions,
+     * shifted along by the number of codes inserted, are kept as stale positions 
+     * to be rebuilt.
+     * 
+     * @param fromPicturePosition The first picture position affected by the insert.
+     * @param numberOfCodes The number of picture codes that were inserted.
+     */
+    public synchronized void invalidate(int fromPicturePosition, int numberOfCodes) {
+        SortedSet<Integer> shiftedPositions = new TreeSet<Integer>();
+        for (Integer stalePosition : stalePositions.tailSet(fromPicturePosition, true)) {
+            shiftedPositions.add(stalePosition + numberOfCodes);
+        }
+        stalePositions.tailSet(fromPicturePosition, true).clear();
+        
+        Map.Entry<Integer, PictureCacheEntry> mapEntry;
+        while ((mapEntry = cache.ceilingEntry(fromPicturePosition)) != null) {
+            shiftedPositions.add(mapEntry.getKey() + numberOfCodes);
+            currentSize -= removeEntry(mapEntry.getValue());
+        }
+        
+        stalePositions.addAll(shiftedPositions);
+        generation++;
+    }
+    
+    /**
+     * Gets the current generation of the cache. This changes whenever entries are
+     * invalidated or the cache is cleared.
+     * 
+     * @return The current generation of the cache.
+     */
+    public synchronized int getGeneration() {
+        return generation;
+    }
+    
+    /**
+     * Gets a copy of the positions of the entries that are waiting to be rebuilt.
+     * 
+     * @return The stale positions, in ascending order.
+     */
+    public synchronized SortedSet<Integer> getStalePositions() {
+        return new TreeSet<Integer>(stalePositions);
     }
     
     // Some notes about when the cache will be used or updated.
@@ -80,30 +259,200 @@ public class PictureCache {
      * Adds a new entry to the picture cache.
      * 
      * @param picturePosition The position that this entry relates to.
-     * @param visualScreen The pixel data for the visual screen of the picture.
-     * @param priorityScreen The pixel data for the priority screen of the picture.
-     * @param controlScreen The pixel data for the control screen of the picture.
+     * @param renderer The PictureRenderer holding the screens and render state for the position.
      * 
      * @return The newly added PictureCacheEntry.
      */
-    public PictureCacheEntry addCacheEntry(int picturePosition, int[] visualScreen, int[] priorityScreen, int[] controlScreen) {
-    	// Copy the three screen arrays.
-    	int[] visualScreenCopy = new int[visualScreen.length];
-    	System.arraycopy(visualScreen, 0, visualScreenCopy, 0, visualScreen.length);
-    	int[] priorityScreenCopy = new int[priorityScreen.length];
-    	System.arraycopy(priorityScreen, 0, priorityScreenCopy, 0, priorityScreen.length);
-    	int[] controlScreenCopy = null;
-    	if (editStatus.getPictureType().equals(PictureType.SCI0)) {
-	    	controlScreenCopy = new int[controlScreen.length];
-	    	System.arraycopy(controlScreen, 0, controlScreenCopy, 0, controlScreen.length);
+    public PictureCacheEntry addCacheEntry(int picturePosition, PictureRenderer renderer) {
+    	// Create an entry to add to the picture cache for this position.
+    	PictureCacheEntry cacheEntry = new PictureCacheEntry(picturePosition, renderer);
+    	
+    	synchronized (this) {
+    	    putCacheEntry(cacheEntry);
     	}
     	
-    	// Create an entry to add to the picture cache for this osition.
-    	PictureCacheEntry cacheEntry = new PictureCacheEntry(picturePosition, visualScreenCopy, priorityScreenCopy, controlScreenCopy);
+    	return cacheEntry;
+    }
+    
+    /**
+     * Adds an entry that has been rebuilt for one of the stale positions. The entry
+     * is only added if the cache is still on the same generation as it was when 
+     * the rebuild started, since otherwise the entry may no longer be valid.
+     * 
+     * @param generation The generation of the cache that the rebuild started from.
+     * @param picturePosition The position that this entry relates to.
+     * @param renderer The PictureRenderer holding the screens and render state for the position.
+     * 
+     * @return The number of bytes that the entry added to the cache, 0 if it was too
+     *         big to keep, or -1 if the cache has since changed.
+     */
+    public long addRebuiltEntry(int generation, int picturePosition, PictureRenderer renderer) {
+        if (generation != getGeneration()) {
+            return -1;
+        }
+        
+        return addRebuiltEntry(generation, new PictureCacheEntry(picturePosition, renderer));
+    }
+    
+    /**
+     * Adds an entry that has been rebuilt in the background, in the same way as 
+     * above, for when the entry has already been created.
+     * 
+     * @param generation The generation of the cache that the rebuild started from.
+     * @param cacheEntry The PictureCacheEntry to add.
+     * 
+     * @return The number of bytes that the entry added to the cache, 0 if it was too
+     *         big to keep, or -1 if the cache has since changed.
+     */
+    public long addRebuiltEntry(int generation, PictureCacheEntry cacheEntry) {
+        synchronized (this) {
+            if (generation != this.generation) {
+                return -1;
+            }
+            return putCacheEntry(cacheEntry);
+        }
+    }
+    
+    /**
+     * Puts the given entry in to the cache, evicting other entries if required to 
+     * stay within the maximum size.
+     * 
+     * @param cacheEntry The PictureCacheEntry to put in to the cache.
+     * 
+     * @return The number of bytes that the entry added to the cache, or 0 if it was too big to keep.
+     */
+    private long putCacheEntry(PictureCacheEntry cacheEntry) {
+        int picturePosition = cacheEntry.getPicturePosition();
+        stalePositions.remove(picturePosition);
+        
+    	// An entry that is bigger than the whole cache is not kept.
+    	long entrySize = cacheEntry.retain();
+    	if (entrySize > maximumSize) {
+    	    cacheEntry.release();
+    	    return 0;
+    	}
     	
-    	this.cache.put(picturePosition, cacheEntry);
+    	PictureCacheEntry oldEntry = this.cache.get(picturePosition);
+    	if (oldEntry != null) {
+    	    currentSize -= removeEntry(oldEntry);
+    	}
+    	cacheEntry.lastUsed = ++useCounter;
+    	insertEntry(cacheEntry);
+    	currentSize += entrySize;
     	
-    	return cacheEntry;
+    	// Make room for the new entry if it has taken us over the maximum size.
+    	while ((currentSize > maximumSize) && evictEntry()) {
+    	}
+    	
+    	return entrySize;
+    }
+    
+    /**
+     * Evicts a single entry from the cache. The most recently used entries are
+     * protected. Of the remaining entries, the one whose removal would leave the
+     * smallest gap between the entries either side of it is evicted, with ties
+     * going to the least recently used entry.
+     * 
+     * @return true if an entry was evicted; otherwise false.
+     */
+    private boolean evictEntry() {
+        if (cache.size() <= PROTECTED_ENTRIES) {
+            return false;
+        }
+        
+        // Work out the lowest last used value of the protected entries.
+        Iterator<PictureCacheEntry> mostRecent = useOrder.descendingIterator();
+        long protectedFrom = 0;
+        for (int i = 0; i < PROTECTED_ENTRIES; i++) {
+            protectedFrom = mostRecent.next().lastUsed;
+        }
+        
+        // Take the first entry in eviction order that isn't protected.
+        for (PictureCacheEntry entry : evictionOrder) {
+            if (entry.lastUsed < protectedFrom) {
+                currentSize -= removeEntry(entry);
+                evictionCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Adds the given entry to the cache map and the eviction and use orders, and
+     * updates the gaps of the entries either side of it.
+     * 
+     * @param cacheEntry The PictureCacheEntry to add.
+     */
+    private void insertEntry(PictureCacheEntry cacheEntry) {
+        int picturePosition = cacheEntry.getPicturePosition();
+        cache.put(picturePosition, cacheEntry);
+        cacheEntry.gap = getGap(picturePosition);
+        evictionOrder.add(cacheEntry);
+        useOrder.add(cacheEntry);
+        updateGap(cache.lowerEntry(picturePosition));
+        updateGap(cache.higherEntry(picturePosition));
+    }
+    
+    /**
+     * Removes the given entry from the cache map and the eviction and use orders,
+     * and updates the gaps of the entries either side of it.
+     * 
+     * @param cacheEntry The PictureCacheEntry to remove.
+     * 
+     * @return The number of bytes that the cache has shrunk by.
+     */
+    private long removeEntry(PictureCacheEntry cacheEntry) {
+        int picturePosition = cacheEntry.getPicturePosition();
+        cache.remove(picturePosition);
+        evictionOrder.remove(cacheEntry);
+        useOrder.remove(cacheEntry);
+        updateGap(cache.lowerEntry(picturePosition));
+        updateGap(cache.higherEntry(picturePosition));
+        return cacheEntry.release();
+    }
+    
+    /**
+     * Works out the gap that removing the entry at the given picture position would 
+     * leave, i.e. from the entry before it (or the start) to the entry after it (or
+     * the position itself if it is the last entry).
+     * 
+     * @param picturePosition The picture position of the entry.
+     * 
+     * @return The gap that removing the entry would leave.
+     */
+    private int getGap(int picturePosition) {
+        Integer previousPosition = cache.lowerKey(picturePosition);
+        Integer nextPosition = cache.higherKey(picturePosition);
+        return ((nextPosition != null? nextPosition : picturePosition) - (previousPosition != null? previousPosition : 0));
+    }
+    
+    /**
+     * Works out the gap of the given entry again, after one of its neighbours has 
+     * changed, and moves it to its new place in the eviction order.
+     * 
+     * @param mapEntry The map entry of the cache entry to update, or null if there isn't one.
+     */
+    private void updateGap(Map.Entry<Integer, PictureCacheEntry> mapEntry) {
+        if (mapEntry != null) {
+            PictureCacheEntry cacheEntry = mapEntry.getValue();
+            evictionOrder.remove(cacheEntry);
+            cacheEntry.gap = getGap(mapEntry.getKey());
+            evictionOrder.add(cacheEntry);
+        }
+    }
+    
+    /**
+     * Marks the given entry as the most recently used one.
+     * 
+     * @param cacheEntry The PictureCacheEntry that has been used.
+     */
+    private void markUsed(PictureCacheEntry cacheEntry) {
+        evictionOrder.remove(cacheEntry);
+        useOrder.remove(cacheEntry);
+        cacheEntry.lastUsed = ++useCounter;
+        evictionOrder.add(cacheEntry);
+        useOrder.add(cacheEntry);
     }
     
     /**
@@ -117,24 +466,137 @@ public class PictureCache {
      * 
      * @return The cache entry, as described above.
      */
-    public PictureCacheEntry getCacheEntry(int picturePosition) {
-    	PictureCacheEntry cacheEntry = this.cache.get(picturePosition);
-    	if (cacheEntry == null) {
-    		Integer closestPosition = this.cache.lowerKey(picturePosition);
-    		if (closestPosition != null) {
-    			cacheEntry = this.cache.get(closestPosition);
-    		}
+    public synchronized PictureCacheEntry getCacheEntry(int picturePosition) {
+    	PictureCacheEntry cacheEntry = null;
+    	Map.Entry<Integer, PictureCacheEntry> floorEntry = this.cache.floorEntry(picturePosition);
+    	if (floorEntry == null) {
+    	    missCount++;
+    	} else {
+    	    cacheEntry = floorEntry.getValue();
+    	    markUsed(cacheEntry);
+    	    if (floorEntry.getKey() == picturePosition) {
+    	        hitCount++;
+    	    } else {
+    	        partialHitCount++;
+    	    }
     	}
 
     	return cacheEntry;
     }
     
+    /**
+     * Finds the cache entry at the given picture position, or the closest position 
+     * below it, in the same way as getCacheEntry but without counting it as a use
+     * of the cache.
+     * 
+     * @param picturePosition The picture position to find the cache entry for.
+     * 
+     * @return The cache entry, or null if there is no entry at or below the position.
+     */
+    public synchronized PictureCacheEntry findCacheEntry(int picturePosition) {
+        Map.Entry<Integer, PictureCacheEntry> floorEntry = this.cache.floorEntry(picturePosition);
+        return (floorEntry != null? floorEntry.getValue() : null);
+    }
+    
+    /**
+     * Returns true if there is a cache entry for exactly the given picture position.
+     * 
+     * @param picturePosition The picture position to check for.
+     * 
+     * @return true if there is a cache entry for the position; otherwise false.
+     */
+    public synchronized boolean containsEntry(int picturePosition) {
+        return cache.containsKey(picturePosition);
+    }
+    
+    /**
+     * Gets the maximum size of the cache in bytes.
+     * 
+     * @return The maximum size of the cache in bytes.
+     */
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+    
+    /**
+     * Sets the maximum size of the cache in bytes. Entries will be evicted 
+     * immediately if the cache is currently bigger than the new size.
+     * 
+     * @param maximumSize The maximum size of the cache in bytes.
+     */
+    public synchronized void setMaximumSize(long maximumSize) {
+        this.maximumSize = maximumSize;
+        while ((currentSize > maximumSize) && evictEntry()) {
+        }
+        if (currentSize > maximumSize) {
+            clear();
+        }
+    }
+    
+    /**
+     * Gets the approximate number of bytes currently used by the cache.
+     * 
+     * @return The approximate number of bytes currently used by the cache.
+     */
+    public synchronized long getCurrentSize() {
+        return currentSize;
+    }
+    
+    /**
+     * Gets the number of lookups that found an entry for the exact picture position.
+     * 
+     * @return The number of cache hits.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+    
+    /**
+     * Gets the number of lookups that found an entry below the picture position, 
+     * which means that the picture had to be drawn on from that entry.
+     * 
+     * @return The number of partial cache hits.
+     */
+    public long getPartialHitCount() {
+        return partialHitCount;
+    }
+    
+    /**
+     * Gets the number of lookups that found no entry at all, which means that
+     * the picture had to be drawn from the start.
+     * 
+     * @return The number of cache misses.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+    
+    /**
+     * Gets the number of entries that have been evicted to keep the cache within
+     * its maximum size.
+     * 
+     * @return The number of cache evictions.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+    
+    /**
+     * Returns a summary of the cache usage and statistics.
+     * 
+     * @return A summary of the cache usage and statistics.
+     */
+    public synchronized String toString() {
+        return String.format("entries: %d, stale: %d, size: %dK/%dK, hits: %d, partial hits: %d, misses: %d, evictions: %d", 
+                cache.size(), stalePositions.size(), currentSize / 1024, maximumSize / 1024, hitCount, partialHitCount, missCount, evictionCount);
+    }
+    
     /**
      * An entry in the picture cache is of this type. It contains the screen
-     * data as it is at the associated picture position and also a subset of
-     * the EditStatus attributes that are relevant to that picture position.
+     * data as it is at the associated picture position and also the render
+     * state that is relevant to that picture position.
      */
-    public class PictureCacheEntry {
+    public static class PictureCacheEntry {
 
     	/**
     	 * The position that this entry relates to.
@@ -144,83 +606,125 @@ public class PictureCache {
         /**
          * Holds the pixel data for the visual screen of the picture.
          */
-        private int visualScreen[];
+        private TiledScreen visualScreen;
 
         /**
          * Holds the pixel data for the priority screen of the picture.
          */
-        private int priorityScreen[];
+        private TiledScreen priorityScreen;
 
         /**
          * Holds the pixel data for the control screen of the picture.
          */
-        private int controlScreen[];
+        private TiledScreen controlScreen;
         
-        // This is the subset of data from the EditStatus that the Picture class
-        // alters when drawing the picture. For this reason it needs to be cached
-        // along with the screen data. This is so that the EditStatus can be adjusted
-        // to match the given picture position.
+        // This is the render state that the PictureRenderer alters when drawing 
+        // the picture. For this reason it needs to be cached along with the screen 
+        // data. This is so that the renderer (and from there the EditStatus) can be
+        // adjusted to match the given picture position.
         private ToolType tool;
         private int visualColour;
         private int priorityColour;
         private int controlColour;
-        private int brushSize;
-        private BrushShape brushShape;
-        private BrushTexture brushTexture;
+        private int brushCode;
+        
+        /**
+         * The value of the use counter when this entry was last used.
+         */
+        private long lastUsed;
+        
+        /**
+         * The gap between the entries either side of this one in the cache, which 
+         * is what it is ordered by for eviction.
+         */
+        private int gap;
+        
+        /**
+         * The approximate number of bytes that this entry added to the cache, i.e.
+         * the tiles that no other entry held at the time.
+         */
+        private long size;
 
         /**
          * Constructor for PictureCache.
          * 
          * @param picturePosition The picture position that this entry relates to.
-	     * @param visualScreen The pixel data for the visual screen of the picture.
-	     * @param priorityScreen The pixel data for the priority screen of the picture.
-	     * @param controlScreen The pixel data for the control screen of the picture.
+         * @param renderer The PictureRenderer holding the screens and render state for the position.
          */
-        public PictureCacheEntry(int picturePosition, int[] visualScreen, int[] priorityScreen, int[] controlScreen) {
+        public PictureCacheEntry(int picturePosition, PictureRenderer renderer) {
         	this.picturePosition = picturePosition;
-        	this.visualScreen = visualScreen;
-        	this.priorityScreen = priorityScreen;
-        	this.controlScreen = controlScreen;
         	
-        	this.tool = editStatus.getTool();
-        	this.visualColour = editStatus.getVisualColour();
-        	this.priorityColour = editStatus.getPriorityColour();
-        	this.controlColour = editStatus.getControlColour();
-        	this.brushSize = editStatus.getBrushSize();
-        	this.brushShape = editStatus.getBrushShape();
-        	this.brushTexture = editStatus.getBrushTexture();
-        }
-        
-        public int getPicturePosition() {
-			return picturePosition;
-		}
-
-		public void setPicturePosition(int picturePosition) {
-			this.picturePosition = picturePosition;
-		}
-
-		public int[] getVisualScreen() {
-            return visualScreen;
+        	// Take snapshots of the three screens, sharing the tiles that haven't changed since the last ones.
+        	renderer.snapshotScreens();
+        	this.visualScreen = renderer.getVisualSnapshot();
+        	this.priorityScreen = renderer.getPrioritySnapshot();
+        	this.controlScreen = renderer.getControlSnapshot();
+        	
+        	this.tool = renderer.getTool();
+        	this.visualColour = renderer.getVisualColour();
+        	this.priorityColour = renderer.getPriorityColour();
+        	this.controlColour = renderer.getControlColour();
+        	this.brushCode = renderer.getBrushCode();
         }
         
-        public void setVisualScreen(int[] visualScreen) {
-            this.visualScreen = visualScreen;
+        /**
+         * Gets the approximate number of bytes that this entry added to the cache
+         * when it was put in to it.
+         * 
+         * @return The approximate number of bytes that this entry added to the cache.
+         */
+        public long getSize() {
+            return size;
         }
         
-        public int[] getPriorityScreen() {
-            return priorityScreen;
+        /**
+         * Counts this entry's tiles as being held by the cache. This must be called 
+         * while holding the cache's lock.
+         * 
+         * @return The number of bytes that the cache has grown by.
+         */
+        long retain() {
+            size = ENTRY_OVERHEAD + visualScreen.retain() + priorityScreen.retain() + 
+                    (controlScreen != null? controlScreen.retain() : 0);
+            return size;
         }
         
-        public void setPriorityScreen(int[] priorityScreen) {
-            this.priorityScreen = priorityScreen;
+        /**
+         * Counts this entry's tiles as no longer being held by the cache. This must
+         * be called while holding the cache's lock.
+         * 
+         * @return The number of bytes that the cache has shrunk by.
+         */
+        long release() {
+            return ENTRY_OVERHEAD + visualScreen.release() + priorityScreen.release() + 
+                    (controlScreen != null? controlScreen.release() : 0);
         }
         
-        public int[] getControlScreen() {
-            return controlScreen;
+        public long getLastUsed() {
+            return lastUsed;
         }
         
-        public void setControlScreen(int[] controlScreen) {
-            this.controlScreen = controlScreen;
+        public int getPicturePosition() {
+			return picturePosition;
+		}
+
+		public void setPicturePosition(int picturePosition) {
+			this.picturePosition = picturePosition;
+		}
+
+        /**
+         * Copies the screen data and render state held in this entry back in to 
+         * the given PictureRenderer.
+         * 
+         * @param renderer The PictureRenderer to restore.
+         */
+        public void restore(PictureRenderer renderer) {
+            renderer.restoreScreens(visualScreen, priorityScreen, controlScreen);
+            renderer.setTool(tool);
+            renderer.setVisualColour(visualColour);
+            renderer.setPriorityColour(priorityColour);
+            renderer.setControlColour(controlColour);
+            renderer.setBrushCode(brushCode);
         }
         
         public ToolType getTool() {
@@ -255,28 +759,12 @@ public class PictureCache {
             this.controlColour = controlColour;
         }
         
-        public int getBrushSize() {
-            return brushSize;
-        }
-        
-        public void setBrushSize(int brushSize) {
-            this.brushSize = brushSize;
-        }
-        
-        public BrushShape getBrushShape() {
-            return brushShape;
-        }
-        
-        public void setBrushShape(BrushShape brushShape) {
-            this.brushShape = brushShape;
-        }
-        
-        public BrushTexture getBrushTexture() {
-            return brushTexture;
+        public int getBrushCode() {
+            return brushCode;
         }
         
-        public void setBrushTexture(BrushTexture brushTexture) {
-            this.brushTexture = brushTexture;
+        public void setBrushCode(int brushCode) {
+            this.brushCode = brushCode;
         }
     }
 
@@ -285,7 +773,7 @@ public class PictureCache {
      * 
      * @return The size of the cache.
      */
-    public int size() {
+    public synchronized int size() {
         return cache.size();
     }
 }
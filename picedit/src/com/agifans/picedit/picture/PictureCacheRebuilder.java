@@ -0,0 +1,247 @@
+package com.agifans.picedit.picture;
+
+import java.awt.EventQueue;
+import java.util.SortedSet;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.agifans.picedit.picture.PictureCache.PictureCacheEntry;
+import com.agifans.picedit.types.FillType;
+import com.agifans.picedit.types.PictureType;
+
+/**
+ * Rebuilds the PictureCache entries that have been invalidated by inserting
+ * picture codes. Editing near the start of a large picture would otherwise
+ * leave no cache entries after the edit point, and so every navigation further
+ * in to the picture would have to draw everything after the edit again.
+ *
+ * It is also used to pre-warm the cache after a picture is loaded or a block 
+ * of picture codes is deleted. A pre-warm walks through the picture once and
+ * adds an entry at the picture action boundaries, spaced out so that they fit 
+ * within the maximum size of the cache, so that moving the position slider 
+ * through the picture only ever has to restore an entry rather than draw.
+ *
+ * A rebuild is scheduled after each edit but only starts once the edits have
+ * stopped for a short while. It runs at low priority on a background thread,
+ * using its own PictureRenderer and its own copy of the picture codes, so that
+ * it doesn't touch anything that the editor is using. The copy is only taken
+ * when the rebuild starts, on the event dispatch thread, so a burst of edits
+ * costs one copy rather than one each. It starts at the closest
+ * valid entry before the first stale position and draws forward, adding an
+ * entry at each stale position as it reaches it. If the picture is edited again
+ * in the meantime then the cache generation will have changed and the rebuild
+ * gives up, leaving it to the rebuild scheduled by that edit.
+ */
+public class PictureCacheRebuilder {
+
+    /**
+     * The number of milliseconds to wait after the last edit before starting a rebuild.
+     */
+    private static final long REBUILD_DELAY = 500;
+
+    /**
+     * The Timer that runs the rebuilds. This is shared by all pictures.
+     */
+    private static final Timer timer = new Timer("PictureCacheRebuilder", true);
+
+    /**
+     * The PictureCache to rebuild the stale entries of.
+     */
+    private PictureCache pictureCache;
+
+    /**
+     * The type of picture being edited.
+     */
+    private PictureType pictureType;
+
+    /**
+     * The rebuild that is waiting to start, if any.
+     */
+    private TimerTask pendingRebuild;
+
+    /**
+     * Constructor for PictureCacheRebuilder.
+     *
+     * @param pictureCache The PictureCache to rebuild the stale entries of.
+     * @param pictureType The type of picture being edited.
+     */
+    public PictureCacheRebuilder(PictureCache pictureCache, PictureType pictureType) {
+        this.pictureCache = pictureCache;
+        this.pictureType = pictureType;
+    }
+
+    /**
+     * Schedules a rebuild of the stale cache entries, replacing any rebuild or 
+     * pre-warm that hasn't started yet.
+     *
+     * @param pictureCodes The picture codes, which are copied when the rebuild starts.
+     * @param fillType The fill type to draw the picture with.
+     */
+    public void schedule(PictureCodeBuffer pictureCodes, FillType fillType) {
+        schedule(pictureCodes, fillType, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Schedules a pre-warm of the cache from the given picture position to the
+     * end of the picture, which also rebuilds any stale cache entries. This 
+     * replaces any rebuild or pre-warm that hasn't started yet.
+     *
+     * @param pictureCodes The picture codes, which are copied when the pre-warm starts.
+     * @param fillType The fill type to draw the picture with.
+     * @param fromPosition The picture position to pre-warm the cache from.
+     */
+    public void schedulePrewarm(PictureCodeBuffer pictureCodes, FillType fillType, int fromPosition) {
+        schedule(pictureCodes, fillType, fromPosition);
+    }
+
+    /**
+     * Schedules a rebuild, replacing any rebuild that hasn't started yet.
+     *
+     * @param pictureCodes The picture codes, which are copied when the rebuild starts.
+     * @param fillType The fill type to draw the picture with.
+     * @param prewarmPosition The picture position to pre-warm from, or Integer.MAX_VALUE for no pre-warm.
+     */
+    private synchronized void schedule(final PictureCodeBuffer pictureCodes, final FillType fillType, final int prewarmPosition) {
+        cancel();
+        pendingRebuild = new TimerTask() {
+            public void run() {
+                Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+                try {
+                    rebuild(pictureCodes, fillType, prewarmPosition);
+                } catch (RuntimeException e) {
+                    // An exception would cancel the shared Timer, and with it every later rebuild.
+                    e.printStackTrace();
+                }
+            }
+        };
+        timer.schedule(pendingRebuild, REBUILD_DELAY);
+    }
+
+    /**
+     * Cancels the rebuild that is waiting to start, if any. A rebuild that has
+     * already started will stop by itself when it notices the cache has changed.
+     */
+    public synchronized void cancel() {
+        if (pendingRebuild != null) {
+            pendingRebuild.cancel();
+            pendingRebuild = null;
+        }
+    }
+
+    /**
+     * Draws the given picture codes forward from the closest valid entry before
+     * the first position to be rebuilt, adding a cache entry at each stale 
+     * position and, when pre-warming, at the action boundaries after the pre-warm
+     * position. Entries are not added after colour and brush changes, in the 
+     * same way as when the Picture draws, since those are quick to draw on from 
+     * the entry before.
+     *
+     * @param editorPictureCodes The picture codes that the editor is using, which are copied before drawing.
+     * @param fillType The fill type to draw the picture with.
+     * @param prewarmPosition The picture position to pre-warm from, or Integer.MAX_VALUE for no pre-warm.
+     */
+    private void rebuild(PictureCodeBuffer editorPictureCodes, FillType fillType, int prewarmPosition) {
+        // The generation is read before the copy is taken, so that an edit in between
+        // makes the rebuild give up rather than add entries for the wrong codes.
+        int generation = pictureCache.getGeneration();
+        SortedSet<Integer> stalePositions = pictureCache.getStalePositions();
+        PictureCodeBuffer pictureCodes = copyPictureCodes(editorPictureCodes);
+        if (pictureCodes == null) {
+            return;
+        }
+        int endPosition = pictureCodes.size() - 1;
+        int startPosition = (stalePositions.isEmpty()? prewarmPosition : Math.min(stalePositions.first(), prewarmPosition));
+        int lastPosition = (prewarmPosition < endPosition? endPosition : Math.min(stalePositions.isEmpty()? 0 : stalePositions.last(), endPosition));
+        if (startPosition > lastPosition) {
+            return;
+        }
+
+        PictureRenderer renderer = new PictureRenderer(pictureType);
+        renderer.setFillType(fillType);
+
+        int index = 0;
+        PictureCacheEntry cacheEntry = pictureCache.findCacheEntry(startPosition);
+        if (cacheEntry != null) {
+            cacheEntry.restore(renderer);
+            index = cacheEntry.getPicturePosition();
+        } else {
+            renderer.clear();
+        }
+
+        // When pre-warming, only every so many action boundaries get an entry so 
+        // that the entries fit in the cache. This is worked out from the size of
+        // the second entry added, since the first may have had no earlier snapshot 
+        // to share its tiles with. Until then every boundary gets an entry.
+        int numberOfActions = countDrawingActions(pictureCodes, Math.max(prewarmPosition, index));
+        int boundaryInterval = 1;
+        int boundaryCount = 0;
+        int prewarmCount = 0;
+
+        while (index < lastPosition) {
+            if (generation != pictureCache.getGeneration()) {
+                return;
+            }
+            int action = pictureCodes.getCode(index);
+            index = renderer.drawAction(pictureCodes, index, endPosition);
+
+            boolean isStale = stalePositions.contains(index);
+            boolean isPrewarm = ((index >= prewarmPosition) && !PictureRenderer.isStateAction(action) && 
+                    ((++boundaryCount % boundaryInterval) == 0) && !pictureCache.containsEntry(index));
+            if (isStale || isPrewarm) {
+                long entrySize = pictureCache.addRebuiltEntry(generation, index, renderer);
+                if (entrySize < 0) {
+                    return;
+                }
+                if (isPrewarm && (entrySize > 0) && (++prewarmCount == 2)) {
+                    boundaryInterval = (int)((numberOfActions * entrySize) / pictureCache.getMaximumSize()) + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the given picture codes on the event dispatch thread, which is the only
+     * thread that changes them, and waits for the copy.
+     *
+     * @param pictureCodes The picture codes to copy.
+     *
+     * @return The copy of the picture codes, or null if the copy couldn't be taken.
+     */
+    private static PictureCodeBuffer copyPictureCodes(final PictureCodeBuffer pictureCodes) {
+        FutureTask<PictureCodeBuffer> copyTask = new FutureTask<PictureCodeBuffer>(new Callable<PictureCodeBuffer>() {
+            public PictureCodeBuffer call() {
+                return new PictureCodeBuffer(pictureCodes);
+            }
+        });
+        EventQueue.invokeLater(copyTask);
+        try {
+            return copyTask.get();
+        } catch (InterruptedException e) {
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Counts the number of drawing actions, i.e. actions other than colour and 
+     * brush changes, from the given picture position to the end of the picture.
+     *
+     * @param pictureCodes The picture codes to count the drawing actions in.
+     * @param fromPosition The picture position to count from.
+     *
+     * @return The number of drawing actions.
+     */
+    private static int countDrawingActions(PictureCodeBuffer pictureCodes, int fromPosition) {
+        int numberOfActions = 0;
+        for (int index = fromPosition; index < pictureCodes.size(); index++) {
+            if (pictureCodes.isActionCode(index) && !PictureRenderer.isStateAction(pictureCodes.getCode(index))) {
+                numberOfActions++;
+            }
+        }
+        return numberOfActions;
+    }
+}
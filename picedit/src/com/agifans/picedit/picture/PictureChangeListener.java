@@ -30,4 +30,10 @@ public interface PictureChangeListener {
      * a single position, which will always be the end of the interval.
      */
     void selectionIntervalCollapsed();
+    
+    /**
+     * Invoked when a redraw of the picture that was done in the background has 
+     * been swapped in to the screens.
+     */
+    void pictureRedrawn();
 }
@@ -1,7 +1,5 @@
 package com.agifans.picedit.picture;
 
-import java.awt.Point;
-
 /**
  * This class holds a single picture code, which is a single value within the 
  * picture code buffer. A picture code can be either a data code or a action 
@@ -22,13 +20,6 @@ public class PictureCode {
      */
     private int code;
 
-    /**
-     * The absolute location within the Picture that this code is related to. Only
-     * applicable to data codes that represent a point. For other types of picture
-     * code, the value will be null.
-     */
-    private Point point;
-    
     /**
      * Constructor for PictureCode.
      * 
@@ -44,12 +35,10 @@ public class PictureCode {
      * 
      * @param type The type of PictureCode.
      * @param code The raw code value.
-     * @param point Optional Point indicating absolute location that the picture code relates to.
      */
-    public PictureCode(PictureCodeType type, int code, Point point) {
+    public PictureCode(PictureCodeType type, int code) {
         this.type = type;
         this.code = code;
-        this.point = point;
     }
 
     /**
@@ -70,25 +59,13 @@ public class PictureCode {
         return type;
     }
     
-    /**
-     * Gets he absolute location within the Picture that this code is related to. Only
-     * applicable to data codes that represent a point. For other types of picture
-     * code, the value returned will be null.
-     * 
-     * @return The absolute location within the Picture that this code is related to.
-     */
-    public Point getPoint() {
-      return point;
-    }
-    
     /**
      * Returns true if this is an action code; otherwise false.
      * 
      * @return true if this is an action code; otherwise false.
      */
     public boolean isActionCode() {
-        // TODO: This may not be safe for SCI0. Needs investigation over a selection of SCI0 pictures.
-        return ((code >= 0xF0) && (code < 0xFF));
+        return type.isActionType();
     }
 
     /**
@@ -0,0 +1,577 @@
+package com.agifans.picedit.picture;
+
+import java.awt.Point;
+
+/**
+ * This class holds the picture code buffer for a Picture. Rather than keeping a
+ * PictureCode object (and a Point) for every code, each code is packed in to a
+ * single int, with the PictureCodeType ordinal held in the top 8 bits and the raw
+ * code value in the lower 24 bits. The packed values are held in a gap buffer. This
+ * gives constant time reads by index, which is what the picture drawing routines
+ * need, and cheap inserts and deletes at the current picture position, which is
+ * where the editing happens. The buffer also keeps an ActionIndex up to date so
+ * that the action boundaries can be found without walking through the codes, and
+ * tells its RenderProgram which codes have changed so that the compiled draw
+ * operations stay in step with the codes.
+ */
+public class PictureCodeBuffer {
+
+    /**
+     * The number of codes that the buffer has room for when first created.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The PictureCodeTypes, indexed by ordinal, for unpacking the type part of a code.
+     */
+    private static final PictureCodeType[] TYPES = PictureCodeType.values();
+
+    /**
+     * Holds the packed picture codes, including the gap.
+     */
+    private int[] codes;
+
+    /**
+     * The index within the codes array where the gap starts.
+     */
+    private int gapStart;
+
+    /**
+     * The index within the codes array immediately after the end of the gap.
+     */
+    private int gapEnd;
+
+    /**
+     * Indexes which slots of the codes array hold action codes.
+     */
+    private ActionIndex actionIndex;
+
+    /**
+     * The registry of the handlers for the action codes that the buffer holds.
+     */
+    private PictureCodeRegistry codeRegistry;
+
+    /**
+     * The draw operations compiled from the codes, made when first needed.
+     */
+    private RenderProgram renderProgram;
+
+    /**
+     * Constructor for PictureCodeBuffer.
+     */
+    public PictureCodeBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor for PictureCodeBuffer.
+     *
+     * @param initialCapacity The number of codes that the buffer initially has room for.
+     */
+    public PictureCodeBuffer(int initialCapacity) {
+        this.codes = new int[Math.max(initialCapacity, 16)];
+        this.gapStart = 0;
+        this.gapEnd = codes.length;
+        this.actionIndex = new ActionIndex(codes.length);
+        this.codeRegistry = PictureCodeRegistry.AGI;
+    }
+
+    /**
+     * Constructor for PictureCodeBuffer that creates a copy of the given buffer.
+     *
+     * @param pictureCodes The PictureCodeBuffer to copy.
+     */
+    public PictureCodeBuffer(PictureCodeBuffer pictureCodes) {
+        int size = pictureCodes.size();
+        int afterGap = pictureCodes.codes.length - pictureCodes.gapEnd;
+        this.codes = new int[Math.max(size, 16)];
+        System.arraycopy(pictureCodes.codes, 0, codes, 0, pictureCodes.gapStart);
+        System.arraycopy(pictureCodes.codes, pictureCodes.gapEnd, codes, codes.length - afterGap, afterGap);
+        this.gapStart = pictureCodes.gapStart;
+        this.gapEnd = codes.length - afterGap;
+        this.actionIndex = new ActionIndex(codes.length);
+        this.codeRegistry = pictureCodes.codeRegistry;
+        this.actionIndex.rebuild(codes, gapStart, gapEnd, codeRegistry);
+    }
+
+    /**
+     * Packs the given type and raw code value in to a single int.
+     *
+     * @param type The type of picture code.
+     * @param code The raw code value.
+     *
+     * @return The packed picture code.
+     */
+    public static int pack(PictureCodeType type, int code) {
+        return (type.ordinal() << 24) | (code & 0x00FFFFFF);
+    }
+
+    /**
+     * Gets the number of picture codes in the buffer (including the end code).
+     *
+     * @return The number of picture codes in the buffer.
+     */
+    public int size() {
+        return codes.length - (gapEnd - gapStart);
+    }
+
+    /**
+     * Removes all picture codes from the buffer.
+     */
+    public void clear() {
+        gapStart = 0;
+        gapEnd = codes.length;
+        actionIndex.rebuild(codes, gapStart, gapEnd, codeRegistry);
+        invalidateRenderProgram(0);
+    }
+
+    /**
+     * Gets the packed picture code at the given index.
+     *
+     * @param index The index of the picture code.
+     *
+     * @return The packed picture code.
+     */
+    public int get(int index) {
+        if ((index < 0) || (index >= size())) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return (index < gapStart ? codes[index] : codes[index + (gapEnd - gapStart)]);
+    }
+
+    /**
+     * Gets the raw code value at the given index.
+     *
+     * @param index The index of the picture code.
+     *
+     * @return The raw code value.
+     */
+    public int getCode(int index) {
+        return get(index) & 0x00FFFFFF;
+    }
+
+    /**
+     * Gets the type of the picture code at the given index.
+     *
+     * @param index The index of the picture code.
+     *
+     * @return The type of the picture code.
+     */
+    public PictureCodeType getType(int index) {
+        return TYPES[get(index) >>> 24];
+    }
+
+    /**
+     * Returns true if the code at the given index is an action code; otherwise false.
+     * Which codes are action codes is decided by the buffer's PictureCodeRegistry.
+     *
+     * @param index The index of the picture code.
+     *
+     * @return true if the code at the given index is an action code; otherwise false.
+     */
+    public boolean isActionCode(int index) {
+        return codeRegistry.isActionCode(get(index));
+    }
+
+    /**
+     * Returns true if the code at the given index is the end of picture code.
+     *
+     * @param index The index of the picture code.
+     *
+     * @return true if the code at the given index is the end of picture code.
+     */
+    public boolean isEndCode(int index) {
+        return (getType(index) == PictureCodeType.END);
+    }
+
+    /**
+     * Returns true if the code at the given index is a data code; otherwise false.
+     *
+     * @param index The index of the picture code.
+     *
+     * @return true if the code at the given index is a data code; otherwise false.
+     */
+    public boolean isDataCode(int index) {
+        return !isActionCode(index) && !isEndCode(index);
+    }
+
+    /**
+     * Returns true if the code at the given index represents an absolute point.
+     *
+     * @param index The index of the picture code.
+     *
+     * @return true if the code at the given index represents an absolute point.
+     */
+    public boolean isAbsolutePoint(int index) {
+        PictureCodeType type = getType(index);
+        return (type == PictureCodeType.ABSOLUTE_POINT_DATA) ||
+               (type == PictureCodeType.BRUSH_POINT_DATA) ||
+               (type == PictureCodeType.FILL_POINT_DATA);
+    }
+
+    /**
+     * Gets a PictureCode for the code at the given index. The PictureCode is created
+     * on demand and so this is intended for the GUI rather than the drawing routines.
+     *
+     * @param index The index of the picture code.
+     *
+     * @return A PictureCode for the code at the given index.
+     */
+    public PictureCode getPictureCode(int index) {
+        int packedCode = get(index);
+        return new PictureCode(TYPES[packedCode >>> 24], packedCode & 0x00FFFFFF);
+    }
+
+    /**
+     * Gets the absolute location within the picture that the code at the given index
+     * relates to. For absolute points this comes straight from the code. For relative,
+     * X and Y position data it is worked out by walking back to the starting point of
+     * the line and replaying the line up to the given index. For other types of code
+     * the value returned will be null.
+     *
+     * @param index The index of the picture code.
+     *
+     * @return The absolute location that the code relates to, or null if not a point.
+     */
+    public Point getPoint(int index) {
+        PictureCodeType type = getType(index);
+        switch (type) {
+            case ABSOLUTE_POINT_DATA:
+            case BRUSH_POINT_DATA:
+            case FILL_POINT_DATA:
+                int code = getCode(index);
+                return new Point((code & 0xFFFF00) >> 8, code & 0x00FF);
+
+            case RELATIVE_POINT_DATA:
+            case X_POSITION_DATA:
+            case Y_POSITION_DATA:
+                // Find the starting point of the line.
+                int position = index;
+                while ((position > 0) && (getType(position) != PictureCodeType.ABSOLUTE_POINT_DATA)) {
+                    position--;
+                }
+                int startCode = getCode(position);
+                int x = (startCode & 0xFFFF00) >> 8;
+                int y = (startCode & 0x00FF);
+
+                // Replay the line segments up to the given index.
+                while (position < index) {
+                    position++;
+                    int dataCode = getCode(position);
+                    switch (getType(position)) {
+                        case RELATIVE_POINT_DATA:
+                            int dx = ((dataCode & 0xF0) >> 4) & 0x0F;
+                            int dy = (dataCode & 0x0F);
+                            if ((dx & 0x08) > 0) {
+                                dx = (-1) * (dx & 0x07);
+                            }
+                            if ((dy & 0x08) > 0) {
+                                dy = (-1) * (dy & 0x07);
+                            }
+                            x = x + dx;
+                            y = y + dy;
+                            break;
+                        case X_POSITION_DATA:
+                            x = dataCode;
+                            break;
+                        case Y_POSITION_DATA:
+                            y = dataCode;
+                            break;
+                    }
+                }
+                return new Point(x, y);
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Appends an action code (or the end of picture code) to the end of the buffer.
+     *
+     * @param type The type of picture code.
+     */
+    public void add(PictureCodeType type) {
+        add(size(), type, type.getActionCode());
+    }
+
+    /**
+     * Appends a picture code to the end of the buffer.
+     *
+     * @param type The type of picture code.
+     * @param code The raw code value.
+     */
+    public void add(PictureCodeType type, int code) {
+        add(size(), type, code);
+    }
+
+    /**
+     * Inserts a picture code at the given index.
+     *
+     * @param index The index at which to insert the picture code.
+     * @param type The type of picture code.
+     * @param code The raw code value.
+     */
+    public void add(int index, PictureCodeType type, int code) {
+        if ((index < 0) || (index > size())) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        invalidateRenderProgram(index);
+        ensureGap(1);
+        moveGap(index);
+        codes[gapStart] = pack(type, code);
+        actionIndex.set(gapStart, codeRegistry.isActionCode(codes[gapStart]));
+        gapStart++;
+    }
+
+    /**
+     * Inserts all of the picture codes in the given buffer at the given index.
+     *
+     * @param index The index at which to insert the picture codes.
+     * @param pictureCodes The picture codes to insert.
+     */
+    public void addAll(int index, PictureCodeBuffer pictureCodes) {
+        if ((index < 0) || (index > size())) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        int count = pictureCodes.size();
+        invalidateRenderProgram(index);
+        ensureGap(count);
+        moveGap(index);
+        for (int i = 0; i < count; i++) {
+            codes[gapStart] = pictureCodes.get(i);
+            actionIndex.set(gapStart, codeRegistry.isActionCode(codes[gapStart]));
+            gapStart++;
+        }
+    }
+
+    /**
+     * Removes the picture code at the given index.
+     *
+     * @param index The index of the picture code to remove.
+     */
+    public void remove(int index) {
+        remove(index, index);
+    }
+
+    /**
+     * Removes the picture codes from the given 'from' index to the given 'to' index
+     * (both inclusive).
+     *
+     * @param fromIndex The index of the first picture code to remove.
+     * @param toIndex The index of the last picture code to remove.
+     */
+    public void remove(int fromIndex, int toIndex) {
+        if ((fromIndex < 0) || (toIndex >= size()) || (fromIndex > toIndex)) {
+            throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size());
+        }
+        invalidateRenderProgram(fromIndex);
+        moveGap(fromIndex);
+        for (int i = fromIndex; i <= toIndex; i++) {
+            actionIndex.set(gapEnd++, false);
+        }
+    }
+
+    /**
+     * Moves the gap so that it starts at the given index.
+     *
+     * @param index The index that the gap should start at.
+     */
+    private void moveGap(int index) {
+        if (index < gapStart) {
+            int count = gapStart - index;
+            System.arraycopy(codes, index, codes, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+            moveActions(gapStart, gapEnd, count);
+        } else if (index > gapStart) {
+            int count = index - gapStart;
+            System.arraycopy(codes, gapEnd, codes, gapStart, count);
+            moveActions(gapEnd, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    /**
+     * Makes sure that the buffer has room for at least the given number of codes,
+     * so that adding codes up to that number won't need to grow the buffer.
+     *
+     * @param capacity The number of codes that the buffer needs to have room for.
+     */
+    public void ensureCapacity(int capacity) {
+        ensureGap(capacity - size());
+    }
+
+    /**
+     * Makes sure that the gap has room for at least the given number of codes,
+     * growing the buffer if required.
+     *
+     * @param required The number of codes that the gap needs to have room for.
+     */
+    private void ensureGap(int required) {
+        if ((gapEnd - gapStart) < required) {
+            int afterGap = codes.length - gapEnd;
+            int newLength = Math.max(codes.length * 2, size() + required + 16);
+            int[] newCodes = new int[newLength];
+            System.arraycopy(codes, 0, newCodes, 0, gapStart);
+            System.arraycopy(codes, gapEnd, newCodes, newLength - afterGap, afterGap);
+            gapEnd = newLength - afterGap;
+            codes = newCodes;
+            actionIndex.rebuild(codes, gapStart, gapEnd, codeRegistry);
+        }
+    }
+
+    /**
+     * Updates the ActionIndex for codes that have been moved from one set of slots
+     * to another when the gap moved. The slots moved from are now in the gap.
+     *
+     * @param fromSlot The first slot that the codes were moved from.
+     * @param toSlot The first slot that the codes were moved to.
+     * @param count The number of codes that were moved.
+     */
+    private void moveActions(int fromSlot, int toSlot, int count) {
+        for (int i = 0; i < count; i++) {
+            actionIndex.set(fromSlot + i, false);
+        }
+        for (int i = 0; i < count; i++) {
+            actionIndex.set(toSlot + i, codeRegistry.isActionCode(codes[toSlot + i]));
+        }
+    }
+
+    /**
+     * Gets the slot within the codes array that holds the code at the given index.
+     *
+     * @param index The index of the picture code.
+     *
+     * @return The slot that holds the picture code.
+     */
+    private int toSlot(int index) {
+        return (index < gapStart ? index : index + (gapEnd - gapStart));
+    }
+
+    /**
+     * Gets the index of the picture code held in the given slot of the codes array.
+     *
+     * @param slot The slot, which must not be in the gap.
+     *
+     * @return The index of the picture code.
+     */
+    private int toIndex(int slot) {
+        return (slot < gapStart ? slot : slot - (gapEnd - gapStart));
+    }
+
+    /**
+     * Gets the number of action codes in the buffer.
+     *
+     * @return The number of action codes in the buffer.
+     */
+    public int getActionCount() {
+        return actionIndex.count();
+    }
+
+    /**
+     * Gets the number of action codes from the start of the buffer up to and
+     * including the given index.
+     *
+     * @param index The index of the last picture code to count.
+     *
+     * @return The number of action codes up to and including the index.
+     */
+    public int countActions(int index) {
+        return (index < 0 ? 0 : actionIndex.countTo(toSlot(Math.min(index, size() - 1))));
+    }
+
+    /**
+     * Gets the index of the given action, counting from 0.
+     *
+     * @param actionNumber The number of the action, where 0 is the first action.
+     *
+     * @return The index of the action code, or -1 if there aren't that many actions.
+     */
+    public int getActionIndex(int actionNumber) {
+        int slot = actionIndex.findSlot(actionNumber + 1);
+        return (slot == -1 ? -1 : toIndex(slot));
+    }
+
+    /**
+     * Gets the index of the action that the code at the given index belongs to,
+     * i.e. the index itself if it is an action code, or otherwise the closest
+     * action code before it.
+     *
+     * @param index The index of the picture code.
+     *
+     * @return The index of the action code, or -1 if there isn't one at or before the index.
+     */
+    public int getActionStart(int index) {
+        return getActionIndex(countActions(index) - 1);
+    }
+
+    /**
+     * Gets the index of the first action code after the given index.
+     *
+     * @param index The index to start looking after.
+     *
+     * @return The index of the next action code, or -1 if there isn't one.
+     */
+    public int getNextActionIndex(int index) {
+        return getActionIndex(countActions(index));
+    }
+
+    /**
+     * Gets the index of the last action code before the given index.
+     *
+     * @param index The index to start looking before.
+     *
+     * @return The index of the previous action code, or -1 if there isn't one.
+     */
+    public int getPreviousActionIndex(int index) {
+        return getActionIndex(countActions(index - 1) - 1);
+    }
+
+    /**
+     * Gets the registry of the handlers for the action codes that the buffer holds.
+     *
+     * @return The PictureCodeRegistry for the buffer.
+     */
+    public PictureCodeRegistry getCodeRegistry() {
+        return codeRegistry;
+    }
+
+    /**
+     * Sets the registry of the handlers for the action codes that the buffer holds.
+     * This is the standard AGI registry unless set otherwise. The action index is
+     * rebuilt, since the registry decides which codes are action codes.
+     *
+     * @param codeRegistry The PictureCodeRegistry for the buffer.
+     */
+    public void setCodeRegistry(PictureCodeRegistry codeRegistry) {
+        this.codeRegistry = codeRegistry;
+        actionIndex.rebuild(codes, gapStart, gapEnd, codeRegistry);
+        invalidateRenderProgram(0);
+    }
+
+    /**
+     * Gets the draw operations compiled from the codes in this buffer.
+     *
+     * @return The RenderProgram for this buffer.
+     */
+    RenderProgram getRenderProgram() {
+        if (renderProgram == null) {
+            renderProgram = new RenderProgram(this);
+        }
+        return renderProgram;
+    }
+
+    /**
+     * Tells the RenderProgram, if there is one, that the codes from the given index
+     * onwards have changed.
+     *
+     * @param index The index of the first picture code that has changed.
+     */
+    private void invalidateRenderProgram(int index) {
+        if (renderProgram != null) {
+            renderProgram.invalidate(index);
+        }
+    }
+}
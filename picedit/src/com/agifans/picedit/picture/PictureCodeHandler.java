@@ -0,0 +1,114 @@
+package com.agifans.picedit.picture;
+
+/**
+ * Handles one picture action code. A handler knows how to read the action's data
+ * from the raw picture data when a picture is loaded, how to compile the action
+ * in to the draw operations of a RenderProgram, and what to display for it. The
+ * handlers are looked up by action code in a PictureCodeRegistry.
+ *
+ * The standard AGI handlers are created from their PictureCodeType. The handlers
+ * of other dialects can instead give their own action code and display text, in
+ * which case their action codes are held in the picture codes as OTHER_ACTION.
+ */
+public abstract class PictureCodeHandler {
+
+    /**
+     * The PictureCodeType that the action code is held as in the picture codes.
+     */
+    private PictureCodeType type;
+
+    /**
+     * The action code that this handler handles.
+     */
+    private int actionCode;
+
+    /**
+     * The text to display for the action.
+     */
+    private String displayableText;
+
+    /**
+     * Constructor for PictureCodeHandler.
+     *
+     * @param type The PictureCodeType of the action code that this handler handles.
+     */
+    protected PictureCodeHandler(PictureCodeType type) {
+        this.type = type;
+        this.actionCode = type.getActionCode();
+        this.displayableText = type.getDisplayableText();
+    }
+
+    /**
+     * Constructor for PictureCodeHandler for an action code that doesn't have its
+     * own PictureCodeType.
+     *
+     * @param actionCode The action code that this handler handles.
+     * @param displayableText The text to display for the action.
+     */
+    protected PictureCodeHandler(int actionCode, String displayableText) {
+        if ((actionCode < 0) || (actionCode > 0xFE)) {
+            throw new IllegalArgumentException("Invalid action code: " + actionCode);
+        }
+        this.type = PictureCodeType.OTHER_ACTION;
+        this.actionCode = actionCode;
+        this.displayableText = displayableText;
+    }
+
+    /**
+     * Gets the PictureCodeType that the action code is held as in the picture codes.
+     *
+     * @return The PictureCodeType of the action code.
+     */
+    public PictureCodeType getType() {
+        return type;
+    }
+
+    /**
+     * Gets the action code that this handler handles.
+     *
+     * @return The action code.
+     */
+    public int getActionCode() {
+        return actionCode;
+    }
+
+    /**
+     * Gets the text to display for the action.
+     *
+     * @return The text to display for the action.
+     */
+    public String getDisplayableText() {
+        return displayableText;
+    }
+
+    /**
+     * Returns true if the action stops at the end position when drawn only part of
+     * the way through its data. The actions that only change the render state read
+     * their data whatever the end position is.
+     *
+     * @return true if the action stops at the end position; otherwise false.
+     */
+    public boolean isTruncatable() {
+        return true;
+    }
+
+    /**
+     * Reads the action's data from the raw picture data. The action code itself has
+     * already been read and added to the picture codes.
+     *
+     * @param reader The PictureCodeReader to read the data from.
+     */
+    public abstract void read(PictureCodeReader reader);
+
+    /**
+     * Compiles the action in to draw operations.
+     *
+     * @param program The RenderProgram to add the operations to.
+     * @param position The picture position of the action code.
+     * @param index The picture position of the first data code.
+     * @param endPosition The position of the last picture code.
+     *
+     * @return The picture position that drawing carries on from after the action.
+     */
+    public abstract int compile(RenderProgram program, int position, int index, int endPosition);
+}
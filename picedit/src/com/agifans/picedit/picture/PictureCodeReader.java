@@ -0,0 +1,118 @@
+package com.agifans.picedit.picture;
+
+/**
+ * Reads raw picture data in to a PictureCodeBuffer. The action codes are looked
+ * up in the buffer's PictureCodeRegistry, and the handler for each one reads the
+ * action's data through this class.
+ */
+public class PictureCodeReader {
+
+    /**
+     * The raw picture data as ints, with -1 marking the end.
+     */
+    private int[] rawPictureCodes;
+
+    /**
+     * The index of the next raw picture code to read.
+     */
+    private int index;
+
+    /**
+     * The picture codes that are being read in to.
+     */
+    private PictureCodeBuffer pictureCodes;
+
+    /**
+     * The brush code set by the last brush type action read. This says whether the
+     * brush actions have pattern codes.
+     */
+    private int brushCode;
+
+    /**
+     * Constructor for PictureCodeReader.
+     *
+     * @param pictureData The raw picture data.
+     * @param pictureCodes The picture code buffer to add the picture codes to.
+     */
+    public PictureCodeReader(byte[] pictureData, PictureCodeBuffer pictureCodes) {
+        // Convert the data to an int array, with -1 marking the end, to make it easy to convert to picture codes.
+        this.rawPictureCodes = new int[pictureData.length + 1];
+        for (int i = 0; i < pictureData.length; i++) {
+            rawPictureCodes[i] = (pictureData[i] & 0xFF);
+        }
+        rawPictureCodes[pictureData.length] = -1;
+        this.pictureCodes = pictureCodes;
+    }
+
+    /**
+     * Reads all of the raw picture data, adding the picture codes to the end of
+     * the buffer and finishing with the end of picture code.
+     */
+    public void read() {
+        PictureCodeRegistry registry = pictureCodes.getCodeRegistry();
+        int pictureCode;
+        while (((pictureCode = next()) != -1) && (pictureCode != 0xFF)) {
+            PictureCodeHandler handler = registry.getHandler(pictureCode);
+            if (handler != null) {
+                pictureCodes.add(handler.getType(), handler.getActionCode());
+                handler.read(this);
+            } else {
+                // An attempt to load a picture that is corrupt. The data is skipped up to the next action.
+                System.out.printf("Unknown picture code : %X, picturePosition: %d\n", pictureCode, pictureCodes.size());
+                while (!isActionCode(rawPictureCodes[index])) {
+                    index++;
+                }
+            }
+        }
+
+        pictureCodes.add(PictureCodeType.END);
+    }
+
+    /**
+     * Returns true if the given raw picture code is an action code, or the end of
+     * the picture, in the dialect of the buffer's PictureCodeRegistry. The codes
+     * from 0xF0 upwards always end the data of an action.
+     *
+     * @param rawCode The raw picture code, or -1 for the end of the data.
+     *
+     * @return true if the code ends the data of an action; otherwise false.
+     */
+    public boolean isActionCode(int rawCode) {
+        return (rawCode < 0) || (rawCode >= 0xF0) || (pictureCodes.getCodeRegistry().getHandler(rawCode) != null);
+    }
+
+    /**
+     * Reads the next raw picture code.
+     *
+     * @return The raw picture code, or -1 at the end of the data.
+     */
+    public int next() {
+        return rawPictureCodes[index++];
+    }
+
+    /**
+     * Steps back so that the last raw picture code read will be read again. The
+     * actions that read until they reach the next action code use this.
+     */
+    public void back() {
+        index--;
+    }
+
+    /**
+     * Adds a picture code to the end of the buffer.
+     *
+     * @param type The type of picture code.
+     * @param code The raw code value.
+     */
+    public void add(PictureCodeType type, int code) {
+        pictureCodes.add(type, code);
+    }
+
+    public int getBrushCode() {
+        return brushCode;
+    }
+
+    public void setBrushCode(int brushCode) {
+        this.brushCode = brushCode;
+    }
+}
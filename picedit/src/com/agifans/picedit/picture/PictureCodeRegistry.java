@@ -0,0 +1,95 @@
+package com.agifans.picedit.picture;
+
+/**
+ * Holds the PictureCodeHandler for each action code of a picture dialect, in an
+ * array indexed by the action code. Both the loading of pictures and the compiling
+ * of them in to RenderPrograms look up the action codes here, so another dialect
+ * is supported by a registry that has its own handlers added to or replacing the
+ * standard AGI ones. Codes without a handler are unknown and are skipped. The
+ * handlers should all be registered before the registry is given to a
+ * PictureCodeBuffer, since the buffer asks it which of its codes are actions.
+ */
+public class PictureCodeRegistry {
+
+    /**
+     * The registry of the standard AGI picture action codes.
+     */
+    public static final PictureCodeRegistry AGI = new PictureCodeRegistry();
+    static {
+        AgiPictureCodeHandlers.registerAll(AGI);
+    }
+
+    /**
+     * The PictureCodeTypes, indexed by ordinal, for unpacking the type part of a code.
+     */
+    private static final PictureCodeType[] TYPES = PictureCodeType.values();
+
+    /**
+     * The handlers, indexed by action code.
+     */
+    private PictureCodeHandler[] handlers;
+
+    /**
+     * Constructor for PictureCodeRegistry. The new registry has no handlers.
+     */
+    public PictureCodeRegistry() {
+        this.handlers = new PictureCodeHandler[256];
+    }
+
+    /**
+     * Constructor for PictureCodeRegistry that starts with the same handlers as the
+     * given registry.
+     *
+     * @param registry The PictureCodeRegistry to copy the handlers of.
+     */
+    public PictureCodeRegistry(PictureCodeRegistry registry) {
+        this.handlers = registry.handlers.clone();
+    }
+
+    /**
+     * Adds the given handler, replacing any that is already registered for its
+     * action code.
+     *
+     * @param handler The PictureCodeHandler to add.
+     */
+    public void register(PictureCodeHandler handler) {
+        handlers[handler.getActionCode()] = handler;
+    }
+
+    /**
+     * Gets the handler for the given code.
+     *
+     * @param code The picture code.
+     *
+     * @return The PictureCodeHandler for the code, or null if it isn't a known action code.
+     */
+    public PictureCodeHandler getHandler(int code) {
+        return ((code >= 0) && (code < handlers.length) ? handlers[code] : null);
+    }
+
+    /**
+     * Returns true if a picture code of the given type and raw value is an action
+     * code of this registry's dialect, i.e. it has an action type and there is a
+     * handler for it. The end of picture code is not an action code.
+     *
+     * @param type The type of picture code.
+     * @param code The raw code value.
+     *
+     * @return true if the picture code is an action code; otherwise false.
+     */
+    public boolean isActionCode(PictureCodeType type, int code) {
+        return type.isActionType() && (getHandler(code) != null);
+    }
+
+    /**
+     * Returns true if the given packed picture code is an action code of this
+     * registry's dialect.
+     *
+     * @param packedCode The packed picture code, as held by a PictureCodeBuffer.
+     *
+     * @return true if the picture code is an action code; otherwise false.
+     */
+    boolean isActionCode(int packedCode) {
+        return isActionCode(TYPES[packedCode >>> 24], packedCode & 0x00FFFFFF);
+    }
+}
@@ -1,8 +1,5 @@
 package com.agifans.picedit.picture;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * An enum representing the different types of picture code.
  * 
@@ -34,6 +31,11 @@ public enum PictureCodeType {
     BRUSH_TYPE_DATA(-1, ""),
     BRUSH_PATTERN_DATA(-1, ""),
     
+    // These are for the action codes, and their data codes, of other picture dialects.
+    // The action code's PictureCodeHandler supplies what to display for it.
+    OTHER_ACTION(-1, ""),
+    OTHER_DATA(-1, ""),
+    
     // This is a special code meaning the end of the picture.
     END(0xFF, "End");
 
@@ -48,22 +50,15 @@ public enum PictureCodeType {
     private String displayableText;
     
     /**
-     * A Map of PictureCodeTypes keyed by the picture action code.
+     * The PictureCodeTypes of the picture action codes, indexed by action code.
      */
-    static Map<Integer, PictureCodeType> pictureCodeTypes = new HashMap<Integer, PictureCodeType>();
+    private static final PictureCodeType[] pictureCodeTypes = new PictureCodeType[256];
     static {
-        pictureCodeTypes.put(0xF0, SET_VISUAL_COLOR);
-        pictureCodeTypes.put(0xF1, SET_VISUAL_COLOR_OFF);
-        pictureCodeTypes.put(0xF2, SET_PRIORITY_COLOR);
-        pictureCodeTypes.put(0xF3, SET_PRIORITY_COLOR_OFF);
-        pictureCodeTypes.put(0xF4, DRAW_VERTICAL_STEP_LINE);
-        pictureCodeTypes.put(0xF5, DRAW_HORIZONTAL_STEP_LINE);
-        pictureCodeTypes.put(0xF6, DRAW_LINE);
-        pictureCodeTypes.put(0xF7, DRAW_SHORT_LINE);
-        pictureCodeTypes.put(0xF8, DRAW_FILL);
-        pictureCodeTypes.put(0xF9, SET_BRUSH_TYPE);
-        pictureCodeTypes.put(0xFA, DRAW_BRUSH_POINT);
-        pictureCodeTypes.put(0xFF, END);
+        for (PictureCodeType type : values()) {
+            if (type.actionCode != -1) {
+                pictureCodeTypes[type.actionCode] = type;
+            }
+        }
     }
     
     /**
@@ -95,14 +90,24 @@ public enum PictureCodeType {
         return displayableText;
     }
     
+    /**
+     * Returns true if this is the type of an action code, as opposed to a data code
+     * or the end of picture code.
+     * 
+     * @return true if this is the type of an action code; otherwise false.
+     */
+    public boolean isActionType() {
+        return (this == OTHER_ACTION) || ((actionCode != -1) && (this != END));
+    }
+    
     /**
      * Gets the PictureCodeType that matches the given action code.
      * 
      * @param actionCode The picture action code to get the PictureCodeType for.
      * 
-     * @return The corresponding PictureCodeType.
+     * @return The corresponding PictureCodeType, or null if it isn't an action code.
      */
     public static PictureCodeType getPictureCodeType(int actionCode) {
-        return pictureCodeTypes.get(actionCode);
+        return ((actionCode >= 0) && (actionCode < pictureCodeTypes.length) ? pictureCodeTypes[actionCode] : null);
     }
 }
@@ -0,0 +1,415 @@
+package com.agifans.picedit.picture;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.agifans.picedit.types.PictureType;
+import com.agifans.picedit.types.ToolType;
+
+/**
+ * A log of the pixels that each picture action changed when it was drawn. For
+ * each action there is a PictureDelta holding the index of every pixel that the
+ * action changed along with how the visual and priority values changed, and the
+ * render state before and after the action. Applying a delta moves the screens
+ * from the picture position before the action to the position after it, and
+ * reverting it moves them back again, so stepping back and forth through the
+ * picture one action at a time only costs as much as the pixels that the action
+ * changed, however far away the nearest PictureCache entry is.
+ *
+ * The changes are worked out as the actions are drawn by comparing the area of
+ * the screens that the action drew on with a copy of the screens as they were
+ * before the action. The control screen is not included since none of the picture
+ * actions draw on it.
+ *
+ * The log is bounded by a maximum size in bytes. When adding a delta would take
+ * the log over that size, the deltas furthest away from the new one are dropped.
+ * Like the PictureRenderer, this class is not thread safe.
+ */
+public class PictureDeltaLog {
+
+    /**
+     * The default maximum size of the log in bytes.
+     */
+    public static final long DEFAULT_MAXIMUM_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The approximate number of bytes used by a delta in addition to the changed pixels.
+     */
+    private static final int DELTA_OVERHEAD = 96;
+
+    /**
+     * The number of bytes used by each changed pixel, i.e. the index and the two changes.
+     */
+    private static final int BYTES_PER_PIXEL = 6;
+
+    /**
+     * A map of the picture position of an action to the delta for that action.
+     */
+    private TreeMap<Integer, PictureDelta> deltas;
+
+    /**
+     * The maximum size of the log in bytes.
+     */
+    private long maximumSize;
+
+    /**
+     * The current size of the log in bytes.
+     */
+    private long currentSize;
+
+    /**
+     * The width of the picture in pixels.
+     */
+    private int width;
+
+    /**
+     * The visual screen as it was before the action being recorded.
+     */
+    private byte[] visualScreen;
+
+    /**
+     * The priority screen as it was before the action being recorded.
+     */
+    private byte[] priorityScreen;
+
+    // This is the render state as it was before the action being recorded.
+    private ToolType tool;
+    private int visualColour;
+    private int priorityColour;
+    private int controlColour;
+    private int brushCode;
+
+    /**
+     * The changed pixels of the action being recorded. These are reused between
+     * actions and are copied in to a delta of the right size once it is complete.
+     */
+    private int[] changedPixels;
+    private byte[] visualChanges;
+    private byte[] priorityChanges;
+
+    /**
+     * Constructor for PictureDeltaLog.
+     *
+     * @param pictureType The type of picture that the log is for.
+     * @param maximumSize The maximum size of the log in bytes.
+     */
+    public PictureDeltaLog(PictureType pictureType, long maximumSize) {
+        this.deltas = new TreeMap<Integer, PictureDelta>();
+        this.maximumSize = maximumSize;
+        this.width = pictureType.getWidth();
+        this.visualScreen = new byte[pictureType.getNumberOfPixels()];
+        this.priorityScreen = new byte[pictureType.getNumberOfPixels()];
+        this.changedPixels = new int[1024];
+        this.visualChanges = new byte[1024];
+        this.priorityChanges = new byte[1024];
+    }
+
+    /**
+     * Removes all of the deltas from the log.
+     */
+    public void clear() {
+        deltas.clear();
+        currentSize = 0;
+    }
+
+    /**
+     * Removes the deltas for the actions that are affected by the picture codes
+     * from the given position onwards having changed, i.e. every action that ends
+     * at or after the position.
+     *
+     * @param fromPicturePosition The first picture position that has changed.
+     */
+    public void clear(int fromPicturePosition) {
+        Map.Entry<Integer, PictureDelta> lowerEntry = deltas.lowerEntry(fromPicturePosition);
+        if ((lowerEntry != null) && (lowerEntry.getValue().getToPosition() >= fromPicturePosition)) {
+            fromPicturePosition = lowerEntry.getKey();
+        }
+        for (PictureDelta delta : deltas.tailMap(fromPicturePosition, true).values()) {
+            currentSize -= delta.getSize();
+        }
+        deltas.tailMap(fromPicturePosition, true).clear();
+    }
+
+    /**
+     * Gets the delta for the action at the given picture position.
+     *
+     * @param picturePosition The picture position of the action.
+     *
+     * @return The delta for the action, or null if it hasn't been logged.
+     */
+    public PictureDelta getDelta(int picturePosition) {
+        return deltas.get(picturePosition);
+    }
+
+    /**
+     * Starts recording from the current screens and render state of the given
+     * PictureRenderer. This must be called before the first action is recorded,
+     * and again whenever the screens have been changed in some other way.
+     *
+     * @param renderer The PictureRenderer that the actions will be drawn with.
+     */
+    public void start(PictureRenderer renderer) {
+        System.arraycopy(renderer.getVisualScreen(), 0, visualScreen, 0, visualScreen.length);
+        System.arraycopy(renderer.getPriorityScreen(), 0, priorityScreen, 0, priorityScreen.length);
+        saveState(renderer);
+    }
+
+    /**
+     * Records the delta for a picture action that the given PictureRenderer has
+     * just drawn. Only the given region of the screens is compared, so it needs to
+     * cover everything that the action drew but doesn't need to cover anything else.
+     *
+     * @param fromPosition The picture position of the action.
+     * @param toPosition The picture position of the next action.
+     * @param renderer The PictureRenderer that drew the action.
+     * @param region The region of the screens that the action drew on.
+     */
+    public void record(int fromPosition, int toPosition, PictureRenderer renderer, DirtyRegion region) {
+        byte[] newVisualScreen = renderer.getVisualScreen();
+        byte[] newPriorityScreen = renderer.getPriorityScreen();
+        int count = 0;
+
+        for (int y = region.getTop(); y <= region.getBottom(); y++) {
+            int index = (y * width) + region.getLeft();
+            int endIndex = (y * width) + region.getRight();
+            for (; index <= endIndex; index++) {
+                int visualChange = visualScreen[index] ^ newVisualScreen[index];
+                int priorityChange = priorityScreen[index] ^ newPriorityScreen[index];
+                if ((visualChange | priorityChange) != 0) {
+                    if (count == changedPixels.length) {
+                        changedPixels = Arrays.copyOf(changedPixels, count * 2);
+                        visualChanges = Arrays.copyOf(visualChanges, count * 2);
+                        priorityChanges = Arrays.copyOf(priorityChanges, count * 2);
+                    }
+                    changedPixels[count] = index;
+                    visualChanges[count] = (byte)visualChange;
+                    priorityChanges[count] = (byte)priorityChange;
+                    count++;
+                    visualScreen[index] = newVisualScreen[index];
+                    priorityScreen[index] = newPriorityScreen[index];
+                }
+            }
+        }
+
+        PictureDelta delta = new PictureDelta(fromPosition, toPosition, count, region);
+        delta.setBeforeState(tool, visualColour, priorityColour, controlColour, brushCode);
+        saveState(renderer);
+        delta.setAfterState(tool, visualColour, priorityColour, controlColour, brushCode);
+        putDelta(delta);
+    }
+
+    /**
+     * Saves the render state of the given PictureRenderer as the state before the
+     * next action.
+     *
+     * @param renderer The PictureRenderer to save the render state of.
+     */
+    private void saveState(PictureRenderer renderer) {
+        tool = renderer.getTool();
+        visualColour = renderer.getVisualColour();
+        priorityColour = renderer.getPriorityColour();
+        controlColour = renderer.getControlColour();
+        brushCode = renderer.getBrushCode();
+    }
+
+    /**
+     * Puts the given delta in to the log, dropping the deltas furthest away from it
+     * if required to stay within the maximum size.
+     *
+     * @param delta The PictureDelta to put in to the log.
+     */
+    private void putDelta(PictureDelta delta) {
+        // A delta that is bigger than the whole log is not kept.
+        if (delta.getSize() > maximumSize) {
+            return;
+        }
+
+        int picturePosition = delta.getFromPosition();
+        PictureDelta oldDelta = deltas.put(picturePosition, delta);
+        if (oldDelta != null) {
+            currentSize -= oldDelta.getSize();
+        }
+        currentSize += delta.getSize();
+
+        while (currentSize > maximumSize) {
+            int firstPosition = deltas.firstKey();
+            int lastPosition = deltas.lastKey();
+            int furthestPosition = ((picturePosition - firstPosition) > (lastPosition - picturePosition)? firstPosition : lastPosition);
+            currentSize -= deltas.remove(furthestPosition).getSize();
+        }
+    }
+
+    /**
+     * Gets the approximate number of bytes currently used by the log.
+     *
+     * @return The approximate number of bytes currently used by the log.
+     */
+    public long getCurrentSize() {
+        return currentSize;
+    }
+
+    /**
+     * Returns the number of deltas in the log.
+     *
+     * @return The number of deltas in the log.
+     */
+    public int size() {
+        return deltas.size();
+    }
+
+    /**
+     * The changes made by a single picture action. The pixel changes are held as
+     * the exclusive or of the old and new values, which means that applying the
+     * delta and reverting it are the same operation on the screens.
+     */
+    public class PictureDelta {
+
+        /**
+         * The picture position of the action.
+         */
+        private int fromPosition;
+
+        /**
+         * The picture position of the next action.
+         */
+        private int toPosition;
+
+        /**
+         * The index of each pixel that the action changed.
+         */
+        private int[] pixels;
+
+        /**
+         * The exclusive or of the old and new visual values of each changed pixel.
+         */
+        private byte[] visualChanges;
+
+        /**
+         * The exclusive or of the old and new priority values of each changed pixel.
+         */
+        private byte[] priorityChanges;
+
+        /**
+         * The region of the screens that the action drew on.
+         */
+        private int left;
+        private int top;
+        private int right;
+        private int bottom;
+
+        // This is the render state before and after the action.
+        private ToolType beforeTool;
+        private int beforeVisualColour;
+        private int beforePriorityColour;
+        private int beforeControlColour;
+        private int beforeBrushCode;
+        private ToolType afterTool;
+        private int afterVisualColour;
+        private int afterPriorityColour;
+        private int afterControlColour;
+        private int afterBrushCode;
+
+        /**
+         * Constructor for PictureDelta. The changed pixels are copied from the ones
+         * that the log has just recorded.
+         *
+         * @param fromPosition The picture position of the action.
+         * @param toPosition The picture position of the next action.
+         * @param count The number of pixels that the action changed.
+         * @param region The region of the screens that the action drew on.
+         */
+        PictureDelta(int fromPosition, int toPosition, int count, DirtyRegion region) {
+            this.fromPosition = fromPosition;
+            this.toPosition = toPosition;
+            this.pixels = Arrays.copyOf(changedPixels, count);
+            this.visualChanges = Arrays.copyOf(PictureDeltaLog.this.visualChanges, count);
+            this.priorityChanges = Arrays.copyOf(PictureDeltaLog.this.priorityChanges, count);
+            this.left = region.getLeft();
+            this.top = region.getTop();
+            this.right = region.getRight();
+            this.bottom = region.getBottom();
+        }
+
+        void setBeforeState(ToolType tool, int visualColour, int priorityColour, int controlColour, int brushCode) {
+            this.beforeTool = tool;
+            this.beforeVisualColour = visualColour;
+            this.beforePriorityColour = priorityColour;
+            this.beforeControlColour = controlColour;
+            this.beforeBrushCode = brushCode;
+        }
+
+        void setAfterState(ToolType tool, int visualColour, int priorityColour, int controlColour, int brushCode) {
+            this.afterTool = tool;
+            this.afterVisualColour = visualColour;
+            this.afterPriorityColour = priorityColour;
+            this.afterControlColour = controlColour;
+            this.afterBrushCode = brushCode;
+        }
+
+        public int getFromPosition() {
+            return fromPosition;
+        }
+
+        public int getToPosition() {
+            return toPosition;
+        }
+
+        /**
+         * Gets the approximate number of bytes used by this delta.
+         *
+         * @return The approximate number of bytes used by this delta.
+         */
+        public long getSize() {
+            return DELTA_OVERHEAD + ((long)pixels.length * BYTES_PER_PIXEL);
+        }
+
+        /**
+         * Applies the changes made by the action to the given PictureRenderer, which
+         * must currently hold the picture as it is drawn at the from position.
+         *
+         * @param renderer The PictureRenderer to apply the changes to.
+         */
+        public void apply(PictureRenderer renderer) {
+            flipPixels(renderer);
+            renderer.setTool(afterTool);
+            renderer.setVisualColour(afterVisualColour);
+            renderer.setPriorityColour(afterPriorityColour);
+            renderer.setControlColour(afterControlColour);
+            renderer.setBrushCode(afterBrushCode);
+        }
+
+        /**
+         * Reverts the changes made by the action from the given PictureRenderer, which
+         * must currently hold the picture as it is drawn at the to position.
+         *
+         * @param renderer The PictureRenderer to revert the changes from.
+         */
+        public void revert(PictureRenderer renderer) {
+            flipPixels(renderer);
+            renderer.setTool(beforeTool);
+            renderer.setVisualColour(beforeVisualColour);
+            renderer.setPriorityColour(beforePriorityColour);
+            renderer.setControlColour(beforeControlColour);
+            renderer.setBrushCode(beforeBrushCode);
+        }
+
+        /**
+         * Flips the changed pixels between their old and new values.
+         *
+         * @param renderer The PictureRenderer whose screens are to be changed.
+         */
+        private void flipPixels(PictureRenderer renderer) {
+            byte[] visualScreen = renderer.getVisualScreen();
+            byte[] priorityScreen = renderer.getPriorityScreen();
+            for (int i = 0; i < pixels.length; i++) {
+                int index = pixels[i];
+                visualScreen[index] ^= visualChanges[i];
+                priorityScreen[index] ^= priorityChanges[i];
+            }
+            if (pixels.length > 0) {
+                renderer.addChangedRegion(left, top, right, bottom);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.agifans.picedit.picture;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.agifans.picedit.picture.PictureCache.PictureCacheEntry;
+import com.agifans.picedit.types.FillType;
+import com.agifans.picedit.types.PictureType;
+
+/**
+ * Draws the picture up to a picture position on a background thread, for when
+ * the Picture has too far to draw to do it on the event dispatch thread without
+ * holding up painting. The Picture's screens are left showing the last complete
+ * frame while the redraw is going on.
+ *
+ * The redraw uses its own PictureRenderer and its own copy of the picture codes,
+ * in the same way as the PictureCacheRebuilder. It adds a cache entry at each
+ * picture action boundary along the way, just as the Picture would have, and
+ * when it gets to the picture position it takes an entry for that position as
+ * well. That entry is made of immutable TiledScreen snapshots, so once it is
+ * published the event dispatch thread can restore it in to the Picture's screens
+ * without any locking, and only the tiles that differ are copied.
+ *
+ * Only the latest redraw is wanted. Asking for another one, or cancelling,
+ * makes a redraw that is still going give up at the next picture action, and a
+ * frame that it has already published is ignored.
+ */
+public class PictureRedrawer {
+
+    /**
+     * The thread that runs the redraws. This is shared by all pictures.
+     */
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PictureRedrawer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * The PictureCache to add the entries to.
+     */
+    private PictureCache pictureCache;
+
+    /**
+     * Draws the picture codes. This is only used on the redraw thread.
+     */
+    private PictureRenderer renderer;
+
+    /**
+     * The number of the latest redraw that was asked for. Cancelling also increments it.
+     */
+    private AtomicInteger latestRedraw;
+
+    /**
+     * The frame that the latest redraw finished with, until it is taken.
+     */
+    private AtomicReference<RedrawnFrame> redrawnFrame;
+
+    /**
+     * Constructor for PictureRedrawer.
+     *
+     * @param pictureCache The PictureCache to add the entries to.
+     * @param pictureType The type of picture being edited.
+     */
+    public PictureRedrawer(PictureCache pictureCache, PictureType pictureType) {
+        this.pictureCache = pictureCache;
+        this.renderer = new PictureRenderer(pictureType);
+        this.latestRedraw = new AtomicInteger();
+        this.redrawnFrame = new AtomicReference<RedrawnFrame>();
+    }
+
+    /**
+     * Starts a redraw, replacing any redraw that hasn't finished yet or whose frame
+     * hasn't been taken.
+     *
+     * @param pictureCodes A copy of the picture codes.
+     * @param fillType The fill type to draw the picture with.
+     * @param startEntry The cache entry to start drawing from, or null to draw from the start.
+     * @param picturePosition The picture position to draw up to.
+     * @param listener Invoked on the redraw thread when the frame has been published.
+     */
+    public void redraw(final PictureCodeBuffer pictureCodes, final FillType fillType,
+            final PictureCacheEntry startEntry, final int picturePosition, final Runnable listener) {
+        final int redraw = latestRedraw.incrementAndGet();
+        final int generation = pictureCache.getGeneration();
+        redrawnFrame.set(null);
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    PictureCacheEntry frame = draw(redraw, generation, pictureCodes, fillType, startEntry, picturePosition);
+                    if (frame != null) {
+                        redrawnFrame.set(new RedrawnFrame(redraw, frame));
+                        listener.run();
+                    }
+                } catch (RuntimeException e) {
+                    // The shared thread carries on with the next redraw.
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancels the redraw that is going on, if there is one, and discards any frame
+     * that hasn't been taken.
+     */
+    public void cancel() {
+        latestRedraw.incrementAndGet();
+        redrawnFrame.set(null);
+    }
+
+    /**
+     * Takes the frame that the latest redraw finished with, if it has finished.
+     *
+     * @return The cache entry for the redrawn frame, or null if there isn't one.
+     */
+    public PictureCacheEntry takeRedrawnFrame() {
+        RedrawnFrame frame = redrawnFrame.getAndSet(null);
+        return (((frame != null) && (frame.redraw == latestRedraw.get()))? frame.entry : null);
+    }
+
+    /**
+     * Draws the picture codes forward from the start entry up to the picture
+     * position, adding cache entries at the action boundaries along the way.
+     *
+     * @param redraw The number of the redraw.
+     * @param generation The generation of the cache when the redraw was asked for.
+     * @param pictureCodes The picture codes to draw.
+     * @param fillType The fill type to draw the picture with.
+     * @param startEntry The cache entry to start drawing from, or null to draw from the start.
+     * @param picturePosition The picture position to draw up to.
+     *
+     * @return The entry for the picture position, or null if the redraw was overtaken.
+     */
+    private PictureCacheEntry draw(int redraw, int generation, PictureCodeBuffer pictureCodes,
+            FillType fillType, PictureCacheEntry startEntry, int picturePosition) {
+        int index = 0;
+        renderer.setFillType(fillType);
+        if (startEntry != null) {
+            startEntry.restore(renderer);
+            index = startEntry.getPicturePosition();
+        } else {
+            renderer.clear();
+        }
+
+        int action = 0;
+        while ((index < picturePosition) && (action != 0xFF)) {
+            if (redraw != latestRedraw.get()) {
+                return null;
+            }
+            action = pictureCodes.getCode(index);
+            index = renderer.drawAction(pictureCodes, index, picturePosition);
+            if (!PictureRenderer.isStateAction(action) && pictureCodes.isActionCode(index) &&
+                    (index < picturePosition) && !pictureCache.containsEntry(index)) {
+                pictureCache.addRebuiltEntry(generation, index, renderer);
+            }
+        }
+
+        PictureCacheEntry frame = new PictureCacheEntry(picturePosition, renderer);
+        if (!PictureRenderer.isStateAction(action) && pictureCodes.isActionCode(picturePosition) && 
+                !pictureCache.containsEntry(picturePosition)) {
+            pictureCache.addRebuiltEntry(generation, frame);
+        }
+        return frame;
+    }
+
+    /**
+     * A frame that a redraw has finished with, along with the number of the redraw.
+     */
+    private static class RedrawnFrame {
+
+        private final int redraw;
+
+        private final PictureCacheEntry entry;
+
+        RedrawnFrame(int redraw, PictureCacheEntry entry) {
+            this.redraw = redraw;
+            this.entry = entry;
+        }
+    }
+}
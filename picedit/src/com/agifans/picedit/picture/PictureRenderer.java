@@ -0,0 +1,957 @@
+package com.agifans.picedit.picture;
+
+import java.util.Arrays;
+
+import com.agifans.picedit.types.FillType;
+import com.agifans.picedit.types.PictureType;
+import com.agifans.picedit.types.ToolType;
+import com.agifans.picedit.utils.EgaPalette;
+
+/**
+ * Renders picture codes in to visual, priority and control screens. The screens
+ * hold EgaPalette indexes. A PictureRenderer keeps its own render state (the 
+ * current tool, colours and brush) rather than using the EditStatus and it has
+ * no dependencies on Swing or AWT, so it can be used without a GUI. Nothing is 
+ * shared between instances, which means that pictures can be rendered in parallel 
+ * by giving each thread its own PictureRenderer. A single instance should only 
+ * be used by one thread at a time.
+ */
+public class PictureRenderer {
+
+    /**
+     * The ToolTypes, indexed by ordinal, for the tools in the RenderProgram operations.
+     */
+    private static final ToolType[] TOOLS = ToolType.values();
+    
+    /**
+     * The type of picture that this renderer draws.
+     */
+    private PictureType pictureType;
+    
+    /**
+     * Holds the pixel data for the visual screen of the picture.
+     */
+    private byte visualScreen[];
+
+    /**
+     * Holds the pixel data for the priority screen of the picture.
+     */
+    private byte priorityScreen[];
+
+    /**
+     * Holds the pixel data for the control screen of the picture.
+     */
+    private byte controlScreen[];
+    
+    /**
+     * The tool for the most recently drawn picture action.
+     */
+    private ToolType tool;
+    
+    /**
+     * The current visual colour.
+     */
+    private int visualColour;
+    
+    /**
+     * The current priority colour.
+     */
+    private int priorityColour;
+    
+    /**
+     * The current control colour.
+     */
+    private int controlColour;
+    
+    /**
+     * The current brush code, as set by the 0xF9 picture action.
+     */
+    private int brushCode;
+    
+    /**
+     * The type of fill to use when rendering filled areas.
+     */
+    private FillType fillType;
+    
+    /**
+     * The stack of seed pixels used by the fill. This is kept between fills so
+     * that it only needs to be allocated once, and grows if a fill needs more room.
+     */
+    private int[] fillStack;
+    
+    /**
+     * The region of the screens that has been drawn on since the GUI last took it.
+     */
+    private DirtyRegion dirtyRegion;
+    
+    /**
+     * The snapshots that the screens were the same as when they were last taken or
+     * restored, apart from the tiles that have changed since then. These are shared
+     * with the PictureCache entries, so that the next snapshot only has to copy the
+     * tiles that have changed.
+     */
+    private TiledScreen visualSnapshot;
+    private TiledScreen prioritySnapshot;
+    private TiledScreen controlSnapshot;
+    
+    /**
+     * Says which tiles of the screens have been drawn on since the snapshots.
+     */
+    private boolean[] changedTiles;
+    
+    /**
+     * Says which tiles were copied when the screens were last restored from snapshots.
+     */
+    private boolean[] restoredTiles;
+    
+    /**
+     * Constructor for PictureRenderer.
+     * 
+     * @param pictureType The type of picture that this renderer draws.
+     */
+    public PictureRenderer(PictureType pictureType) {
+        this.pictureType = pictureType;
+        this.visualScreen = new byte[pictureType.getNumberOfPixels()];
+        this.priorityScreen = new byte[pictureType.getNumberOfPixels()];
+        if (pictureType.equals(PictureType.SCI0)) {
+            this.controlScreen = new byte[pictureType.getNumberOfPixels()];
+        }
+        this.fillType = FillType.NORMAL;
+        this.fillStack = new int[pictureType.getHeight() * 4];
+        this.dirtyRegion = new DirtyRegion(pictureType.getWidth(), pictureType.getHeight());
+        int numberOfTiles = TiledScreen.getTilesAcross(pictureType.getWidth()) * TiledScreen.getTilesDown(pictureType.getHeight());
+        this.changedTiles = new boolean[numberOfTiles];
+        this.restoredTiles = new boolean[numberOfTiles];
+        clear();
+    }
+    
+    /**
+     * Clears the screens and the render state.
+     */
+    public void clear() {
+        clearScreens();
+        clearState();
+    }
+    
+    /**
+     * Clears the visual, priority (and control) screens.
+     */
+    public void clearScreens() {
+        Arrays.fill(visualScreen, (byte)EditStatus.TRANSPARENT);
+        Arrays.fill(priorityScreen, (byte)EditStatus.TRANSPARENT);
+        if (controlScreen != null) {
+            Arrays.fill(controlScreen, (byte)EditStatus.TRANSPARENT);
+        }
+        addChangedRegion(0, 0, pictureType.getWidth() - 1, pictureType.getHeight() - 1);
+    }
+    
+    /**
+     * Clears the render state back to how it is at the start of a picture. The
+     * fill type is not part of the picture and so is not cleared.
+     */
+    public void clearState() {
+        tool = ToolType.NONE;
+        visualColour = EditStatus.VISUAL_OFF;
+        priorityColour = EditStatus.PRIORITY_OFF;
+        controlColour = EditStatus.CONTROL_OFF;
+        brushCode = 0;
+    }
+    
+    /**
+     * Renders the given picture codes from the start of the picture up to the end.
+     * 
+     * @param pictureCodes The picture codes to render.
+     */
+    public void render(PictureCodeBuffer pictureCodes) {
+        render(pictureCodes, pictureCodes.size() - 1);
+    }
+    
+    /**
+     * Renders the given picture codes from the start of the picture up to the given
+     * end position.
+     * 
+     * @param pictureCodes The picture codes to render.
+     * @param endPosition The picture position to render up to.
+     */
+    public void render(PictureCodeBuffer pictureCodes, int endPosition) {
+        clear();
+        
+        int index = 0;
+        while ((index < endPosition) && (pictureCodes.getCode(index) != 0xFF)) {
+            index = drawAction(pictureCodes, index, endPosition);
+        }
+    }
+    
+    /**
+     * Returns true if the given picture action only changes the render state (i.e. 
+     * the colours or the brush) rather than drawing on the screens.
+     * 
+     * @param action The picture action code.
+     * 
+     * @return true if the picture action only changes the render state.
+     */
+    public static boolean isStateAction(int action) {
+        return ((action >= 0xF0) && (action <= 0xF3)) || (action == 0xF9);
+    }
+    
+    /**
+     * Draws the picture action at the given index, along with all of its data, on
+     * to the screens. The action is drawn from the picture codes' RenderProgram, 
+     * which holds the action already decoded in to draw operations.
+     * 
+     * @param pictureCodes The picture codes to draw from.
+     * @param index The index of the picture action to draw.
+     * @param endPosition The position of the last picture code to process.
+     * 
+     * @return The index of the next picture action.
+     */
+    public int drawAction(PictureCodeBuffer pictureCodes, int index, int endPosition) {
+        RenderProgram program = pictureCodes.getRenderProgram();
+        if (!program.compileTo(index)) {
+            // Drawing from the start of the picture doesn't reach an action at this
+            // index, which can happen with corrupt pictures, so it is compiled on its own.
+            program = new RenderProgram(pictureCodes, index, brushCode);
+            program.compileTo(index);
+        }
+        
+        int nextIndex = program.getNextPosition(index);
+        int[] ops = program.getOps();
+        int op = program.getOpStart(index);
+        int endOp = program.getOpStart(nextIndex);
+        
+        // Operations that come from codes after the end position are not drawn.
+        while ((op < endOp) && (ops[op + 1] <= endPosition)) {
+            switch (ops[op]) {
+                case RenderProgram.SET_VISUAL_COLOUR:
+                    setVisualColour(ops[op + 2]);
+                    op += 3;
+                    break;
+                case RenderProgram.SET_PRIORITY_COLOUR:
+                    setPriorityColour(ops[op + 2]);
+                    op += 3;
+                    break;
+                case RenderProgram.SET_BRUSH_CODE:
+                    brushCode = ops[op + 2];
+                    op += 3;
+                    break;
+                case RenderProgram.SET_TOOL:
+                    tool = TOOLS[ops[op + 2]];
+                    op += 3;
+                    break;
+                case RenderProgram.PIXEL:
+                    putPixel(ops[op + 2], ops[op + 3]);
+                    op += 4;
+                    break;
+                case RenderProgram.LINE:
+                    drawLine(ops[op + 2], ops[op + 3], ops[op + 4], ops[op + 5]);
+                    op += 6;
+                    break;
+                case RenderProgram.FILL:
+                    fill(ops[op + 2], ops[op + 3]);
+                    op += 4;
+                    break;
+                case RenderProgram.PLOT:
+                    plotPattern(ops[op + 2], ops[op + 3], ops[op + 4]);
+                    op += 5;
+                    break;
+                default:
+                    // Not an operation that this renderer knows how to draw.
+                    op = endOp;
+                    break;
+            }
+        }
+        
+        if ((nextIndex > endPosition) && program.isTruncatable(index)) {
+            nextIndex = endPosition;
+        }
+        return nextIndex;
+    }
+    
+    /**
+     * Gets the type of picture that this renderer draws.
+     * 
+     * @return The type of picture that this renderer draws.
+     */
+    public PictureType getPictureType() {
+        return pictureType;
+    }
+    
+    /**
+     * Gets the raw palette index byte array for the visual screen.
+     * 
+     * @return The raw palette index byte array for the visual screen.
+     */
+    public byte[] getVisualScreen() {
+        return visualScreen;
+    }
+    
+    /**
+     * Gets the raw palette index byte array for the priority screen.
+     * 
+     * @return The raw palette index byte array for the priority screen.
+     */
+    public byte[] getPriorityScreen() {
+        return priorityScreen;
+    }
+    
+    /**
+     * Gets the raw palette index byte array for the control screen. This will be
+     * null for AGI pictures.
+     * 
+     * @return The raw palette index byte array for the control screen.
+     */
+    public byte[] getControlScreen() {
+        return controlScreen;
+    }
+    
+    /**
+     * Gets the region of the screens that has been drawn on. The drawing routines
+     * add to this region as they draw. It is up to the caller to clear it once it
+     * has dealt with the changes.
+     * 
+     * @return The region of the screens that has been drawn on.
+     */
+    public DirtyRegion getDirtyRegion() {
+        return dirtyRegion;
+    }
+    
+    /**
+     * Adds the given rectangle to the dirty region and marks the tiles that it
+     * covers as changed since the snapshots. Anything that changes the screens 
+     * needs to call this. Parts of the rectangle that are outside of the picture
+     * are ignored.
+     * 
+     * @param left The left edge of the rectangle.
+     * @param top The top edge of the rectangle.
+     * @param right The right edge of the rectangle (inclusive).
+     * @param bottom The bottom edge of the rectangle (inclusive).
+     */
+    public void addChangedRegion(int left, int top, int right, int bottom) {
+        dirtyRegion.add(left, top, right, bottom);
+        
+        int tilesAcross = TiledScreen.getTilesAcross(pictureType.getWidth());
+        int firstColumn = Math.max(left, 0) / TiledScreen.TILE_WIDTH;
+        int lastColumn = Math.min(right, pictureType.getWidth() - 1) / TiledScreen.TILE_WIDTH;
+        int firstRow = Math.max(top, 0) / TiledScreen.TILE_HEIGHT;
+        int lastRow = Math.min(bottom, pictureType.getHeight() - 1) / TiledScreen.TILE_HEIGHT;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                changedTiles[(row * tilesAcross) + column] = true;
+            }
+        }
+    }
+    
+    /**
+     * Takes new snapshots of the screens. Each snapshot shares the tiles that
+     * haven't changed with the previous one, so this only costs as much as the 
+     * area of the screens that has changed since the last snapshot.
+     */
+    public void snapshotScreens() {
+        int width = pictureType.getWidth();
+        visualSnapshot = TiledScreen.snapshot(visualScreen, width, visualSnapshot, changedTiles);
+        prioritySnapshot = TiledScreen.snapshot(priorityScreen, width, prioritySnapshot, changedTiles);
+        if (controlScreen != null) {
+            controlSnapshot = TiledScreen.snapshot(controlScreen, width, controlSnapshot, changedTiles);
+        }
+        Arrays.fill(changedTiles, false);
+    }
+    
+    /**
+     * Copies the given snapshots back in to the screens. Only the tiles that are 
+     * different from the current snapshots, or have changed since, are copied and
+     * added to the dirty region.
+     * 
+     * @param visualSnapshot The snapshot of the visual screen.
+     * @param prioritySnapshot The snapshot of the priority screen.
+     * @param controlSnapshot The snapshot of the control screen, or null for AGI pictures.
+     */
+    public void restoreScreens(TiledScreen visualSnapshot, TiledScreen prioritySnapshot, TiledScreen controlSnapshot) {
+        Arrays.fill(restoredTiles, false);
+        visualSnapshot.restore(visualScreen, this.visualSnapshot, changedTiles, restoredTiles);
+        prioritySnapshot.restore(priorityScreen, this.prioritySnapshot, changedTiles, restoredTiles);
+        if (controlScreen != null) {
+            controlSnapshot.restore(controlScreen, this.controlSnapshot, changedTiles, restoredTiles);
+        }
+        
+        int tilesAcross = TiledScreen.getTilesAcross(pictureType.getWidth());
+        for (int tile = 0; tile < restoredTiles.length; tile++) {
+            if (restoredTiles[tile]) {
+                int left = (tile % tilesAcross) * TiledScreen.TILE_WIDTH;
+                int top = (tile / tilesAcross) * TiledScreen.TILE_HEIGHT;
+                dirtyRegion.add(left, top, left + TiledScreen.TILE_WIDTH - 1, top + TiledScreen.TILE_HEIGHT - 1);
+            }
+        }
+        
+        this.visualSnapshot = visualSnapshot;
+        this.prioritySnapshot = prioritySnapshot;
+        this.controlSnapshot = controlSnapshot;
+        Arrays.fill(changedTiles, false);
+    }
+    
+    public TiledScreen getVisualSnapshot() {
+        return visualSnapshot;
+    }
+    
+    public TiledScreen getPrioritySnapshot() {
+        return prioritySnapshot;
+    }
+    
+    public TiledScreen getControlSnapshot() {
+        return controlSnapshot;
+    }
+    
+    public ToolType getTool() {
+        return tool;
+    }
+    
+    public void setTool(ToolType tool) {
+        this.tool = tool;
+    }
+    
+    public int getVisualColour() {
+        return visualColour;
+    }
+    
+    /**
+     * Sets the current visual colour. As with the EditStatus, white is held 
+     * as the transparent colour since that is the visual background.
+     * 
+     * @param visualColour The new visual colour.
+     */
+    public void setVisualColour(int visualColour) {
+        this.visualColour = (visualColour == 15 ? EditStatus.TRANSPARENT : visualColour);
+    }
+    
+    public int getPriorityColour() {
+        return priorityColour;
+    }
+    
+    /**
+     * Sets the current priority colour. As with the EditStatus, the priority 
+     * background colour is held as the transparent colour.
+     * 
+     * @param priorityColour The new priority colour.
+     */
+    public void setPriorityColour(int priorityColour) {
+        if (pictureType.equals(PictureType.AGI)) {
+            // For AGI, priority starts at 4, so background is red.
+            this.priorityColour = (priorityColour == 4 ? EditStatus.TRANSPARENT : priorityColour);
+        } else {
+            // For SCI0, priority starts at 0, so background is black.
+            this.priorityColour = (priorityColour == 0 ? EditStatus.TRANSPARENT : priorityColour);
+        }
+    }
+    
+    public int getControlColour() {
+        return controlColour;
+    }
+    
+    public void setControlColour(int controlColour) {
+        this.controlColour = (controlColour == 0 ? EditStatus.TRANSPARENT : controlColour);
+    }
+    
+    public int getBrushCode() {
+        return brushCode;
+    }
+    
+    public void setBrushCode(int brushCode) {
+        this.brushCode = brushCode;
+    }
+    
+    public FillType getFillType() {
+        return fillType;
+    }
+    
+    public void setFillType(FillType fillType) {
+        this.fillType = fillType;
+    }
+    
+    /**
+     * Returns true if drawing on the visual screen is enabled.
+     * 
+     * @return true if drawing on the visual screen is enabled.
+     */
+    private boolean isVisualDrawEnabled() {
+        return (visualColour != EditStatus.VISUAL_OFF);
+    }
+    
+    /**
+     * Returns true if drawing on the priority screen is enabled.
+     * 
+     * @return true if drawing on the priority screen is enabled.
+     */
+    private boolean isPriorityDrawEnabled() {
+        return (priorityColour != EditStatus.PRIORITY_OFF);
+    }
+
+    /**
+     * Draws a single pixel on the AGI picture using the current colours.
+     * 
+     * @param x The X position of the pixel.
+     * @param y The Y position of the pixel.
+     */
+    public void putPixel(int x, int y) {
+        int index = (y << 7) + (y << 5) + x;
+        
+        if (isVisualDrawEnabled()) {
+            visualScreen[index] = (byte)visualColour;
+        }
+        if (isPriorityDrawEnabled()) {
+            priorityScreen[index] = (byte)priorityColour;
+        }
+        addChangedRegion(x, y, x, y);
+    }
+    
+    /**
+     * Draw a line the most efficient way we can. Speed is preferred over
+     * removal of duplicated code.
+     * 
+     * @param x1 Start X Coordinate.
+     * @param y1 Start Y Coordinate.
+     * @param x2 End X Coordinate.
+     * @param y2 End Y Coordinate.
+     */
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        int x, y, index, endIndex;
+        byte visualCode, priorityCode;
+
+        addChangedRegion(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+        
+        // Vertical Line.
+        if (x1 == x2) {
+            if (y1 > y2) {
+                y = y1;
+                y1 = y2;
+                y2 = y;
+            }
+
+            index = (y1 << 7) + (y1 << 5) + x1;
+            endIndex = (y2 << 7) + (y2 << 5) + x2;
+
+            if (isVisualDrawEnabled()) {
+                if (isPriorityDrawEnabled()) {
+                    // Vertical line on both visual and priority screens.
+                    visualCode = (byte)visualColour;
+                    priorityCode = (byte)priorityColour;
+
+                    for (; index <= endIndex; index += 160) {
+                        visualScreen[index] = visualCode;
+                        priorityScreen[index] = priorityCode;
+                    }
+                } else {
+                    // Vertical line on only the visual screen.
+                    visualCode = (byte)visualColour;
+
+                    for (; index <= endIndex; index += 160) {
+                        visualScreen[index] = visualCode;
+                    }
+                }
+            } else if (isPriorityDrawEnabled()) {
+                // Vertical line on only the priority screen.
+                priorityCode = (byte)priorityColour;
+
+                for (; index <= endIndex; index += 160) {
+                    priorityScreen[index] = priorityCode;
+                }
+            }
+        }
+        // Horizontal Line.
+        else if (y1 == y2) {
+            if (x1 > x2) {
+                x = x1;
+                x1 = x2;
+                x2 = x;
+            }
+
+            index = (y1 << 7) + (y1 << 5) + x1;
+            endIndex = (y2 << 7) + (y2 << 5) + x2;
+
+            if (isVisualDrawEnabled()) {
+                if (isPriorityDrawEnabled()) {
+                    // Horizontal line on both visual and priority screens.
+                    visualCode = (byte)visualColour;
+                    priorityCode = (byte)priorityColour;
+
+                    for (; index <= endIndex; index++) {
+                        visualScreen[index] = visualCode;
+                        priorityScreen[index] = priorityCode;
+                    }
+                } else {
+                    // Horizontal line on only the visual screen.
+                    visualCode = (byte)visualColour;
+
+                    for (; index <= endIndex; index++) {
+                        visualScreen[index] = visualCode;
+                    }
+                }
+            } else if (isPriorityDrawEnabled()) {
+                // Horizontal line on only the priority screen.
+                priorityCode = (byte)priorityColour;
+
+                for (; index <= endIndex; index++) {
+                    priorityScreen[index] = priorityCode;
+                }
+            }
+
+        } else {
+            int deltaX = x2 - x1;
+            int deltaY = y2 - y1;
+            int stepX = 1;
+            int stepY = 1;
+            int detDelta;
+            int errorX;
+            int errorY;
+            int count;
+
+            if (deltaY < 0) {
+                stepY = -1;
+                deltaY = -deltaY;
+            }
+
+            if (deltaX < 0) {
+                stepX = -1;
+                deltaX = -deltaX;
+            }
+
+            if (deltaY > deltaX) {
+                count = deltaY;
+                detDelta = deltaY;
+                errorX = deltaY / 2;
+                errorY = 0;
+            } else {
+                count = deltaX;
+                detDelta = deltaX;
+                errorX = 0;
+                errorY = deltaX / 2;
+            }
+
+            x = x1;
+            y = y1;
+
+            if (isVisualDrawEnabled()) {
+                if (isPriorityDrawEnabled()) {
+                    // Both visual and priority screens.
+                    visualCode = (byte)visualColour;
+                    priorityCode = (byte)priorityColour;
+
+                    index = (y << 7) + (y << 5) + x;
+                    visualScreen[index] = visualCode;
+                    priorityScreen[index] = priorityCode;
+
+                    do {
+                        errorY = (errorY + deltaY);
+                        if (errorY >= detDelta) {
+                            errorY -= detDelta;
+                            y += stepY;
+                        }
+
+                        errorX = (errorX + deltaX);
+                        if (errorX >= detDelta) {
+                            errorX -= detDelta;
+                            x += stepX;
+                        }
+
+                        index = (y << 7) + (y << 5) + x;
+                        visualScreen[index] = visualCode;
+                        priorityScreen[index] = priorityCode;
+                        count--;
+                    } while (count > 0);
+
+                    index = (y << 7) + (y << 5) + x;
+                    visualScreen[index] = visualCode;
+                    priorityScreen[index] = priorityCode;
+
+                } else {
+                    // Only the visual screen.
+                    visualCode = (byte)visualColour;
+
+                    visualScreen[(y << 7) + (y << 5) + x] = visualCode;
+
+                    do {
+                        errorY = (errorY + deltaY);
+                        if (errorY >= detDelta) {
+                            errorY -= detDelta;
+                            y += stepY;
+                        }
+
+                        errorX = (errorX + deltaX);
+                        if (errorX >= detDelta) {
+                            errorX -= detDelta;
+                            x += stepX;
+                        }
+
+                        visualScreen[(y << 7) + (y << 5) + x] = visualCode;
+                        count--;
+                    } while (count > 0);
+
+                    visualScreen[(y << 7) + (y << 5) + x] = visualCode;
+                }
+            } else if (isPriorityDrawEnabled()) {
+                // Only the priority screen.
+                priorityCode = (byte)priorityColour;
+
+                priorityScreen[(y << 7) + (y << 5) + x] = priorityCode;
+
+                do {
+                    errorY = (errorY + deltaY);
+                    if (errorY >= detDelta) {
+                        errorY -= detDelta;
+                        y += stepY;
+                    }
+
+                    errorX = (errorX + deltaX);
+                    if (errorX >= detDelta) {
+                        errorX -= detDelta;
+                        x += stepX;
+                    }
+
+                    priorityScreen[(y << 7) + (y << 5) + x] = priorityCode;
+                    count--;
+                } while (count > 0);
+
+                priorityScreen[(y << 7) + (y << 5) + x] = priorityCode;
+            }
+        }
+    }
+
+    /**
+     * Performs a fill at the given position on the picture. This is a scanline
+     * span fill. Each span of fillable pixels is found by going west and east 
+     * from a seed pixel and is then filled on each of the enabled screens in one
+     * go. The rows above and below the span are then checked and a new seed is
+     * pushed for the start of each run of fillable pixels. The seeds are kept 
+     * on a stack that is reused between fills and grows when required. Where 
+     * visual drawing is enabled, the visual screen decides what is fillable 
+     * (white pixels), otherwise the priority screen does (red pixels).
+     * 
+     * @param x the X position to fill at.
+     * @param y the Y position to fill at.
+     */
+    public void fill(int x, int y) {
+        // If the fill colour is white then return immediately.
+        if (visualColour == EditStatus.TRANSPARENT) {
+            return;
+        }
+
+        byte[] fillColours = EgaPalette.colourIndexes;
+        
+        // The fill type determines how we fill.
+        switch (fillType) {
+            case NONE:
+                // No fill so return immediately.
+                return;
+            case TRANSPARENT:
+                fillColours = EgaPalette.transparentColourIndexes;
+                break;
+        }
+        
+        boolean fillVisual = isVisualDrawEnabled();
+        boolean fillPriority = isPriorityDrawEnabled();
+        if (!fillVisual && !fillPriority) {
+            return;
+        }
+        byte visualCode = (fillVisual? fillColours[visualColour] : 0);
+        byte priorityCode = (fillPriority? fillColours[priorityColour] : 0);
+        
+        // White for the visual screen and red for the priority screen are both held as transparent.
+        byte[] testScreen = (fillVisual? visualScreen : priorityScreen);
+        byte fillable = (byte)EditStatus.TRANSPARENT;
+        if ((fillVisual? visualCode : priorityCode) == fillable) {
+            // Filling with the background colour would never finish.
+            return;
+        }
+        
+        int width = pictureType.getWidth();
+        int numberOfPixels = pictureType.getNumberOfPixels();
+        int[] stack = fillStack;
+        int top = 0;
+        
+        // The bounds of the filled spans, for the dirty region.
+        int firstIndex = numberOfPixels;
+        int lastIndex = -1;
+        int leftX = width;
+        int rightX = -1;
+        
+        stack[top++] = (y * width) + x;
+
+        while (top > 0) {
+            int index = stack[--top];
+
+            if (testScreen[index] != fillable) {
+                continue;
+            }
+            
+            int lineStartIndex = index - (index % width);
+            int lineEndIndex = lineStartIndex + width - 1;
+
+            // Go west.
+            int westIndex = index - 1;
+            while ((westIndex >= lineStartIndex) && (testScreen[westIndex] == fillable)) {
+                westIndex--;
+            }
+            westIndex++;
+
+            // Go east
+            int eastIndex = index + 1;
+            while ((eastIndex <= lineEndIndex) && (testScreen[eastIndex] == fillable)) {
+                eastIndex++;
+            }
+
+            // Draw the span on each of the enabled screens.
+            if (fillVisual) {
+                Arrays.fill(visualScreen, westIndex, eastIndex, visualCode);
+            }
+            if (fillPriority) {
+                Arrays.fill(priorityScreen, westIndex, eastIndex, priorityCode);
+            }
+            firstIndex = Math.min(firstIndex, westIndex);
+            lastIndex = Math.max(lastIndex, eastIndex - 1);
+            leftX = Math.min(leftX, westIndex - lineStartIndex);
+            rightX = Math.max(rightX, (eastIndex - 1) - lineStartIndex);
+            
+            // Make sure there is room for the most seeds that the two rows could add.
+            int maximumSeeds = eastIndex - westIndex + 1;
+            if ((top + maximumSeeds) > stack.length) {
+                stack = fillStack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + maximumSeeds));
+            }
+
+            // Test above.
+            if (westIndex >= width) {
+                top = pushSeeds(testScreen, fillable, westIndex - width, eastIndex - width, stack, top);
+            }
+
+            // Test below.
+            if ((eastIndex + width) <= numberOfPixels) {
+                top = pushSeeds(testScreen, fillable, westIndex + width, eastIndex + width, stack, top);
+            }
+        }
+        
+        if (lastIndex >= 0) {
+            addChangedRegion(leftX, firstIndex / width, rightX, lastIndex / width);
+        }
+    }
+    
+    /**
+     * Pushes a fill seed on to the stack for the start of each run of fillable
+     * pixels in the given part of a row.
+     * 
+     * @param testScreen The screen that decides what is fillable.
+     * @param fillable The value of a fillable pixel.
+     * @param fromIndex The index of the first pixel to check.
+     * @param toIndex The index after the last pixel to check.
+     * @param stack The stack of seeds.
+     * @param top The number of seeds on the stack.
+     * 
+     * @return The new number of seeds on the stack.
+     */
+    private static int pushSeeds(byte[] testScreen, byte fillable, int fromIndex, int toIndex, int[] stack, int top) {
+        boolean inRun = false;
+        for (int index = fromIndex; index < toIndex; index++) {
+            if (testScreen[index] == fillable) {
+                if (!inRun) {
+                    stack[top++] = index;
+                    inRun = true;
+                }
+            } else {
+                inRun = false;
+            }
+        }
+        return top;
+    }
+
+    /** Circle Bitmaps */
+    public static final short circles[][] = new short[][] { { 0x80 }, { 0xfc }, { 0x5f, 0xf4 }, { 0x66, 0xff, 0xf6, 0x60 }, { 0x23, 0xbf, 0xff, 0xff, 0xee, 0x20 }, { 0x31, 0xe7, 0x9e, 0xff, 0xff, 0xde, 0x79, 0xe3, 0x00 }, { 0x38, 0xf9, 0xf3, 0xef, 0xff, 0xff, 0xff, 0xfe, 0xf9, 0xf3, 0xe3, 0x80 }, { 0x18, 0x3c, 0x7e, 0x7e, 0x7e, 0xff, 0xff, 0xff, 0xff, 0xff, 0x7e, 0x7e, 0x7e, 0x3c, 0x18 } };
+
+    /** Splatter Brush Bitmaps */
+    public static final short splatterMap[] = new short[] { 0x20, 0x94, 0x02, 0x24, 0x90, 0x82, 0xa4, 0xa2, 0x82, 0x09, 0x0a, 0x22, 0x12, 0x10, 0x42, 0x14, 0x91, 0x4a, 0x91, 0x11, 0x08, 0x12, 0x25, 0x10, 0x22, 0xa8, 0x14, 0x24, 0x00, 0x50, 0x24, 0x04 };
+
+    /** Starting Bit Position */
+    public static final short splatterStart[] = new short[] { 0x00, 0x18, 0x30, 0xc4, 0xdc, 0x65, 0xeb, 0x48, 0x60, 0xbd, 0x89, 0x05, 0x0a, 0xf4, 0x7d, 0x7d, 0x85, 0xb0, 0x8e, 0x95, 0x1f, 0x22, 0x0d, 0xdf, 0x2a, 0x78, 0xd5, 0x73, 0x1c, 0xb4, 0x40, 0xa1, 0xb9, 0x3c, 0xca, 0x58, 0x92, 0x34, 0xcc, 0xce, 0xd7, 0x42, 0x90, 0x0f, 0x8b, 0x7f, 0x32, 0xed, 0x5c, 0x9d, 0xc8, 0x99, 0xad, 0x4e, 0x56, 0xa6, 0xf7, 0x68, 0xb7, 0x25, 0x82, 0x37, 0x3a, 0x51, 0x69, 0x26, 0x38, 0x52, 0x9e, 0x9a, 0x4f, 0xa7, 0x43, 0x10, 0x80, 0xee, 0x3d, 0x59, 0x35, 0xcf, 0x79, 0x74, 0xb5, 0xa2, 0xb1, 0x96, 0x23, 0xe0, 0xbe, 0x05, 0xf5, 0x6e, 0x19, 0xc5, 0x66, 0x49, 0xf0, 0xd1, 0x54, 0xa9, 0x70, 0x4b, 0xa4, 0xe2, 0xe6, 0xe5, 0xab, 0xe4, 0xd2, 0xaa, 0x4c, 0xe3, 0x06, 0x6f, 0xc6, 0x4a, 0xa4, 0x75, 0x97, 0xe1 };
+
+    /**
+     * Plots a brush pattern. Draws pixels, circles, squares, or splatter 
+     * brush patterns depending on the pattern code.
+     * 
+     * @param patNum the pattern number to use.
+     * @param x the X position to plot at. 
+     * @param y the Y position to plot at.
+     */
+    public void plotPattern(int patNum, int x, int y) {
+        int circlePos = 0;
+        int x1, y1, penSize, bitPos = splatterStart[patNum];
+        byte visualCode = (isVisualDrawEnabled() ? (byte)visualColour : 0);
+        byte priorityCode = (isPriorityDrawEnabled() ? (byte)priorityColour : 0);
+        int patCode = brushCode;
+
+        penSize = (patCode & 7);
+
+        if (x < ((penSize / 2) + 1)) {
+            x = ((penSize / 2) + 1);
+
+        } else if (x > 160 - ((penSize / 2) + 1)) {
+            x = 160 - ((penSize / 2) + 1);
+        }
+
+        if (y < penSize) {
+            y = penSize;
+
+        } else if (y >= 168 - penSize) {
+            y = 167 - penSize;
+        }
+        
+        addChangedRegion(x - ((penSize + 1) / 2), y - penSize, x + (penSize / 2), y + penSize);
+
+        for (y1 = y - penSize; y1 <= y + penSize; y1++) {
+            for (x1 = x - ((int) Math.ceil((float) penSize / 2)); x1 <= x + ((int) Math.floor((float) penSize / 2)); x1++) {
+                if ((patCode & 0x10) > 0) { /* Square */
+                    if ((patCode & 0x20) > 0) {
+                        if (((splatterMap[bitPos >> 3] >> (7 - (bitPos & 7))) & 1) > 0) {
+                            if (isVisualDrawEnabled()) {
+                                visualScreen[(y1 << 7) + (y1 << 5) + x1] = visualCode;
+                            }
+                            if (isPriorityDrawEnabled()) {
+                                priorityScreen[(y1 << 7) + (y1 << 5) + x1] = priorityCode;
+                            }
+                        }
+                        bitPos++;
+                        if (bitPos == 0xff) {
+                            bitPos = 0;
+                        }
+                    } else {
+                        if (isVisualDrawEnabled()) {
+                            visualScreen[(y1 << 7) + (y1 << 5) + x1] = visualCode;
+                        }
+                        if (isPriorityDrawEnabled()) {
+                            priorityScreen[(y1 << 7) + (y1 << 5) + x1] = priorityCode;
+                        }
+                    }
+                } else { /* Circle */
+                    if (((circles[patCode & 7][circlePos >> 3] >> (7 - (circlePos & 7))) & 1) > 0) {
+                        if ((patCode & 0x20) > 0) {
+                            if (((splatterMap[bitPos >> 3] >> (7 - (bitPos & 7))) & 1) > 0) {
+                                if (isVisualDrawEnabled()) {
+                                    visualScreen[(y1 << 7) + (y1 << 5) + x1] = visualCode;
+                                }
+                                if (isPriorityDrawEnabled()) {
+                                    priorityScreen[(y1 << 7) + (y1 << 5) + x1] = priorityCode;
+                                }
+                            }
+                            bitPos++;
+                            if (bitPos == 0xff) {
+                                bitPos = 0;
+                            }
+                        } else {
+                            if (isVisualDrawEnabled()) {
+                                visualScreen[(y1 << 7) + (y1 << 5) + x1] = visualCode;
+                            }
+                            if (isPriorityDrawEnabled()) {
+                                priorityScreen[(y1 << 7) + (y1 << 5) + x1] = priorityCode;
+                            }
+                        }
+                    }
+                    circlePos++;
+                }
+            }
+        }
+    }
+}
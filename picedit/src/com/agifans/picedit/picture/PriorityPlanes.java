@@ -0,0 +1,203 @@
+package com.agifans.picedit.picture;
+
+import com.agifans.picedit.utils.EgaPalette;
+
+/**
+ * Holds facts about the priority screen that are derived from it, so that they
+ * can be looked up rather than worked out from the priority screen each time.
+ * There are two kinds of derived plane:
+ *
+ * The effective priority of every pixel. This is the priority that an object
+ * standing in front of the pixel is compared against. Control lines (colours 0
+ * to 3) don't have a priority of their own, so a control line pixel takes the
+ * priority of the first pixel below it that isn't a control line. Water and the
+ * transparent priority colour count as red.
+ *
+ * A bit mask for each type of control line, i.e. block, conditional block,
+ * signal and water, with one bit per pixel and each row starting on a new long.
+ * This means that a whole row of pixels can be tested with a few mask operations.
+ *
+ * The planes are updated from the DirtyRegion of the priority screen rather than
+ * being worked out again from scratch. Like the DirtyRegion, this class is not
+ * thread safe.
+ */
+public class PriorityPlanes {
+
+    /**
+     * The control line that nothing can cross.
+     */
+    public static final int BLOCK = 0;
+
+    /**
+     * The control line that objects can be told to ignore.
+     */
+    public static final int CONDITIONAL = 1;
+
+    /**
+     * The control line that signals when an object is on it.
+     */
+    public static final int SIGNAL = 2;
+
+    /**
+     * The control line for water.
+     */
+    public static final int WATER = 3;
+
+    /**
+     * The number of control line types.
+     */
+    private static final int NUMBER_OF_CONTROL_LINES = 4;
+
+    /**
+     * The width of the picture in pixels.
+     */
+    private int width;
+
+    /**
+     * The height of the picture in pixels.
+     */
+    private int height;
+
+    /**
+     * The effective priority of each pixel.
+     */
+    private byte[] priorities;
+
+    /**
+     * The bit mask for each type of control line.
+     */
+    private long[][] controlLines;
+
+    /**
+     * The number of longs in each row of a control line bit mask.
+     */
+    private int wordsPerRow;
+
+    /**
+     * Constructor for PriorityPlanes. The planes are not valid until the whole
+     * of the priority screen has been passed to update.
+     *
+     * @param width The width of the picture in pixels.
+     * @param height The height of the picture in pixels.
+     */
+    public PriorityPlanes(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.priorities = new byte[width * height];
+        this.wordsPerRow = (width + 63) >> 6;
+        this.controlLines = new long[NUMBER_OF_CONTROL_LINES][wordsPerRow * height];
+    }
+
+    /**
+     * Updates the planes for the given region of the priority screen having changed.
+     * A change to a pixel can also change the effective priority of the control
+     * lines above it, so each column is updated from the bottom of the region up
+     * until a pixel above the region is reached whose effective priority is the
+     * same as it was.
+     *
+     * @param priorityScreen The priority screen.
+     * @param region The region of the priority screen that has changed.
+     */
+    public void update(byte[] priorityScreen, DirtyRegion region) {
+        if (region.isEmpty()) {
+            return;
+        }
+        int left = region.getLeft();
+        int top = region.getTop();
+        int right = region.getRight();
+        int bottom = region.getBottom();
+
+        for (int x = left; x <= right; x++) {
+            int offset = (bottom * width) + x;
+            int below = (bottom < (height - 1)? priorities[offset + width] : -1);
+            for (int y = bottom; y >= 0; y--, offset -= width) {
+                int priority = EgaPalette.colourNumbers[priorityScreen[offset]];
+                if (priority >= 3) {
+                    // Convert transparent priority value back to red. Also handles KQ1 fix (i.e. 3 value)
+                    if ((priority == 3) || (priority == 16)) {
+                        priority = 4;
+                    }
+                } else if (below >= 0) {
+                    priority = below;
+                }
+                if ((y < top) && (priorities[offset] == priority)) {
+                    break;
+                }
+                priorities[offset] = (byte)priority;
+                below = priority;
+            }
+        }
+
+        for (int y = top; y <= bottom; y++) {
+            int offset = (y * width) + left;
+            int rowStart = y * wordsPerRow;
+            for (int x = left; x <= right; x++, offset++) {
+                int colour = EgaPalette.colourNumbers[priorityScreen[offset]];
+                int word = rowStart + (x >> 6);
+                long bit = 1L << (x & 63);
+                for (int controlLine = 0; controlLine < NUMBER_OF_CONTROL_LINES; controlLine++) {
+                    if (colour == controlLine) {
+                        controlLines[controlLine][word] |= bit;
+                    } else {
+                        controlLines[controlLine][word] &= ~bit;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the effective priority of the given pixel, i.e. the priority that an
+     * object in front of the pixel is compared against.
+     *
+     * @param x The X position of the pixel.
+     * @param y The Y position of the pixel.
+     *
+     * @return The effective priority of the pixel.
+     */
+    public int getPriority(int x, int y) {
+        return priorities[(y * width) + x];
+    }
+
+    /**
+     * Returns true if the given pixel is the given type of control line.
+     *
+     * @param controlLine The type of control line, e.g. BLOCK or WATER.
+     * @param x The X position of the pixel.
+     * @param y The Y position of the pixel.
+     *
+     * @return true if the pixel is the given type of control line; otherwise false.
+     */
+    public boolean isControlLine(int controlLine, int x, int y) {
+        return ((controlLines[controlLine][(y * wordsPerRow) + (x >> 6)] & (1L << (x & 63))) != 0);
+    }
+
+    /**
+     * Returns true if any of the pixels on the given row from the left position to
+     * the right position (both inclusive) are the given type of control line.
+     *
+     * @param controlLine The type of control line, e.g. BLOCK or WATER.
+     * @param left The X position of the first pixel.
+     * @param right The X position of the last pixel.
+     * @param y The row of the pixels.
+     *
+     * @return true if any of the pixels are the given type of control line; otherwise false.
+     */
+    public boolean isControlLine(int controlLine, int left, int right, int y) {
+        long[] bits = controlLines[controlLine];
+        int rowStart = y * wordsPerRow;
+        for (int word = (left >> 6); word <= (right >> 6); word++) {
+            long mask = -1L;
+            if (word == (left >> 6)) {
+                mask &= (-1L << (left & 63));
+            }
+            if (word == (right >> 6)) {
+                mask &= (-1L >>> (63 - (right & 63)));
+            }
+            if ((bits[rowStart + word] & mask) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,372 @@
+package com.agifans.picedit.picture;
+
+import java.util.Arrays;
+
+/**
+ * The picture codes of a PictureCodeBuffer compiled in to a flat stream of draw
+ * operations. Each action is decoded once, by the PictureCodeHandler for its
+ * action code, with the coordinates unpacked, the step line corners and relative
+ * line offsets resolved in to absolute end points, and the brush patterns worked
+ * out, so that the PictureRenderer only has to run through the operations when
+ * it draws the action rather than decode it again.
+ *
+ * Every operation is held as the operation code, the picture position of the
+ * code that it came from, and then its operands. The picture position is what
+ * allows an action to be drawn only up to a given end position, as happens when
+ * the picture position is part way through an action's data.
+ *
+ * The actions are compiled in order from the start of the picture as they are
+ * needed. When the codes change, only the actions from the one before the change
+ * onwards are thrown away, so the start of the picture doesn't need to be compiled
+ * again. Like the PictureCodeBuffer that it belongs to, this class is not thread
+ * safe.
+ *
+ * The PictureCodeHandlers of any dialect compile their actions through the public
+ * methods, using the operation codes below.
+ */
+public class RenderProgram {
+
+    // These are the operation codes. The operands are listed after each one.
+    public static final int SET_VISUAL_COLOUR = 0;     // colour
+    public static final int SET_PRIORITY_COLOUR = 1;   // colour
+    public static final int SET_BRUSH_CODE = 2;        // brushCode
+    public static final int SET_TOOL = 3;              // ToolType ordinal
+    public static final int PIXEL = 4;                 // x, y
+    public static final int LINE = 5;                  // x1, y1, x2, y2
+    public static final int FILL = 6;                  // x, y
+    public static final int PLOT = 7;                  // pattern, x, y
+
+    /**
+     * The picture codes that the program is compiled from.
+     */
+    private PictureCodeBuffer pictureCodes;
+
+    /**
+     * The compiled operations.
+     */
+    private int[] ops;
+
+    /**
+     * The number of ints of the ops array that are in use.
+     */
+    private int opCount;
+
+    /**
+     * The offset within the ops array of the first operation of the action at each
+     * picture position. The entry after the end of an action holds the offset of
+     * the end of its operations.
+     */
+    private int[] opStarts;
+
+    /**
+     * The picture position that drawing carries on from after the action at each
+     * picture position, or -1 for positions that are not the start of an action.
+     */
+    private int[] nextPositions;
+
+    /**
+     * Says whether the action at each picture position stops at the end position
+     * when drawn, rather than always being drawn in full.
+     */
+    private boolean[] truncatable;
+
+    /**
+     * The brush code in effect before the action at each picture position.
+     */
+    private int[] brushCodes;
+
+    /**
+     * The picture position up to which the codes have been compiled. This is
+     * always the start of the next action to compile.
+     */
+    private int compiledTo;
+
+    /**
+     * The brush code in effect at the compiledTo position. Unlike the other draw
+     * operations, the codes of a brush action depend on the brush code.
+     */
+    private int brushCode;
+
+    /**
+     * Constructor for RenderProgram.
+     *
+     * @param pictureCodes The picture codes to compile.
+     */
+    RenderProgram(PictureCodeBuffer pictureCodes) {
+        this.pictureCodes = pictureCodes;
+        this.ops = new int[256];
+        this.opStarts = new int[0];
+        this.nextPositions = new int[0];
+        this.truncatable = new boolean[0];
+        this.brushCodes = new int[0];
+    }
+
+    /**
+     * Constructor for RenderProgram that compiles from the given picture position
+     * rather than the start of the picture. This is for drawing an action that
+     * isn't reached when drawing from the start of the picture, which can happen
+     * with corrupt pictures.
+     *
+     * @param pictureCodes The picture codes to compile.
+     * @param position The picture position of the first action to compile.
+     * @param brushCode The brush code in effect at the position.
+     */
+    RenderProgram(PictureCodeBuffer pictureCodes, int position, int brushCode) {
+        this(pictureCodes);
+        this.compiledTo = position;
+        this.brushCode = brushCode;
+    }
+
+    /**
+     * Throws away the compiled actions that are affected by the picture codes
+     * changing at the given position. The action before the change is included,
+     * since codes inserted at the end of an action become part of it. This is
+     * also the case when the last action compiled ran to the end of the codes.
+     *
+     * @param position The picture position of the first code that has changed.
+     */
+    void invalidate(int position) {
+        if (position > (compiledTo + 1)) {
+            return;
+        }
+        int actionPosition = Math.min(position, compiledTo) - 1;
+        while ((actionPosition > 0) && (nextPositions[actionPosition] < 0)) {
+            actionPosition--;
+        }
+        if (actionPosition <= 0) {
+            compiledTo = 0;
+            opCount = 0;
+            brushCode = 0;
+        } else {
+            compiledTo = actionPosition;
+            opCount = opStarts[actionPosition];
+            brushCode = brushCodes[actionPosition];
+        }
+    }
+
+    /**
+     * Compiles the actions up to and including the one at the given picture position,
+     * if they haven't been already.
+     *
+     * @param position The picture position of the action about to be drawn.
+     *
+     * @return true if there is a compiled action at the position; otherwise false.
+     */
+    boolean compileTo(int position) {
+        int size = pictureCodes.size();
+        if ((position < 0) || (position >= size)) {
+            return false;
+        }
+        while (compiledTo <= position) {
+            compileAction(compiledTo, size);
+        }
+        return (nextPositions[position] >= 0);
+    }
+
+    int[] getOps() {
+        return ops;
+    }
+
+    /**
+     * Gets the offset within the ops array of the first operation of the compiled
+     * action at the given picture position. For the position after the end of an
+     * action, this is the offset of the end of its operations.
+     *
+     * @param position The picture position.
+     *
+     * @return The offset within the ops array.
+     */
+    int getOpStart(int position) {
+        return opStarts[position];
+    }
+
+    /**
+     * Gets the picture position that drawing carries on from after the compiled
+     * action at the given picture position has been drawn in full.
+     *
+     * @param position The picture position of the action.
+     *
+     * @return The picture position of the next action.
+     */
+    int getNextPosition(int position) {
+        return nextPositions[position];
+    }
+
+    /**
+     * Returns true if the compiled action at the given picture position stops at
+     * the end position when drawn. The actions that only change the render state
+     * read their data whatever the end position is.
+     *
+     * @param position The picture position of the action.
+     *
+     * @return true if the action stops at the end position; otherwise false.
+     */
+    boolean isTruncatable(int position) {
+        return truncatable[position];
+    }
+
+    /**
+     * Compiles the action at the given picture position, using the handler for its
+     * action code from the picture codes' PictureCodeRegistry. A code without a
+     * handler is skipped, along with the data after it up to the next action.
+     *
+     * @param position The picture position of the action.
+     * @param size The number of picture codes.
+     */
+    private void compileAction(int position, int size) {
+        if (opStarts.length <= size) {
+            int capacity = Math.max(size + 1, opStarts.length * 2);
+            opStarts = Arrays.copyOf(opStarts, capacity);
+            nextPositions = Arrays.copyOf(nextPositions, capacity);
+            truncatable = Arrays.copyOf(truncatable, capacity);
+            brushCodes = Arrays.copyOf(brushCodes, capacity);
+        }
+        opStarts[position] = opCount;
+        brushCodes[position] = brushCode;
+
+        int action = pictureCodes.getCode(position);
+        PictureCodeHandler handler = pictureCodes.getCodeRegistry().getHandler(action);
+        int index = position + 1;
+        boolean isTruncatable = false;
+        if (handler != null) {
+            index = handler.compile(this, position, index, size - 1);
+            isTruncatable = handler.isTruncatable();
+        } else {
+            // An attempt to draw a picture that is corrupt.
+            System.out.printf("Unknown picture code : %X, picturePosition: %d\n", action, position);
+            while ((index < size) && !pictureCodes.isActionCode(index) && !pictureCodes.isEndCode(index)) {
+                index++;
+            }
+        }
+
+        nextPositions[position] = index;
+        truncatable[position] = isTruncatable;
+        for (int i = position + 1; i < index; i++) {
+            nextPositions[i] = -1;
+        }
+        opStarts[index] = opCount;
+        compiledTo = index;
+    }
+
+    public PictureCodeBuffer getPictureCodes() {
+        return pictureCodes;
+    }
+
+    public int getBrushCode() {
+        return brushCode;
+    }
+
+    public void setBrushCode(int brushCode) {
+        this.brushCode = brushCode;
+    }
+
+    /**
+     * Adds an operation with no operands to the end of the program.
+     *
+     * @param op The operation code.
+     * @param position The picture position of the code that the operation came from.
+     */
+    public void addOp(int op, int position) {
+        ensureRoom(2);
+        ops[opCount++] = op;
+        ops[opCount++] = position;
+    }
+
+    /**
+     * Adds an operation with one operand to the end of the program.
+     *
+     * @param op The operation code.
+     * @param position The picture position of the code that the operation came from.
+     * @param a The operand.
+     */
+    public void addOp(int op, int position, int a) {
+        ensureRoom(3);
+        ops[opCount++] = op;
+        ops[opCount++] = position;
+        ops[opCount++] = a;
+    }
+
+    /**
+     * Adds an operation with two operands to the end of the program.
+     *
+     * @param op The operation code.
+     * @param position The picture position of the code that the operation came from.
+     * @param a The first operand.
+     * @param b The second operand.
+     */
+    public void addOp(int op, int position, int a, int b) {
+        ensureRoom(4);
+        ops[opCount++] = op;
+        ops[opCount++] = position;
+        ops[opCount++] = a;
+        ops[opCount++] = b;
+    }
+
+    /**
+     * Adds an operation with three operands to the end of the program.
+     *
+     * @param op The operation code.
+     * @param position The picture position of the code that the operation came from.
+     * @param a The first operand.
+     * @param b The second operand.
+     * @param c The third operand.
+     */
+    public void addOp(int op, int position, int a, int b, int c) {
+        ensureRoom(5);
+        ops[opCount++] = op;
+        ops[opCount++] = position;
+        ops[opCount++] = a;
+        ops[opCount++] = b;
+        ops[opCount++] = c;
+    }
+
+    /**
+     * Adds an operation with four operands to the end of the program.
+     *
+     * @param op The operation code.
+     * @param position The picture position of the code that the operation came from.
+     * @param a The first operand.
+     * @param b The second operand.
+     * @param c The third operand.
+     * @param d The fourth operand.
+     */
+    public void addOp(int op, int position, int a, int b, int c, int d) {
+        ensureRoom(6);
+        ops[opCount++] = op;
+        ops[opCount++] = position;
+        ops[opCount++] = a;
+        ops[opCount++] = b;
+        ops[opCount++] = c;
+        ops[opCount++] = d;
+    }
+
+    /**
+     * Adds an operation with any number of operands to the end of the program. The
+     * fixed arity versions above are used for four operands or fewer, so that no
+     * array is created for the operands.
+     *
+     * @param op The operation code.
+     * @param position The picture position of the code that the operation came from.
+     * @param operands The operands of the operation.
+     */
+    public void addOp(int op, int position, int... operands) {
+        ensureRoom(operands.length + 2);
+        ops[opCount++] = op;
+        ops[opCount++] = position;
+        for (int operand : operands) {
+            ops[opCount++] = operand;
+        }
+    }
+
+    /**
+     * Makes sure that the op array has room for the given number of ints after the
+     * operations that it already holds, growing it if required.
+     *
+     * @param count The number of ints that are about to be added.
+     */
+    private void ensureRoom(int count) {
+        if ((opCount + count) > ops.length) {
+            ops = Arrays.copyOf(ops, Math.max(ops.length * 2, opCount + count));
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package com.agifans.picedit.picture;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of one of the picture screens, i.e. the visual, priority
+ * or control screen, held as a grid of fixed size tiles. A new snapshot is taken
+ * from the previous one and only copies the tiles that have changed since then,
+ * sharing all of the others, so a snapshot costs the array of tile references
+ * plus the area that has changed rather than a copy of the whole screen. Tiles
+ * that are all one value, such as the untouched background, are shared by every
+ * snapshot. The other tiles usually only use a handful of distinct palette
+ * indexes, so a tile with no more than 16 of them is held as indexes in to a
+ * small local palette, packed two to a byte, which halves its size.
+ *
+ * Since the tiles never change once they have been made, the same tile can be
+ * shared by snapshots that are used on different threads. The PictureCache keeps
+ * a count of the number of its entries that use each tile so that it knows how
+ * many bytes are used by the tiles that its entries hold between them.
+ */
+public class TiledScreen {
+
+    /**
+     * The width of a tile in pixels.
+     */
+    public static final int TILE_WIDTH = 16;
+
+    /**
+     * The height of a tile in pixels.
+     */
+    public static final int TILE_HEIGHT = 8;
+
+    /**
+     * The number of pixels in a tile.
+     */
+    private static final int TILE_SIZE = TILE_WIDTH * TILE_HEIGHT;
+
+    /**
+     * The most distinct values that a tile can have and still be packed two pixels to a byte.
+     */
+    private static final int MAX_PACKED_COLOURS = 16;
+
+    /**
+     * The approximate number of bytes used by each tile reference, including its share of the array overhead.
+     */
+    private static final int REFERENCE_SIZE = 4;
+
+    /**
+     * The tiles that are all one value, indexed by that value. These are shared
+     * by all snapshots and are made the first time that they are needed.
+     */
+    private static final Tile[] UNIFORM_TILES = new Tile[256];
+
+    /**
+     * The width of the screen in pixels.
+     */
+    private int width;
+
+    /**
+     * The height of the screen in pixels.
+     */
+    private int height;
+
+    /**
+     * The tiles, in rows from the top left of the screen.
+     */
+    private Tile[] tiles;
+
+    /**
+     * Constructor for TiledScreen.
+     *
+     * @param width The width of the screen in pixels.
+     * @param height The height of the screen in pixels.
+     */
+    private TiledScreen(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.tiles = new Tile[getTilesAcross(width) * getTilesDown(height)];
+    }
+
+    /**
+     * Gets the number of tiles across a screen of the given width.
+     *
+     * @param width The width of the screen in pixels.
+     *
+     * @return The number of tiles across the screen.
+     */
+    public static int getTilesAcross(int width) {
+        return (width + TILE_WIDTH - 1) / TILE_WIDTH;
+    }
+
+    /**
+     * Gets the number of tiles down a screen of the given height.
+     *
+     * @param height The height of the screen in pixels.
+     *
+     * @return The number of tiles down the screen.
+     */
+    public static int getTilesDown(int height) {
+        return (height + TILE_HEIGHT - 1) / TILE_HEIGHT;
+    }
+
+    /**
+     * Takes a snapshot of the given screen. The tiles that haven't changed since
+     * the base snapshot are shared with it, and only the changed tiles are copied.
+     *
+     * @param screen The pixel data of the screen.
+     * @param width The width of the screen in pixels.
+     * @param base The snapshot that the screen was the same as apart from the changed tiles, or null if there isn't one.
+     * @param changedTiles Says which tiles have changed since the base snapshot.
+     *
+     * @return The new snapshot.
+     */
+    public static TiledScreen snapshot(byte[] screen, int width, TiledScreen base, boolean[] changedTiles) {
+        TiledScreen snapshot = new TiledScreen(width, screen.length / width);
+        int tilesAcross = getTilesAcross(width);
+        for (int tile = 0; tile < snapshot.tiles.length; tile++) {
+            if ((base != null) && !changedTiles[tile]) {
+                snapshot.tiles[tile] = base.tiles[tile];
+            } else {
+                int left = (tile % tilesAcross) * TILE_WIDTH;
+                int top = (tile / tilesAcross) * TILE_HEIGHT;
+                if ((base != null) && base.tiles[tile].isSameAs(screen, width, left, top, snapshot.height)) {
+                    snapshot.tiles[tile] = base.tiles[tile];
+                } else {
+                    snapshot.tiles[tile] = createTile(screen, width, left, top, snapshot.height);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Creates a tile holding the given part of the screen, or returns the shared
+     * tile if all of the pixels are the same value.
+     *
+     * @param screen The pixel data of the screen.
+     * @param width The width of the screen in pixels.
+     * @param left The left edge of the tile.
+     * @param top The top edge of the tile.
+     * @param height The height of the screen in pixels.
+     *
+     * @return The tile.
+     */
+    private static Tile createTile(byte[] screen, int width, int left, int top, int height) {
+        int tileWidth = Math.min(TILE_WIDTH, width - left);
+        int tileHeight = Math.min(TILE_HEIGHT, height - top);
+        byte[] pixels = new byte[TILE_SIZE];
+        byte[] colours = new byte[MAX_PACKED_COLOURS];
+        colours[0] = screen[(top * width) + left];
+        int numberOfColours = 1;
+        byte lastColour = colours[0];
+        for (int y = 0; y < tileHeight; y++) {
+            int index = ((top + y) * width) + left;
+            System.arraycopy(screen, index, pixels, y * TILE_WIDTH, tileWidth);
+            for (int x = 0; (x < tileWidth) && (numberOfColours <= MAX_PACKED_COLOURS); x++) {
+                byte colour = screen[index + x];
+                if (colour != lastColour) {
+                    if (indexOf(colours, Math.min(numberOfColours, MAX_PACKED_COLOURS), colour) < 0) {
+                        if (numberOfColours < MAX_PACKED_COLOURS) {
+                            colours[numberOfColours] = colour;
+                        }
+                        numberOfColours++;
+                    }
+                    lastColour = colour;
+                }
+            }
+        }
+        if (numberOfColours == 1) {
+            int tileIndex = colours[0] & 0xFF;
+            Tile uniformTile = UNIFORM_TILES[tileIndex];
+            if (uniformTile == null) {
+                byte[] uniformPixels = new byte[TILE_SIZE];
+                Arrays.fill(uniformPixels, colours[0]);
+                uniformTile = UNIFORM_TILES[tileIndex] = new Tile(uniformPixels, null, true);
+            }
+            return uniformTile;
+        }
+        if (numberOfColours <= MAX_PACKED_COLOURS) {
+            byte[] palette = Arrays.copyOf(colours, numberOfColours);
+            byte[] data = new byte[TILE_SIZE / 2];
+            for (int y = 0; y < tileHeight; y++) {
+                for (int x = 0; x < tileWidth; x++) {
+                    int i = (y * TILE_WIDTH) + x;
+                    int index = indexOf(palette, numberOfColours, pixels[i]);
+                    data[i >> 1] |= (byte)((i & 1) == 0? index << 4 : index);
+                }
+            }
+            return new Tile(data, palette, false);
+        }
+        return new Tile(pixels, null, false);
+    }
+
+    /**
+     * Returns the position of the given value within the first count entries
+     * of the given array, or -1 if it isn't there.
+     *
+     * @param values The array to search.
+     * @param count The number of entries in the array to search.
+     * @param value The value to search for.
+     *
+     * @return The position of the value, or -1 if not found.
+     */
+    private static int indexOf(byte[] values, int count, byte value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies this snapshot back in to the given screen. Only the tiles that are
+     * different from the snapshot that the screen currently matches, or that have
+     * changed since then, need to be copied.
+     *
+     * @param screen The pixel data of the screen to copy the snapshot in to.
+     * @param current The snapshot that the screen was the same as apart from the changed tiles, or null if there isn't one.
+     * @param changedTiles Says which tiles have changed since the current snapshot.
+     * @param copiedTiles Set to true for each tile that was copied.
+     */
+    public void restore(byte[] screen, TiledScreen current, boolean[] changedTiles, boolean[] copiedTiles) {
+        int tilesAcross = getTilesAcross(width);
+        for (int tile = 0; tile < tiles.length; tile++) {
+            if ((current == null) || changedTiles[tile] || (current.tiles[tile] != tiles[tile])) {
+                int left = (tile % tilesAcross) * TILE_WIDTH;
+                int top = (tile / tilesAcross) * TILE_HEIGHT;
+                int tileWidth = Math.min(TILE_WIDTH, width - left);
+                int tileHeight = Math.min(TILE_HEIGHT, height - top);
+                Tile source = tiles[tile];
+                for (int y = 0; y < tileHeight; y++) {
+                    source.copyRow(y, screen, ((top + y) * width) + left, tileWidth);
+                }
+                copiedTiles[tile] = true;
+            }
+        }
+    }
+
+    /**
+     * Counts this snapshot's tiles as being held by one more PictureCache entry.
+     * This must be called while holding the PictureCache's lock.
+     *
+     * @return The number of bytes used by the tiles that weren't held by any entry before.
+     */
+    long retain() {
+        long size = tiles.length * REFERENCE_SIZE;
+        for (Tile tile : tiles) {
+            if ((tile.references++ == 0) && !tile.isShared) {
+                size += tile.getSize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Counts this snapshot's tiles as being held by one less PictureCache entry.
+     * This must be called while holding the PictureCache's lock.
+     *
+     * @return The number of bytes used by the tiles that are no longer held by any entry.
+     */
+    long release() {
+        long size = tiles.length * REFERENCE_SIZE;
+        for (Tile tile : tiles) {
+            if ((--tile.references == 0) && !tile.isShared) {
+                size += tile.getSize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * A single tile of pixels. The pixels of a tile never change. Tiles at the
+     * right and bottom edges of the screen are the same size as the others, with
+     * the pixels that are off the screen being unused. A tile with a palette holds
+     * its pixels as indexes in to the palette, packed two to a byte with the left
+     * pixel in the high nibble; otherwise it holds the pixels themselves.
+     */
+    private static class Tile {
+
+        /**
+         * The pixels of the tile, in rows of TILE_WIDTH, either packed or one to a byte.
+         */
+        private final byte[] data;
+
+        /**
+         * The values that the packed pixels index, or null if the pixels aren't packed.
+         */
+        private final byte[] palette;
+
+        /**
+         * Says whether this is one of the uniform tiles that all snapshots share.
+         */
+        private final boolean isShared;
+
+        /**
+         * The number of PictureCache entries that hold this tile.
+         */
+        private int references;
+
+        /**
+         * Constructor for Tile.
+         *
+         * @param data The pixels of the tile, either packed or one to a byte.
+         * @param palette The values that the packed pixels index, or null if the pixels aren't packed.
+         * @param isShared true if this is one of the uniform tiles that all snapshots share.
+         */
+        Tile(byte[] data, byte[] palette, boolean isShared) {
+            this.data = data;
+            this.palette = palette;
+            this.isShared = isShared;
+        }
+
+        /**
+         * Gets the number of bytes used by the tile's pixels.
+         *
+         * @return The number of bytes used by the tile's pixels.
+         */
+        int getSize() {
+            return data.length + (palette != null? palette.length : 0);
+        }
+
+        /**
+         * Gets the pixel at the given index within the tile.
+         *
+         * @param i The index of the pixel, in rows of TILE_WIDTH.
+         *
+         * @return The pixel value.
+         */
+        byte getPixel(int i) {
+            if (palette == null) {
+                return data[i];
+            }
+            int packedPixels = data[i >> 1];
+            return palette[((i & 1) == 0? (packedPixels >> 4) : packedPixels) & 0x0F];
+        }
+
+        /**
+         * Copies a row of the tile's pixels in to the given screen.
+         *
+         * @param y The row of the tile to copy.
+         * @param screen The pixel data of the screen.
+         * @param index The index within the screen to copy the row to.
+         * @param count The number of pixels to copy.
+         */
+        void copyRow(int y, byte[] screen, int index, int count) {
+            int tileIndex = y * TILE_WIDTH;
+            if (palette == null) {
+                System.arraycopy(data, tileIndex, screen, index, count);
+            } else {
+                for (int x = 0; x < count; x++) {
+                    screen[index + x] = getPixel(tileIndex + x);
+                }
+            }
+        }
+
+        /**
+         * Returns true if this tile holds the same pixels as the given part of the screen.
+         *
+         * @param screen The pixel data of the screen.
+         * @param width The width of the screen in pixels.
+         * @param left The left edge of the tile.
+         * @param top The top edge of the tile.
+         * @param height The height of the screen in pixels.
+         *
+         * @return true if the pixels are the same; otherwise false.
+         */
+        boolean isSameAs(byte[] screen, int width, int left, int top, int height) {
+            int tileWidth = Math.min(TILE_WIDTH, width - left);
+            int tileHeight = Math.min(TILE_HEIGHT, height - top);
+            for (int y = 0; y < tileHeight; y++) {
+                int index = ((top + y) * width) + left;
+                int tileIndex = y * TILE_WIDTH;
+                for (int x = 0; x < tileWidth; x++) {
+                    if (screen[index + x] != getPixel(tileIndex + x)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.agifans.picedit.utils;
 
 import java.awt.Color;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -104,6 +106,52 @@ public class EgaPalette {
         }
     }
     
+    /**
+     * The palette index at which the transparent versions of the 16 EGA colours 
+     * start. The picture screens hold palette indexes rather than RGB values. 
+     * Indexes 0 to 16 are the 16 EGA colours and the transparent colour, and 
+     * indexes 17 to 32 are the transparent versions of the 16 EGA colours.
+     */
+    public final static int TRANSPARENT_COLOURS_INDEX = 17;
+    
+    /**
+     * Holds the RGB values for each palette index.
+     */
+    public final static int[] palette = new int[TRANSPARENT_COLOURS_INDEX + 16];
+    
+    /**
+     * Holds the palette indexes for the 16 EGA colours (and also the transparent colour).
+     */
+    public final static byte[] colourIndexes = new byte[colours.length];
+    
+    /**
+     * Holds the palette indexes for the transparent version of the 16 EGA colours.
+     */
+    public final static byte[] transparentColourIndexes = new byte[transparent_colours.length];
+    
+    /**
+     * Holds a mapping from palette index to EGA colour number.
+     */
+    public final static int[] colourNumbers = new int[palette.length];
+    static {
+        for (int i=0; i<colours.length; i++) {
+            palette[i] = colours[i];
+            colourIndexes[i] = (byte)i;
+            colourNumbers[i] = i;
+        }
+        for (int i=0; i<16; i++) {
+            palette[TRANSPARENT_COLOURS_INDEX + i] = transparent_colours[i];
+            transparentColourIndexes[i] = (byte)(TRANSPARENT_COLOURS_INDEX + i);
+            colourNumbers[TRANSPARENT_COLOURS_INDEX + i] = i;
+        }
+        transparentColourIndexes[16] = (byte)16;
+    }
+    
+    /**
+     * The ColorModel to use for images backed by palette indexes.
+     */
+    public final static IndexColorModel COLOR_MODEL = new IndexColorModel(8, palette.length, palette, 0, true, -1, DataBuffer.TYPE_BYTE);
+    
     /**
      * Holds the Color objects for the 16 EGA colours.
      */
@@ -2,20 +2,29 @@ package com.agifans.picedit.view;
 
 import java.awt.Graphics;
 import java.awt.Image;
-import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
-import java.awt.image.ColorModel;
-import java.awt.image.MemoryImageSource;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
+import javax.swing.Timer;
+
+import com.agifans.picedit.picture.DirtyRegion;
 import com.agifans.picedit.picture.EditStatus;
 import com.agifans.picedit.picture.Picture;
+import com.agifans.picedit.picture.PriorityPlanes;
 import com.agifans.picedit.types.PictureType;
 import com.agifans.picedit.utils.EgaPalette;
 
 /**
- * Handles the Ego Test mode when it is activated.
+ * Handles the Ego Test mode when it is activated. Ego walks on a Swing Timer, so
+ * like everything else that touches the Picture it runs on the event dispatch 
+ * thread. The Timer only runs while Ego is walking.
+ * 
+ * Each cell has its own Image that is reused. The cell Image is only masked 
+ * against the priority screen again when Ego moves, changes cell or the part of
+ * the picture that Ego stands in front of changes.
  * 
  * @author Lance Ewing
  */
@@ -56,6 +65,11 @@ public class EgoTestHandler {
      */
     protected Direction direction = Direction.NONE;
     
+    /**
+     * The Timer that makes Ego walk.
+     */
+    private Timer walkingTimer;
+    
     /**
      * The Picture that this EgoTestHandler is testing.
      */
@@ -66,6 +80,35 @@ public class EgoTestHandler {
      */
     private EditStatus editStatus;
     
+    /**
+     * The Image for each cell of each loop, created when first needed and then reused.
+     */
+    private BufferedImage[][] cellImages;
+    
+    /**
+     * The loop, cell, position and priority showing setting that the cell Image was
+     * last masked for.
+     */
+    private int maskedLoop;
+    private int maskedCell;
+    private int maskedX;
+    private int maskedY;
+    private boolean maskedPriorityShowing;
+    
+    /**
+     * Says whether the last masked cell Image is still valid, i.e. the priority 
+     * screen behind and below Ego hasn't changed.
+     */
+    private boolean maskValid;
+    
+    /**
+     * The region of the picture that Ego was last drawn on.
+     */
+    private int drawnLeft;
+    private int drawnTop;
+    private int drawnRight;
+    private int drawnBottom;
+    
     /**
      * Constructor for EgoTestHandler.
      * 
@@ -86,73 +129,136 @@ public class EgoTestHandler {
         this.x = 80 - (this.getCurrentCellWidth() / 2);
         this.y = 150 - this.getCurrentCellHeight();
         
-        // Timer that makes Ego walk when Ego Test mode is activated.
-        Timer timer = new Timer();
-        TimerTask walkingTask = new TimerTask() {
-            public void run() {
-                if (editStatus.isEgoTestEnabled()) {
+        this.cellImages = new BufferedImage[egoView.getNumberOfLoops()][];
+        this.drawnRight = -1;
+        this.drawnBottom = -1;
+        
+        // Timer that makes Ego walk when Ego Test mode is activated. It stops when Ego does.
+        walkingTimer = new Timer(100, new ActionListener() {
+            public void actionPerformed(ActionEvent event) {
+                if (editStatus.isEgoTestEnabled() && (direction != Direction.NONE)) {
                     cycleAndMoveEgo();
+                } else {
+                    walkingTimer.stop();
                 }
             }
-        };
-        timer.scheduleAtFixedRate(walkingTask, 100, 100);
+        });
     }
     
     /**
      * Gets the current cell in Image form, adjusted according to the priority
-     * screen rules for the Ego's current position.
+     * screen rules for the Ego's current position. The Image is reused and is 
+     * only masked again if something has changed since the last time.
      * 
-     * @return The created Image to be displayed on the picture.
+     * @return The Image to be displayed on the picture.
      */
     public Image getCurrentCellImage() {
+        BufferedImage cellImage = getCellImage(currentLoop, currentCell);
+        boolean priorityShowing = this.editStatus.isPriorityShowing();
+        if (!maskValid || (maskedLoop != currentLoop) || (maskedCell != currentCell) || 
+                (maskedX != x) || (maskedY != y) || (maskedPriorityShowing != priorityShowing)) {
+            maskCellImage(cellImage, priorityShowing);
+            maskedLoop = currentLoop;
+            maskedCell = currentCell;
+            maskedX = x;
+            maskedY = y;
+            maskedPriorityShowing = priorityShowing;
+            maskValid = true;
+        }
+        return cellImage;
+    }
+    
+    /**
+     * Gets the Image for the given cell of the given loop, creating it if it
+     * doesn't already exist.
+     * 
+     * @param loopNumber The number of the loop.
+     * @param cellNumber The number of the cell within the loop.
+     * 
+     * @return The Image for the cell.
+     */
+    private BufferedImage getCellImage(int loopNumber, int cellNumber) {
+        Loop loop = this.egoView.getLoop(loopNumber);
+        if (cellImages[loopNumber] == null) {
+            cellImages[loopNumber] = new BufferedImage[loop.getNumberOfCells()];
+        }
+        BufferedImage cellImage = cellImages[loopNumber][cellNumber];
+        if (cellImage == null) {
+            Cell cell = loop.getCell(cellNumber);
+            cellImage = new BufferedImage(cell.getWidth(), cell.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            cellImages[loopNumber][cellNumber] = cellImage;
+        }
+        return cellImage;
+    }
+    
+    /**
+     * Fills the given cell Image with the current cell, masked against the effective
+     * priority of the picture at Ego's current position.
+     * 
+     * @param cellImage The Image to fill.
+     * @param priorityShowing true if Ego should be drawn in its priority band colour.
+     */
+    private void maskCellImage(BufferedImage cellImage, boolean priorityShowing) {
         Cell cell = this.egoView.getLoop(currentLoop).getCell(currentCell);
-        int[] rgbPixelData = cell.getRGBPixelData().clone();
+        int[] cellPixelData = cell.getRGBPixelData();
+        int[] rgbPixelData = ((DataBufferInt)cellImage.getRaster().getDataBuffer()).getData();
         int transparentColour = cell.getTransparentColour();
         int priorityBand = getPriorityBand();
         int priorityBandColour = EgaPalette.colours[priorityBand];
         int width = cell.getWidth();
         int height = cell.getHeight();
+        PriorityPlanes priorityPlanes = picture.getPriorityPlanes();
         
         int egoDataOffset = 0;
         for (int egoY=0; egoY < height; egoY++) {
             for (int egoX=0; egoX < width; egoX++) {
-                if (rgbPixelData[egoDataOffset] == transparentColour) {
-                    rgbPixelData[egoDataOffset] = EgaPalette.transparent;
-                } else {
-                    int pictureX = this.x + egoX;
-                    int pictureY = this.y + egoY;
-                    int picPriority = 0;
-                    
-                    // Determine priority at this pixel location.
-                    for (int pictureOffset = (pictureY * 160) + pictureX; pictureOffset < 26880; pictureOffset = pictureOffset + 160) {
-                        picPriority = EgaPalette.reverseColours.get(picture.getPriorityScreen()[pictureOffset]);
-                        if (picPriority >= 3) {
-                            break;
-                        }
-                    }
-                    
-                    // Convert transparent priority value back to red. Also handles KQ1 fix (i.e. 3 value)
-                    if ((picPriority == 3) || (picPriority == 16)) {
-                        picPriority = 4;
-                    }
-                    
+                int rgb = cellPixelData[egoDataOffset];
+                if (rgb == transparentColour) {
+                    rgb = EgaPalette.transparent;
+                } else if (priorityPlanes.getPriority(this.x + egoX, this.y + egoY) > priorityBand) {
                     // If the picture priority is greater than ego priority then
                     // make the pixel transparent. This will make Ego appear to go
                     // behind that part of the screen.
-                    if (picPriority > priorityBand) {
-                        rgbPixelData[egoDataOffset] = EgaPalette.transparent;
-                    } else {
-                        // Render Ego in its priority band if priority screen is showing.
-                        if (this.editStatus.isPriorityShowing()) {
-                            rgbPixelData[egoDataOffset] = priorityBandColour;
-                        }
-                    }
+                    rgb = EgaPalette.transparent;
+                } else if (priorityShowing) {
+                    // Render Ego in its priority band if priority screen is showing.
+                    rgb = priorityBandColour;
                 }
-                egoDataOffset++;
+                rgbPixelData[egoDataOffset++] = rgb;
             }
         }
+    }
+    
+    /**
+     * Adds the parts of the picture that Ego needs to be redrawn on to the given
+     * DirtyRegion. On the way in, the region holds the parts of the picture that 
+     * have changed. If any of those are behind or below Ego then Ego will be masked
+     * again. If Ego needs to be redrawn, then both where Ego was last drawn and 
+     * where Ego is now are added to the region.
+     * 
+     * @param region The region of the picture that has changed.
+     */
+    public void addChangedRegion(DirtyRegion region) {
+        int left = this.x;
+        int top = this.y;
+        int right = left + getCurrentCellWidth() - 1;
+        int bottom = top + getCurrentCellHeight() - 1;
+        
+        if (!region.isEmpty() && (region.getLeft() <= right) && (region.getRight() >= left) && (region.getBottom() >= top)) {
+            maskValid = false;
+        }
         
-        return Toolkit.getDefaultToolkit().createImage(new MemoryImageSource(width, height, ColorModel.getRGBdefault(), rgbPixelData, 0, width));
+        if (!maskValid || (maskedLoop != currentLoop) || (maskedCell != currentCell) || (maskedX != x) || (maskedY != y) ||
+                (left != drawnLeft) || (top != drawnTop) || (right != drawnRight) || (bottom != drawnBottom)) {
+            if (drawnRight >= drawnLeft) {
+                region.add(drawnLeft, drawnTop, drawnRight, drawnBottom);
+            }
+            region.add(left, top, right, bottom);
+            drawnLeft = left;
+            drawnTop = top;
+            drawnRight = right;
+            drawnBottom = bottom;
+        }
     }
     
     /**
@@ -215,6 +321,15 @@ public class EgoTestHandler {
         graphics.drawImage(egoImage, x * 2 * zoomFactor, y * zoomFactor, getCurrentCellWidth() * 2 * zoomFactor, getCurrentCellHeight() * zoomFactor, null);
     }
     
+    /**
+     * Returns true if Ego is currently walking.
+     * 
+     * @return true if Ego is currently walking; otherwise false.
+     */
+    public boolean isMoving() {
+        return walkingTimer.isRunning();
+    }
+    
     /**
      * Cycles Ego to the next Cell and moves in the current direction.
      */
@@ -256,14 +371,11 @@ public class EgoTestHandler {
                     break;
             }
             
-            // Check to see if Ego is allowed to move to the new position (i.e. no obstacle line)
-            int startOffset = ((newY + this.getCurrentCellHeight()) * 160) + newX;
-            int endOffset = startOffset + this.getCurrentCellWidth();
-            for (int pictureOffset=startOffset; pictureOffset < endOffset; pictureOffset++) {
-                // If this point has a black unconditional obstacle pixel then exit without applying movement.
-                if (EgaPalette.reverseColours.get(picture.getPriorityScreen()[pictureOffset]) == 0) {
-                    return;
-                }
+            // Check to see if Ego is allowed to move to the new position. If there is a black 
+            // unconditional obstacle line then exit without applying movement.
+            int baseline = newY + this.getCurrentCellHeight();
+            if (picture.getPriorityPlanes().isControlLine(PriorityPlanes.BLOCK, newX, newX + this.getCurrentCellWidth() - 1, baseline)) {
+                return;
             }
 
             // It is okay to move to the new position, so apply the motion.
@@ -327,5 +439,9 @@ public class EgoTestHandler {
                 }
                 break;
         }
+        
+        if (this.direction != Direction.NONE) {
+            walkingTimer.start();
+        }
     }
 }
@@ -0,0 +1,135 @@
+package com.agifans.picedit.picture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.agifans.picedit.types.PictureType;
+
+/**
+ * Tests that a picture dialect can plug its own action codes in to a
+ * PictureCodeRegistry alongside the standard AGI ones.
+ */
+public class PictureCodeRegistryTest {
+
+    /**
+     * The action code of the test dialect's pixel action, which AGI doesn't use.
+     */
+    private static final int DRAW_PIXELS = 0xFB;
+
+    /**
+     * Plots a single pixel at each of the points after the action code. This isn't
+     * an AGI action, so it has no PictureCodeType of its own.
+     */
+    static class PixelHandler extends PictureCodeHandler {
+
+        PixelHandler() {
+            super(DRAW_PIXELS, "DrawPixels");
+        }
+
+        public void read(PictureCodeReader reader) {
+            int x, y;
+            while (!reader.isActionCode(x = reader.next()) && !reader.isActionCode(y = reader.next())) {
+                reader.add(PictureCodeType.OTHER_DATA, ((x << 8) | y));
+            }
+            reader.back();
+        }
+
+        public int compile(RenderProgram program, int position, int index, int endPosition) {
+            PictureCodeBuffer pictureCodes = program.getPictureCodes();
+            while ((index <= endPosition) && (pictureCodes.getType(index) == PictureCodeType.OTHER_DATA)) {
+                int code = pictureCodes.getCode(index++);
+                program.addOp(RenderProgram.PIXEL, index - 1, (code & 0xFF00) >> 8, (code & 0x00FF));
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Creates a registry with the AGI handlers and the test dialect's pixel action.
+     */
+    private static PictureCodeRegistry createRegistry() {
+        PictureCodeRegistry registry = new PictureCodeRegistry(PictureCodeRegistry.AGI);
+        registry.register(new PixelHandler());
+        return registry;
+    }
+
+    /**
+     * Reads the given raw picture data using the given registry.
+     */
+    private static PictureCodeBuffer read(PictureCodeRegistry registry, int... data) {
+        byte[] pictureData = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            pictureData[i] = (byte)data[i];
+        }
+        PictureCodeBuffer pictureCodes = new PictureCodeBuffer();
+        pictureCodes.setCodeRegistry(registry);
+        new PictureCodeReader(pictureData, pictureCodes).read();
+        return pictureCodes;
+    }
+
+    @Test
+    public void handlerDeclaresItsOwnActionCode() {
+        PictureCodeHandler handler = new PixelHandler();
+        assertEquals(DRAW_PIXELS, handler.getActionCode());
+        assertEquals("DrawPixels", handler.getDisplayableText());
+        assertSame(PictureCodeType.OTHER_ACTION, handler.getType());
+
+        PictureCodeRegistry registry = createRegistry();
+        assertSame(PixelHandler.class, registry.getHandler(DRAW_PIXELS).getClass());
+        assertNull(PictureCodeRegistry.AGI.getHandler(DRAW_PIXELS));
+    }
+
+    @Test
+    public void readsAndIndexesOtherDialectActions() {
+        PictureCodeBuffer pictureCodes = read(createRegistry(), 0xF0, 0x04, 0xFB, 0x10, 0x20, 0x30, 0x40, 0xF1, 0xFF);
+
+        // SetVisualColor, colour, DrawPixels, 2 points, SetVisualColorOff, End
+        assertEquals(7, pictureCodes.size());
+        assertEquals(3, pictureCodes.getActionCount());
+        assertTrue(pictureCodes.isActionCode(2));
+        assertEquals(DRAW_PIXELS, pictureCodes.getCode(2));
+        assertTrue(pictureCodes.getPictureCode(2).isActionCode());
+        assertTrue(pictureCodes.isDataCode(3));
+        assertTrue(pictureCodes.isDataCode(4));
+        assertEquals(2, pictureCodes.getNextActionIndex(0));
+        assertEquals(5, pictureCodes.getNextActionIndex(2));
+        assertEquals(2, pictureCodes.getActionStart(4));
+    }
+
+    @Test
+    public void skipsOtherDialectActionsWithoutTheirHandler() {
+        PictureCodeBuffer pictureCodes = read(PictureCodeRegistry.AGI, 0xF0, 0x04, 0xFB, 0x10, 0x20, 0xF1, 0xFF);
+
+        // SetVisualColor, colour, SetVisualColorOff, End
+        assertEquals(4, pictureCodes.size());
+        assertEquals(2, pictureCodes.getActionCount());
+    }
+
+    @Test
+    public void changingTheRegistryReindexesTheActions() {
+        PictureCodeBuffer pictureCodes = read(createRegistry(), 0xFB, 0x10, 0x20, 0xFF);
+        assertEquals(1, pictureCodes.getActionCount());
+
+        pictureCodes.setCodeRegistry(PictureCodeRegistry.AGI);
+        assertEquals(0, pictureCodes.getActionCount());
+        assertFalse(pictureCodes.isActionCode(0));
+    }
+
+    @Test
+    public void rendersOtherDialectActions() {
+        PictureCodeBuffer pictureCodes = read(createRegistry(), 0xF0, 0x04, 0xFB, 0x10, 0x20, 0x30, 0x40, 0xFF);
+        PictureRenderer renderer = new PictureRenderer(PictureType.AGI);
+        renderer.render(pictureCodes);
+
+        byte[] visualScreen = renderer.getVisualScreen();
+        int width = PictureType.AGI.getWidth();
+        assertEquals(0x04, visualScreen[(0x20 * width) + 0x10]);
+        assertEquals(0x04, visualScreen[(0x40 * width) + 0x30]);
+        assertEquals(EditStatus.TRANSPARENT, visualScreen[(0x20 * width) + 0x11]);
+    }
+}
@@ -0,0 +1,75 @@
+package com.agifans.picedit.picture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that TiledScreen snapshots restore the screen that they were taken of,
+ * whether the tiles are uniform, packed two pixels to a byte or one to a byte.
+ */
+public class TiledScreenTest {
+
+    private static final int WIDTH = 160;
+
+    private static final int HEIGHT = 168;
+
+    /**
+     * Takes a snapshot of the given screen and restores it in to a new screen.
+     */
+    private static byte[] roundTrip(byte[] screen) {
+        boolean[] changedTiles = new boolean[TiledScreen.getTilesAcross(WIDTH) * TiledScreen.getTilesDown(HEIGHT)];
+        TiledScreen snapshot = TiledScreen.snapshot(screen, WIDTH, null, changedTiles);
+        byte[] restored = new byte[screen.length];
+        snapshot.restore(restored, null, changedTiles, new boolean[changedTiles.length]);
+        return restored;
+    }
+
+    /**
+     * Creates a screen of random values between 0 and the given number of values.
+     */
+    private static byte[] createScreen(int numberOfValues) {
+        Random random = new Random(numberOfValues);
+        byte[] screen = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < screen.length; i++) {
+            screen[i] = (byte)random.nextInt(numberOfValues);
+        }
+        return screen;
+    }
+
+    @Test
+    public void restoresUniformTiles() {
+        byte[] screen = new byte[WIDTH * HEIGHT];
+        Arrays.fill(screen, (byte)EditStatus.TRANSPARENT);
+        assertArrayEquals(screen, roundTrip(screen));
+    }
+
+    @Test
+    public void restoresPackedTiles() {
+        // Includes transparent (16) and a transparent fill colour, so the values go above 15.
+        byte[] screen = createScreen(16);
+        for (int i = 0; i < screen.length; i += 7) {
+            screen[i] = (byte)(screen[i] + 16);
+        }
+        assertArrayEquals(screen, roundTrip(screen));
+    }
+
+    @Test
+    public void restoresTilesWithMoreThanSixteenValues() {
+        byte[] screen = createScreen(34);
+        assertArrayEquals(screen, roundTrip(screen));
+    }
+
+    @Test
+    public void packedTilesUseFewerBytes() {
+        boolean[] changedTiles = new boolean[TiledScreen.getTilesAcross(WIDTH) * TiledScreen.getTilesDown(HEIGHT)];
+        long packedSize = TiledScreen.snapshot(createScreen(16), WIDTH, null, changedTiles).retain();
+        long unpackedSize = TiledScreen.snapshot(createScreen(34), WIDTH, null, changedTiles).retain();
+        // Each packed tile is 64 bytes of pixels plus its palette, rather than 128 bytes.
+        assertTrue(packedSize < ((unpackedSize * 7) / 10));
+    }
+}